@@ -0,0 +1,56 @@
+package com.naef.jnlua.benchmark;
+
+import com.naef.jnlua.LuaState;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Abstract base class for the JMH benchmarks. Each benchmark thread gets its
+ * own Lua state.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public abstract class AbstractLuaBenchmark {
+    // -- State
+    protected LuaState luaState;
+
+    // -- Setup
+
+    /**
+     * Creates the Lua state and runs the benchmark specific setup.
+     */
+    @Setup(Level.Trial)
+    public void setupState() throws Exception {
+        luaState = new LuaState();
+        setup();
+    }
+
+    /**
+     * Closes the Lua state.
+     */
+    @TearDown(Level.Trial)
+    public void teardownState() {
+        luaState.close();
+    }
+
+    /**
+     * Performs the benchmark specific setup.
+     */
+    protected void setup() throws Exception {
+    }
+
+    // -- Protected methods
+
+    /**
+     * Runs a chunk, leaving its results on the stack.
+     */
+    protected void run(String chunk, int returnCount) {
+        luaState.load(chunk, "benchmark");
+        luaState.call(0, returnCount);
+    }
+}
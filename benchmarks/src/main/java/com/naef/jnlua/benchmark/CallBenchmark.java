@@ -0,0 +1,42 @@
+package com.naef.jnlua.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Benchmarks calling Lua functions from Java with {@code call(Object...)}.
+ */
+public class CallBenchmark extends AbstractLuaBenchmark {
+    // -- State
+    @Param({"0", "1", "4", "16"})
+    public int argCount;
+    private Object[] args;
+
+    @Override
+    protected void setup() {
+        args = new Object[argCount];
+        for (int i = 0; i < argCount; i++) {
+            args[i] = (i & 1) == 0 ? (Object) i : "arg" + i;
+        }
+        run("return function(...) return select('#', ...) end", 1);
+    }
+
+    // -- Benchmarks
+    @Benchmark
+    public Object[] callVarargs() {
+        luaState.pushValue(1);
+        return luaState.call(args);
+    }
+
+    @Benchmark
+    public long callStack() {
+        luaState.pushValue(1);
+        for (int i = 0; i < argCount; i++) {
+            luaState.pushJavaObject(args[i]);
+        }
+        luaState.call(argCount, 1);
+        final long result = luaState.toInteger(-1);
+        luaState.pop(1);
+        return result;
+    }
+}
@@ -0,0 +1,87 @@
+package com.naef.jnlua.benchmark;
+
+import com.naef.jnlua.LuaState;
+import org.openjdk.jmh.annotations.Benchmark;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Benchmarks the per-class metadata lookups on the push and
+ * <code>__index</code> paths. The <code>baseline</code> benchmarks reproduce
+ * the former map based lookups, which allocated a key object per member
+ * access.
+ */
+public class ClassMetadataBenchmark extends AbstractLuaBenchmark {
+    // -- State
+    private final Payload payload = new Payload();
+    private final ConcurrentHashMap<Class<?>, byte[]> nameCache = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<MemberKey, Object> memberCache = new ConcurrentHashMap<>();
+    private final String member = new String("intField");
+
+    @Override
+    protected void setup() {
+        nameCache.put(Payload.class, LuaState.getCanonicalName(Payload.class));
+        memberCache.put(new MemberKey(Payload.class, "intField"), payload);
+        luaState.pushJavaObject(payload);
+    }
+
+    // -- Benchmarks
+    @Benchmark
+    public byte[] canonicalName() {
+        return LuaState.getCanonicalName(payload);
+    }
+
+    @Benchmark
+    public byte[] baselineCanonicalName() {
+        return nameCache.get(payload.getClass());
+    }
+
+    @Benchmark
+    public Object baselineMemberLookup() {
+        return memberCache.get(new MemberKey(payload.getClass(), member));
+    }
+
+    @Benchmark
+    public void pushJavaObject() {
+        luaState.pushJavaObject(payload);
+        luaState.pop(1);
+    }
+
+    @Benchmark
+    public long indexField() {
+        luaState.getField(1, member);
+        final long result = luaState.toInteger(-1);
+        luaState.pop(1);
+        return result;
+    }
+
+    // -- Member types
+
+    /**
+     * The former (class, member name) key of the Invoker cache.
+     */
+    private static final class MemberKey {
+        private final Class<?> clz;
+        private final String name;
+        private final int hashCode;
+
+        private MemberKey(Class<?> clz, String name) {
+            this.clz = clz;
+            this.name = name;
+            this.hashCode = clz.hashCode() * 31 + name.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof MemberKey)) return false;
+            final MemberKey other = (MemberKey) obj;
+            return clz == other.clz && name.equals(other.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.naef.jnlua.benchmark;
+
+import com.naef.jnlua.JavaFunction;
+import com.naef.jnlua.LuaState;
+import org.openjdk.jmh.annotations.Benchmark;
+
+/**
+ * Benchmarks resuming Lua threads from Java. Stack index 1 holds a thread
+ * yielding from Lua, index 2 a thread yielding from a Java function.
+ */
+public class CoroutineBenchmark extends AbstractLuaBenchmark {
+    @Override
+    protected void setup() {
+        luaState.register(new JavaFunction() {
+            @Override
+            public int invoke(LuaState luaState) {
+                return luaState.yield(0);
+            }
+
+            @Override
+            public String getName() {
+                return "javayield";
+            }
+        });
+        run("return function() while true do coroutine.yield(1) end end", 1);
+        luaState.newThread();
+        run("return function() while true do javayield() end end", 1);
+        luaState.newThread();
+    }
+
+    // -- Benchmarks
+    @Benchmark
+    public void resumeLuaYield() {
+        luaState.pop(luaState.resume(1, 0));
+    }
+
+    @Benchmark
+    public void resumeJavaYield() {
+        luaState.pop(luaState.resume(2, 0));
+    }
+}
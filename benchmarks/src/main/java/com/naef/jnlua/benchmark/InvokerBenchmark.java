@@ -0,0 +1,53 @@
+package com.naef.jnlua.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+
+/**
+ * Benchmarks field and method dispatch on Java objects from Lua. Each
+ * invocation runs a Lua loop of {@link #LOOP} accesses.
+ */
+public class InvokerBenchmark extends AbstractLuaBenchmark {
+    private static final int LOOP = 1000;
+
+    @Override
+    protected void setup() {
+        luaState.pushGlobal("payload", new Payload());
+        luaState.pushGlobal("Payload", Payload.class);
+        run("local o, P, n = payload, Payload, " + LOOP + "\n"
+                + "return function() for i = 1, n do o.intField = i end end,\n"
+                + "       function() local x for i = 1, n do x = o.intField end return x end,\n"
+                + "       function() for i = 1, n do o:setValue(i) end end,\n"
+                + "       function() local x for i = 1, n do x = P.add(i, 1) end return x end", 4);
+    }
+
+    private void invoke(int index) {
+        luaState.pushValue(index);
+        luaState.call(0, 0);
+    }
+
+    // -- Benchmarks
+    @Benchmark
+    @OperationsPerInvocation(LOOP)
+    public void fieldWrite() {
+        invoke(1);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOP)
+    public void fieldRead() {
+        invoke(2);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOP)
+    public void methodCall() {
+        invoke(3);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOP)
+    public void staticMethodCall() {
+        invoke(4);
+    }
+}
@@ -0,0 +1,34 @@
+package com.naef.jnlua.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+
+/**
+ * Benchmarks the {@code java.new} and {@code java.require} functions of the
+ * Java module. Each invocation runs a Lua loop of {@link #LOOP} calls.
+ */
+public class JavaModuleBenchmark extends AbstractLuaBenchmark {
+    private static final int LOOP = 1000;
+
+    @Override
+    protected void setup() {
+        run("local n = " + LOOP + "\n"
+                + "return function() local o for i = 1, n do o = java.new('com.naef.jnlua.benchmark.Payload') end return o end,\n"
+                + "       function() local c for i = 1, n do c = java.require('java.lang.Math') end return c end", 2);
+    }
+
+    // -- Benchmarks
+    @Benchmark
+    @OperationsPerInvocation(LOOP)
+    public void javaNew() {
+        luaState.pushValue(1);
+        luaState.call(0, 0);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOP)
+    public void javaRequire() {
+        luaState.pushValue(2);
+        luaState.call(0, 0);
+    }
+}
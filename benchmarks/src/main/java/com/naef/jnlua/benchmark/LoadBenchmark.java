@@ -0,0 +1,59 @@
+package com.naef.jnlua.benchmark;
+
+import com.naef.jnlua.LuaState;
+import com.naef.jnlua.util.LuaBytecodeStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks loading a large generated chunk from an input stream, from a
+ * direct buffer, and from a bytecode store holding its binary chunk.
+ */
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LoadBenchmark extends AbstractLuaBenchmark {
+    // -- State
+    private String source;
+    private byte[] bytes;
+    private ByteBuffer buffer;
+    private LuaBytecodeStore store;
+
+    @Override
+    protected void setup() {
+        StringBuilder sb = new StringBuilder("local rules = {}\n");
+        for (int i = 0; i < 20000; i++) {
+            sb.append("rules[").append(i).append("] = { id = ").append(i).append(", name = 'rule").append(i).append("', weight = ").append(i * 0.5).append(" }\n");
+        }
+        sb.append("return rules\n");
+        source = sb.toString();
+        bytes = source.getBytes(LuaState.UTF8);
+        buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        store = new LuaBytecodeStore();
+        store.load(luaState, source, "=rules");
+        luaState.pop(1);
+    }
+
+    // -- Benchmarks
+    @Benchmark
+    public void loadStream() throws IOException {
+        luaState.load(new ByteArrayInputStream(bytes), "=rules", "t");
+        luaState.pop(1);
+    }
+
+    @Benchmark
+    public void loadBuffer() {
+        luaState.load(buffer, "=rules", "t");
+        luaState.pop(1);
+    }
+
+    @Benchmark
+    public void loadStore() {
+        store.load(luaState, source, "=rules");
+        luaState.pop(1);
+    }
+}
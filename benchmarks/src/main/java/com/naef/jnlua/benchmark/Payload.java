@@ -0,0 +1,21 @@
+package com.naef.jnlua.benchmark;
+
+/**
+ * Java object accessed from Lua by the benchmarks.
+ */
+public class Payload {
+    public int intField;
+    private int value;
+
+    public int getValue() {
+        return value;
+    }
+
+    public void setValue(int value) {
+        this.value = value;
+    }
+
+    public static int add(int a, int b) {
+        return a + b;
+    }
+}
@@ -0,0 +1,38 @@
+package com.naef.jnlua.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+
+import java.io.Serializable;
+import java.util.Comparator;
+
+/**
+ * Benchmarks calling a Lua-implemented Java interface from Java. A single
+ * interface is served by a generated class, while an additional marker
+ * interface forces {@code java.lang.reflect.Proxy}.
+ */
+public class ProxyBenchmark extends AbstractLuaBenchmark {
+    // -- State
+    private Comparator<Integer> generated;
+    private Comparator<Integer> reflective;
+    private int i;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void setup() {
+        run("return { compare = function(self, a, b) return a - b end }", 1);
+        generated = luaState.getProxy(-1, Comparator.class);
+        reflective = (Comparator<Integer>) luaState.getProxy(-1, new Class<?>[]{Comparator.class, Serializable.class});
+        luaState.pop(1);
+    }
+
+    // -- Benchmarks
+    @Benchmark
+    public int compareGenerated() {
+        return generated.compare(i++ & 1023, 512);
+    }
+
+    @Benchmark
+    public int compareReflective() {
+        return reflective.compare(i++ & 1023, 512);
+    }
+}
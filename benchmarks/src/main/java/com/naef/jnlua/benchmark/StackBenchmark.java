@@ -0,0 +1,51 @@
+package com.naef.jnlua.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Benchmarks moving single values between Java and the Lua stack.
+ */
+public class StackBenchmark extends AbstractLuaBenchmark {
+    // -- State
+    @Param({"integer", "double", "string", "object"})
+    public String kind;
+    private Object value;
+
+    @Override
+    protected void setup() {
+        switch (kind) {
+            case "integer":
+                value = 42;
+                break;
+            case "double":
+                value = 4.2;
+                break;
+            case "string":
+                value = "The quick brown fox jumps over the lazy dog";
+                break;
+            default:
+                value = new Payload();
+        }
+    }
+
+    // -- Benchmarks
+    @Benchmark
+    public void pushJavaObject() {
+        luaState.pushJavaObject(value);
+        luaState.pop(1);
+    }
+
+    @Benchmark
+    public Object pushAndToJavaObject() {
+        luaState.pushJavaObject(value);
+        final Object result = luaState.toJavaObject(-1, Object.class);
+        luaState.pop(1);
+        return result;
+    }
+
+    @Benchmark
+    public int getTop() {
+        return luaState.getTop();
+    }
+}
@@ -0,0 +1,82 @@
+package com.naef.jnlua.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Benchmarks table access and conversion. Stack index 1 holds a table with
+ * string keys, index 2 a sequence of numbers, both of the given size.
+ */
+public class TableBenchmark extends AbstractLuaBenchmark {
+    // -- State
+    @Param({"16", "1024", "65536"})
+    public int size;
+    private String[] keys;
+    private double[] values;
+    private int next;
+
+    @Override
+    protected void setup() {
+        keys = new String[size];
+        values = new double[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = "k" + (i + 1);
+            values[i] = i * 0.5;
+        }
+        run("local n = " + size + " local map, list = {}, {}"
+                + " for i = 1, n do map['k' .. i] = i list[i] = i * 0.5 end return map, list", 2);
+    }
+
+    private String nextKey() {
+        next = next + 1 < size ? next + 1 : 0;
+        return keys[next];
+    }
+
+    // -- Benchmarks
+    @Benchmark
+    public Object tableGet() {
+        return luaState.tableGet(1, 0, nextKey(), Object.class);
+    }
+
+    @Benchmark
+    public void tablePush() {
+        luaState.tablePush(1, 0, nextKey(), next, null);
+    }
+
+    @Benchmark
+    public void iterateMap(Blackhole blackhole) {
+        final Map<?, ?> map = luaState.toJavaObject(1, Map.class);
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            blackhole.consume(entry.getKey());
+            blackhole.consume(entry.getValue());
+        }
+    }
+
+    @Benchmark
+    public void iterateList(Blackhole blackhole) {
+        final List<?> list = luaState.toJavaObject(2, List.class);
+        for (Object value : list) {
+            blackhole.consume(value);
+        }
+    }
+
+    @Benchmark
+    public Map<Object, Object> tableSnapshot() {
+        return luaState.tableSnapshot(1, 0, Object.class, Object.class);
+    }
+
+    @Benchmark
+    public void pushArray() {
+        luaState.pushArray(values);
+        luaState.pop(1);
+    }
+
+    @Benchmark
+    public double[] toDoubleArray() {
+        return luaState.toDoubleArray(2);
+    }
+}
@@ -11,10 +11,12 @@
 
 #include <stdlib.h>
 #include <string.h>
+#include <math.h>
 #include <jni.h>
 #include <lua.h>
 #include <lauxlib.h>
 #include <lualib.h>
+#include <luajit.h>
 #include <stdbool.h>
 
 /* Include uintptr_t */
@@ -76,6 +78,7 @@ static void time_stop(int type, const char *func, const char *key)
 #define JNLUA_OBJECT_META "jnlua.Object.Meta" /* Registry key for object metadata */
 #define JNLUA_OBJECT_REF "jnlua.Object.Refs" /* Registry key for object references */
 #define JNLUA_NEGATIVE_CACHE "jnlua.NegativeCache" /* [Optimization #1] Marker for non-existent members (negative cache) */
+#define JNLUA_OBJECT_CACHE "jnlua.ObjectCache" /* Registry key for the weak identity cache of pushed Java objects */
 #define JNLUA_MINSTACK LUA_MINSTACK       /* Minimum stack size for operations */
 
 /* LocalFrame capacity constants for memory management */
@@ -130,6 +133,17 @@ JNLUA_THREADLOCAL JNIEnv *thread_env = NULL;     /* Thread-local JNI environment
 #define JNLUA_ENV_L \
     JNLUA_ENV;      \
     lua_State *L = (lua_State *)(uintptr_t)lua;
+/**
+ * Fast-path JNI Environment Macro with Lua State Conversion
+ * For cheap stack primitives that neither run Lua code nor call back into Java. The JNIEnv passed by
+ * the JVM is valid for the calling thread, so it is stored as thread_env directly instead of going
+ * through GetEnv/AttachCurrentThread, and the control flag, tracing and detach steps are skipped.
+ * No JNLUA_DETACH is needed at the end of such a method.
+ */
+#define JNLUA_ENV_FAST_L \
+    lua_State *L = (lua_State *)(uintptr_t)lua; \
+    thread_env = env;                             \
+    (void)obj;
 /**
  * JNI Environment Detach Macro
  * Detaches the current thread from JVM if it was attached by JNLUA_ENV
@@ -312,8 +326,6 @@ static lua_Debug *getluadebug(jobject javadebug);  /**< Gets Lua debug info from
 static void setluadebug(jobject javadebug, lua_Debug *ar);  /**< Sets Lua debug info in Java LuaDebug object */
 
 /* ---- Memory Management (Integrates with LuaState.java memory tracking) ---- */
-static void getluamemory(jint *total, jint *used);  /**< Gets memory usage from Java LuaState object */
-static void setluamemoryused(jint used);  /**< Sets memory usage in Java LuaState object */
 
 /* ---- Validation and Error Checking Functions ---- */
 static int validindex(lua_State *L, int index);  /**< Checks if Lua stack index is valid */
@@ -346,7 +358,11 @@ jbyteArray jcall_tobytearray(JNIEnv *env, jobject obj, jlong lua, jint index);
 
 /* ---- Error Handling (Converts Lua errors to Java exceptions) ---- */
 static int messagehandler(lua_State *L);  /**< Lua error message handler that creates Java LuaError objects */
+static int calldoublebinary(lua_State *L);  /**< Calls a DoubleBinaryJavaFunction with primitive arguments */
+static int calllongunary(lua_State *L);  /**< Calls a LongUnaryJavaFunction with a primitive argument */
+static int callstringtolong(lua_State *L);  /**< Calls a StringToLongJavaFunction with a string argument */
 static int isrelevant(lua_Debug *ar);  /**< Determines if debug info is relevant for stack traces */
+static int isstacktraceenabled(lua_State *L);  /**< Determines if stack traces are captured for errors */
 static void throw(lua_State * L, int status);  /**< Throws Java exception for Lua error status */
 
 /* ---- Stream Adapters (Connect Java I/O streams with Lua) ---- */
@@ -360,12 +376,15 @@ static jclass luastate_class = NULL;                   /**< com.naef.jnlua.LuaSt
 static jclass luatable_class = NULL;                   /**< com.naef.jnlua.LuaTable class reference */
 static jclass luadebug_class = NULL;                   /**< com.naef.jnlua.LuaState$LuaDebug class reference */
 static jclass javafunction_interface = NULL;           /**< com.naef.jnlua.JavaFunction interface reference */
+static jclass doublebinaryfunction_class = NULL;       /**< com.naef.jnlua.DoubleBinaryJavaFunction class reference */
+static jclass longunaryfunction_class = NULL;          /**< com.naef.jnlua.LongUnaryJavaFunction class reference */
+static jclass stringtolongfunction_class = NULL;       /**< com.naef.jnlua.StringToLongJavaFunction class reference */
 static jclass luaruntimeexception_class = NULL;        /**< com.naef.jnlua.LuaRuntimeException class reference */
 static jclass luasyntaxexception_class = NULL;         /**< com.naef.jnlua.LuaSyntaxException class reference */
+static jclass luabudgetexceededexception_class = NULL; /**< com.naef.jnlua.LuaBudgetExceededException class reference */
 static jclass luamemoryallocationexception_class = NULL; /**< com.naef.jnlua.LuaMemoryAllocationException class reference */
 static jclass luagcmetamethodexception_class = NULL;   /**< com.naef.jnlua.LuaGcMetamethodException class reference */
 static jclass luamessagehandlerexception_class = NULL; /**< com.naef.jnlua.LuaMessageHandlerException class reference */
-static jclass luastacktraceelement_class = NULL;       /**< com.naef.jnlua.LuaStackTraceElement class reference */
 static jclass luaerror_class = NULL;                   /**< com.naef.jnlua.LuaError class reference */
 static jclass nullpointerexception_class = NULL;       /**< java.lang.NullPointerException class reference */
 static jclass illegalargumentexception_class = NULL;   /**< java.lang.IllegalArgumentException class reference */
@@ -376,12 +395,19 @@ static jclass double_class = NULL;                     /**< java.lang.Double cla
 static jclass inputstream_class = NULL;                /**< java.io.InputStream class reference */
 static jclass outputstream_class = NULL;               /**< java.io.OutputStream class reference */
 static jclass ioexception_class = NULL;                /**< java.io.IOException class reference */
+static jclass bytebuffer_class = NULL;                 /**< java.nio.ByteBuffer class reference */
+static jclass system_class = NULL;                     /**< java.lang.System class reference */
+static jclass intarray_class = NULL;                   /**< int[] class reference */
+static jclass longarray_class = NULL;                  /**< long[] class reference */
+static jclass doublearray_class = NULL;                /**< double[] class reference */
+static jclass floatarray_class = NULL;                 /**< float[] class reference */
+static jclass bytearray_class = NULL;                  /**< byte[] class reference */
 
 /* LuaState.java field IDs */
 static jfieldID luastate_id = 0;                       /**< LuaState.luaState field ID (stores native Lua state pointer) */
 static jfieldID luathread_id = 0;                      /**< LuaState.luaThread field ID (stores current Lua thread) */
 static jfieldID luamemorytotal_id = 0;                 /**< LuaState.luaMemoryTotal field ID (max memory allowed) */
-static jfieldID luamemoryused_id = 0;                  /**< LuaState.luaMemoryUsed field ID (current memory used) */
+static jfieldID luaallocator_id = 0;                   /**< LuaState.luaAllocator field ID (allocator mode) */
 static jfieldID yield_id = 0;                          /**< LuaState.yield field ID (yield flag for coroutines) */
 
 /* Method IDs */
@@ -390,22 +416,28 @@ static jmethodID luaexecthread_id = 0;                 /**< LuaState.setExecThre
 static jmethodID luadebug_init_id = 0;                 /**< LuaDebug constructor method ID */
 static jfieldID luadebug_field_id = 0;                 /**< LuaDebug.luaDebug field ID */
 static jmethodID invoke_id = 0;                        /**< JavaFunction.invoke method ID (critical for Java-Lua function calls) */
+static jmethodID doublebinary_id = 0;                  /**< DoubleBinaryJavaFunction.call(double, double) method ID */
+static jmethodID longunary_id = 0;                     /**< LongUnaryJavaFunction.call(long) method ID */
+static jmethodID stringtolong_id = 0;                  /**< StringToLongJavaFunction.JNI_call(byte[]) method ID */
 static jmethodID luaruntimeexception_id = 0;           /**< LuaRuntimeException constructor ID */
 static jmethodID setluaerror_id = 0;                   /**< LuaRuntimeException.setLuaError method ID */
 static jmethodID luasyntaxexception_id = 0;            /**< LuaSyntaxException constructor ID */
+static jmethodID luabudgetexceededexception_id = 0;    /**< LuaBudgetExceededException constructor ID */
 static jmethodID luamemoryallocationexception_id = 0;  /**< LuaMemoryAllocationException constructor ID */
 static jmethodID luagcmetamethodexception_id = 0;      /**< LuaGcMetamethodException constructor ID */
 static jmethodID luamessagehandlerexception_id = 0;    /**< LuaMessageHandlerException constructor ID */
-static jmethodID luastacktraceelement_id = 0;          /**< LuaStackTraceElement constructor ID */
 static jmethodID luaerror_id = 0;                      /**< LuaError constructor ID */
-static jmethodID setluastacktrace_id = 0;              /**< LuaError.setLuaStackTrace method ID */
+static jmethodID setluastackframes_id = 0;             /**< LuaError.setLuaStackFrames method ID */
 static jmethodID valueof_integer_id = 0;               /**< Long.valueOf method ID */
 static jmethodID valueof_double_id = 0;                /**< Double.valueOf method ID */
 static jmethodID double_value_id = 0;                  /**< Double.doubleValue method ID */
 static jmethodID tostring_id = 0;                      /**< Object.toString method ID */
 static jmethodID read_id = 0;                          /**< InputStream.read method ID */
 static jmethodID write_id = 0;                          /**< OutputStream.write method ID */
+static jmethodID allocatedirect_id = 0;                /**< ByteBuffer.allocateDirect method ID */
+static jmethodID bufferposition_id = 0;                /**< ByteBuffer.position method ID */
 static jmethodID print_id = 0;                         /**< LuaState.println method ID */
+static jmethodID identityhashcode_id = 0;              /**< System.identityHashCode method ID */
 
 /* Cached boolean byte arrays for efficient boolean parameter passing */
 static jbyteArray boolean_true_bytes = NULL;           /**< Cached byte[] for boolean true ("1") */
@@ -419,6 +451,9 @@ static const char REGISTRY_KEY_PAIRS = 0;              /**< lightuserdata key fo
 static const char REGISTRY_KEY_OBJECT_META = 0;        /**< lightuserdata key for JNLUA_OBJECT_META */
 static const char REGISTRY_KEY_OBJECT_INDEX = 0;       /**< lightuserdata key for JNLUA_OBJECT_INDEX */
 static const char REGISTRY_KEY_NEGATIVE_CACHE = 0;     /**< lightuserdata key for JNLUA_NEGATIVE_CACHE */
+static const char REGISTRY_KEY_OBJECT_CACHE = 0;       /**< lightuserdata key for JNLUA_OBJECT_CACHE */
+static const char REGISTRY_KEY_STACKTRACE = 0;         /**< lightuserdata key for the stack trace switch */
+static const char REGISTRY_KEY_BUDGET = 0;             /**< lightuserdata key for the execution budget */
 
 static int initialized = 0;                            /**< Initialization flag (set in JNI_OnLoad) */
 
@@ -794,39 +829,222 @@ static int newstate_protected(lua_State *L)
     lua_rawset(L, -3);
     return 1;
 }
+/* Allocator modes, must be kept in sync with the LuaAllocator enum. */
+#define ALLOCATOR_SYSTEM 0
+#define ALLOCATOR_LIMITED 1
+#define ALLOCATOR_ARENA 2
+/* Arena size classes: blocks up to ARENA_MAX bytes in ARENA_GRAIN steps are carved from ARENA_SLAB slabs. */
+#define ARENA_GRAIN 16
+#define ARENA_MAX 512
+#define ARENA_CLASSES (ARENA_MAX / ARENA_GRAIN)
+#define ARENA_SLAB (64 * 1024)
+#define ARENA_HEADER 16
+/*
+ * Memory accounting of the limited allocator. The counters live in native memory next to the Lua state
+ * and are only written by the allocator, i.e. by the thread running the state, so no JNI call or lock is
+ * needed per allocation. The limit may be changed from Java at any time; all fields are 64-bit aligned
+ * and read or written whole.
+ */
+typedef struct
+{
+    jlong total;       /* maximum bytes */
+    jlong used;        /* bytes currently allocated */
+    jlong peak;        /* high-water mark of used */
+    jlong allocations; /* number of new blocks */
+    jlong frees;       /* number of freed blocks */
+    jlong rejected;    /* number of requests refused due to the limit */
+    jlong reserved;    /* bytes of slab memory held by the arena */
+    jlong slabs;       /* number of slabs held by the arena */
+    /* Arena allocator only */
+    void *free_list[ARENA_CLASSES];
+    void *slab_list;
+    char *cursor;
+    size_t remaining;
+} LuaMemory;
+#define LUAMEMORY_STATS 8
+
 /* This custom allocator ensures a VM won't exceed its allowed memory use. */
 static void *l_alloc(void *ud, void *ptr, size_t osize, size_t nsize)
 {
-    jint total, used;
-    (void)ud; /* not used, always NULL */
-    getluamemory(&total, &used);
+    LuaMemory *m = (LuaMemory *)ud;
+    void *p;
+
     if (nsize == 0)
+    {
+        if (ptr)
+        {
+            free(ptr);
+            m->used -= (jlong)osize;
+            m->frees++;
+        }
+        return NULL;
+    }
+    if (ptr == NULL)
+    {
+        if (m->total - m->used >= (jlong)nsize && (p = malloc(nsize)))
+        {
+            m->used += (jlong)nsize;
+            m->allocations++;
+            if (m->used > m->peak)
+                m->peak = m->used;
+            return p;
+        }
+    }
+    /* Lua expects this to not fail if nsize <= osize, so we must allow
+       that even if it exceeds our current max memory. */
+    else if ((nsize <= osize || m->total - m->used >= (jlong)(nsize - osize)) && (p = realloc(ptr, nsize)))
+    {
+        m->used += (jlong)nsize - (jlong)osize;
+        if (m->used > m->peak)
+            m->peak = m->used;
+        return p;
+    }
+    m->rejected++;
+    return NULL;
+}
+/* Returns the size class of a block, or -1 if it is served by malloc. */
+#define arena_class(size) ((size) <= ARENA_MAX ? (int)(((size) + ARENA_GRAIN - 1) / ARENA_GRAIN) - 1 : -1)
+#define arena_size(size) ((size) <= ARENA_MAX ? (((size) + ARENA_GRAIN - 1) / ARENA_GRAIN) * ARENA_GRAIN : (size))
+static void *arena_take(LuaMemory *m, int cls)
+{
+    size_t size = (size_t)(cls + 1) * ARENA_GRAIN;
+    void *p = m->free_list[cls];
+    char *slab;
+
+    if (p)
+    {
+        m->free_list[cls] = *(void **)p;
+        return p;
+    }
+    if (m->remaining < size)
+    {
+        /* The tail of the previous slab is dropped; it is at most ARENA_MAX bytes. */
+        if (!(slab = (char *)malloc(ARENA_SLAB)))
+            return NULL;
+        *(void **)slab = m->slab_list;
+        m->slab_list = slab;
+        m->cursor = slab + ARENA_HEADER;
+        m->remaining = ARENA_SLAB - ARENA_HEADER;
+        m->reserved += ARENA_SLAB;
+        m->slabs++;
+    }
+    p = m->cursor;
+    m->cursor += size;
+    m->remaining -= size;
+    return p;
+}
+static void arena_release(LuaMemory *m, void *ptr, size_t size)
+{
+    int cls = arena_class(size);
+
+    if (cls < 0)
     {
         free(ptr);
-        setluamemoryused(used - osize);
     }
     else
     {
-        if (ptr == NULL)
+        *(void **)ptr = m->free_list[cls];
+        m->free_list[cls] = ptr;
+    }
+}
+/*
+ * This allocator serves small blocks from per-state size-class slabs and large blocks from malloc. Freed
+ * small blocks go to the free list of their class; the slabs themselves are only returned to the system
+ * when the state is closed. The limit is enforced like in l_alloc if one is set.
+ */
+static void *arena_alloc(void *ud, void *ptr, size_t osize, size_t nsize)
+{
+    LuaMemory *m = (LuaMemory *)ud;
+    int ocls, ncls;
+    size_t osz, nsz;
+    void *p;
+
+    if (nsize == 0)
+    {
+        if (ptr)
         {
-            if (total >= 0 && total - nsize >= used)
-            {
-                setluamemoryused(used + nsize);
-                return malloc(nsize);
-            }
+            arena_release(m, ptr, osize);
+            m->used -= (jlong)arena_size(osize);
+            m->frees++;
         }
-        else
+        return NULL;
+    }
+    ncls = arena_class(nsize);
+    nsz = arena_size(nsize);
+    if (ptr)
+    {
+        ocls = arena_class(osize);
+        osz = arena_size(osize);
+        if (ocls >= 0 && ocls == ncls)
+            return ptr;
+    }
+    else
+    {
+        ocls = -1;
+        osz = 0;
+    }
+
+    /* Lua expects this to not fail if nsize <= osize, so we must allow
+       that even if it exceeds our current max memory. */
+    if (m->total > 0 && nsz > osz && m->total - m->used < (jlong)(nsz - osz))
+    {
+        m->rejected++;
+        return NULL;
+    }
+    if (ptr && ocls < 0 && ncls < 0)
+    {
+        p = realloc(ptr, nsize);
+    }
+    else if ((p = ncls >= 0 ? arena_take(m, ncls) : malloc(nsize)) && ptr)
+    {
+        memcpy(p, ptr, osize < nsize ? osize : nsize);
+        arena_release(m, ptr, osize);
+    }
+    if (!p)
+    {
+        if (ptr && nsize <= osize && (ocls >= 0 || ncls < 0))
         {
-            /* Lua expects this to not fail if nsize <= osize, so we must allow
-               that even if it exceeds our current max memory. */
-            if (nsize <= osize || (total - (nsize - osize) >= used))
-            {
-                setluamemoryused(used + (nsize - osize));
-                return realloc(ptr, nsize);
-            }
+            /*
+             * A failed shrink keeps the old block, which is accounted with its new size from now on. This
+             * is only safe while the new size maps it to the same kind of block: a malloc block accounted
+             * with an arena size would be put on a free list when freed, and never returned to the system.
+             */
+            m->used += (jlong)nsz - (jlong)osz;
+            return ptr;
         }
+        m->rejected++;
+        return NULL;
+    }
+    if (!ptr)
+        m->allocations++;
+    m->used += (jlong)nsz - (jlong)osz;
+    if (m->used > m->peak)
+        m->peak = m->used;
+    return p;
+}
+/* Returns the accounting of a state created with the limited or arena allocator, or NULL. */
+static LuaMemory *getluamemory(lua_State *L)
+{
+    void *ud;
+    lua_Alloc f = lua_getallocf(L, &ud);
+    return f == l_alloc || f == arena_alloc ? (LuaMemory *)ud : NULL;
+}
+/* Closes a state created by controlled_newstate() and releases its allocator. */
+static void closestate(lua_State *L)
+{
+    LuaMemory *m = getluamemory(L);
+    void *slab;
+
+    lua_close(L);
+    if (m)
+    {
+        while ((slab = m->slab_list))
+        {
+            m->slab_list = *(void **)slab;
+            free(slab);
+        }
+        free(m);
     }
-    return NULL;
 }
 static int panic(lua_State *L)
 {
@@ -837,19 +1055,27 @@ static int panic(lua_State *L)
 }
 static lua_State *controlled_newstate(void)
 {
-    jint total, used;
-    getluamemory(&total, &used);
-    if (total <= 0)
+    jlong total = (*thread_env)->GetLongField(thread_env, luastate_obj, luamemorytotal_id);
+    jint allocator = (*thread_env)->GetIntField(thread_env, luastate_obj, luaallocator_id);
+    LuaMemory *m;
+    lua_State *L;
+
+    if (allocator == ALLOCATOR_SYSTEM || (allocator == ALLOCATOR_LIMITED && total <= 0))
     {
         return luaL_newstate();
     }
-    else
+    if (!(m = (LuaMemory *)calloc(1, sizeof(LuaMemory))))
     {
-        lua_State *L = lua_newstate(l_alloc, NULL);
-        if (L)
-            lua_atpanic(L, &panic);
-        return L;
+        return NULL;
+    }
+    m->total = total;
+    if (!(L = lua_newstate(allocator == ALLOCATOR_ARENA ? arena_alloc : l_alloc, m)))
+    {
+        free(m);
+        return NULL;
     }
+    lua_atpanic(L, &panic);
+    return L;
 }
 
 /* lua_close() */
@@ -884,7 +1110,7 @@ void jcall_close(JNIEnv *env, jobject obj, jlong lua, jboolean ownstate)
         lua_settop(L, 0);
 
         /* Close Lua state. */
-        lua_close(L);
+        closestate(L);
     }
     else
     {
@@ -950,7 +1176,7 @@ jint jcall_newstate(JNIEnv *env, jobject obj, int apiversion, jlong lua)
         {
             lua_pushcfunction(L, close_protected);
             JNLUA_PCALL(L, 0, 0);
-            lua_close(L);
+            closestate(L);
         }
         newstate_obj = NULL;
         goto END;
@@ -1003,6 +1229,206 @@ static const char *CLASS_NAME = "java_class_name";
 static const char *FIELD_LIST = "java_fields";
 static const char *METHOD_LIST = "java_methods";
 static const char *PROPERTIES = "java_properties";
+
+/*
+ * Primitive arrays pushed as plain Java objects carry their component type in
+ * a larger userdata, so that element access and the length operator can be
+ * served with Get/Set<Type>ArrayRegion instead of reflection in Java. Only
+ * valid accesses take the native path; anything else (non-numeric keys or
+ * values, indexes out of range, lossy conversions) falls back to the Java
+ * metamethods, which produce the usual errors.
+ */
+#define ARRAY_INT 1
+#define ARRAY_LONG 2
+#define ARRAY_DOUBLE 3
+#define ARRAY_FLOAT 4
+#define ARRAY_BYTE 5
+typedef struct
+{
+    jobject object; /* must be first, the userdata is also read as a jobject */
+    jint type;      /* ARRAY_* component type */
+} JavaArray;
+
+/* Returns the component type of a primitive array, or 0 for other arrays. */
+static jint javaarraytype(jobject object)
+{
+    if ((*thread_env)->IsInstanceOf(thread_env, object, intarray_class))
+        return ARRAY_INT;
+    if ((*thread_env)->IsInstanceOf(thread_env, object, doublearray_class))
+        return ARRAY_DOUBLE;
+    if ((*thread_env)->IsInstanceOf(thread_env, object, longarray_class))
+        return ARRAY_LONG;
+    if ((*thread_env)->IsInstanceOf(thread_env, object, bytearray_class))
+        return ARRAY_BYTE;
+    if ((*thread_env)->IsInstanceOf(thread_env, object, floatarray_class))
+        return ARRAY_FLOAT;
+    return 0;
+}
+
+/* Returns the tagged primitive array at the index, or NULL. */
+static JavaArray *tojavaarray(lua_State *L, int index)
+{
+    if (lua_type(L, index) == LUA_TUSERDATA && lua_objlen(L, index) == sizeof(JavaArray) && has_jnlua_metatable(L, index))
+        return (JavaArray *)lua_touserdata(L, index);
+    return NULL;
+}
+
+/* Returns the zero-based element index for the number at the stack index, or -1 if it is out of range. */
+static jsize toarrayindex(lua_State *L, int index, JavaArray *array)
+{
+    lua_Number n = lua_tonumber(L, index);
+    jsize i;
+
+    if (!(n >= 1 && n <= (*thread_env)->GetArrayLength(thread_env, array->object)))
+        return -1;
+    i = (jsize)n;
+    return i == n ? i - 1 : -1;
+}
+
+/* Pushes array[key] for [array] [key] on top of the stack. Returns 0 if the access is left to Java. */
+static int getarrayelement(lua_State *L)
+{
+    JavaArray *array = tojavaarray(L, -2);
+    jsize i;
+
+    if (!array || (i = toarrayindex(L, -1, array)) < 0)
+        return 0;
+    switch (array->type)
+    {
+    case ARRAY_INT:
+    {
+        jint v;
+        (*thread_env)->GetIntArrayRegion(thread_env, (jintArray)array->object, i, 1, &v);
+        lua_pushnumber(L, v);
+        break;
+    }
+    case ARRAY_LONG:
+    {
+        jlong v;
+        (*thread_env)->GetLongArrayRegion(thread_env, (jlongArray)array->object, i, 1, &v);
+        lua_pushnumber(L, (lua_Number)v);
+        break;
+    }
+    case ARRAY_DOUBLE:
+    {
+        jdouble v;
+        (*thread_env)->GetDoubleArrayRegion(thread_env, (jdoubleArray)array->object, i, 1, &v);
+        lua_pushnumber(L, v);
+        break;
+    }
+    case ARRAY_FLOAT:
+    {
+        jfloat v;
+        (*thread_env)->GetFloatArrayRegion(thread_env, (jfloatArray)array->object, i, 1, &v);
+        lua_pushnumber(L, v);
+        break;
+    }
+    case ARRAY_BYTE:
+    {
+        jbyte v;
+        (*thread_env)->GetByteArrayRegion(thread_env, (jbyteArray)array->object, i, 1, &v);
+        lua_pushnumber(L, v);
+        break;
+    }
+    default:
+        return 0;
+    }
+    return 1;
+}
+
+/* Performs array[key] = value for [array] [key] [value] at 1..3. Returns 0 if the access is left to Java. */
+static int setarrayelement(lua_State *L)
+{
+    JavaArray *array = tojavaarray(L, 1);
+    lua_Number n;
+    jsize i;
+
+    if (!array || lua_type(L, 2) != LUA_TNUMBER || lua_type(L, 3) != LUA_TNUMBER || (i = toarrayindex(L, 2, array)) < 0)
+        return 0;
+    n = lua_tonumber(L, 3);
+    switch (array->type)
+    {
+    case ARRAY_INT:
+    {
+        jint v;
+        if (!(n >= -2147483648.0 && n <= 2147483647.0) || (v = (jint)n) != n)
+            return 0;
+        (*thread_env)->SetIntArrayRegion(thread_env, (jintArray)array->object, i, 1, &v);
+        break;
+    }
+    case ARRAY_LONG:
+    {
+        jlong v;
+        if (!(n >= -9223372036854775808.0 && n < 9223372036854775808.0) || (v = (jlong)n) != n)
+            return 0;
+        (*thread_env)->SetLongArrayRegion(thread_env, (jlongArray)array->object, i, 1, &v);
+        break;
+    }
+    case ARRAY_DOUBLE:
+    {
+        jdouble v = n;
+        (*thread_env)->SetDoubleArrayRegion(thread_env, (jdoubleArray)array->object, i, 1, &v);
+        break;
+    }
+    case ARRAY_FLOAT:
+    {
+        jfloat v = (jfloat)n;
+        (*thread_env)->SetFloatArrayRegion(thread_env, (jfloatArray)array->object, i, 1, &v);
+        break;
+    }
+    case ARRAY_BYTE:
+    {
+        jbyte v;
+        if (!(n >= -128 && n <= 127) || (v = (jbyte)n) != n)
+            return 0;
+        (*thread_env)->SetByteArrayRegion(thread_env, (jbyteArray)array->object, i, 1, &v);
+        break;
+    }
+    default:
+        return 0;
+    }
+    return 1;
+}
+
+/* Calls the Java metamethod in upvalue 1 with all arguments. */
+static int calljavametamethod(lua_State *L)
+{
+    lua_pushvalue(L, lua_upvalueindex(1));
+    lua_insert(L, 1);
+    lua_call(L, lua_gettop(L) - 1, LUA_MULTRET);
+    return lua_gettop(L);
+}
+
+/* __newindex: native for primitive arrays, else the Java metamethod in upvalue 1. */
+static int arraynewindex(lua_State *L)
+{
+    if (lua_gettop(L) == 3 && setarrayelement(L))
+        return 0;
+    return calljavametamethod(L);
+}
+
+/* __len: native for primitive arrays, else the Java metamethod in upvalue 1. */
+static int arraylength(lua_State *L)
+{
+    JavaArray *array = tojavaarray(L, 1);
+
+    if (array)
+    {
+        lua_pushnumber(L, (*thread_env)->GetArrayLength(thread_env, array->object));
+        return 1;
+    }
+    return calljavametamethod(L);
+}
+
+/* Wraps a Java metamethod of the JNLUA_OBJECT metatable on top of the stack in a native closure. */
+static void wrapmetamethod(lua_State *L, const char *name, lua_CFunction f)
+{
+    lua_pushstring(L, name);
+    lua_pushstring(L, name);
+    lua_rawget(L, -3);
+    lua_pushcclosure(L, f, 1);
+    lua_rawset(L, -3);
+}
 static const char *TO_TABLE = "to_table";
 static const char *TO_LUA = "to_lua";
 /*
@@ -1036,6 +1462,9 @@ static const char *TO_LUA = "to_lua";
  */
 static int findjavafunction(lua_State *L)
 {
+    // Primitive arrays: serve valid element reads without calling into Java
+    if (lua_type(L, -1) == LUA_TNUMBER && getarrayelement(L))
+        return 1;
     // Only process string lookups (method/field names)
     if (lua_type(L, -1) == LUA_TSTRING)
     {
@@ -1270,11 +1699,62 @@ void jcall_newstate_done(JNIEnv *env, jobject obj, jlong lua)
     lua_pushnil(L);
     lua_pushcclosure(L, findjavafunction, 2);
     lua_rawset(L, -3);
+    wrapmetamethod(L, "__newindex", arraynewindex);
+    wrapmetamethod(L, "__len", arraylength);
     lua_pop(L, 1);
     JNLUA_DETACH_L;
 }
 
 /* ---- Java objects and functions ---- */
+/**
+ * Looks up a Java object in the identity cache of the state
+ *
+ * The cache is a weak-valued table in the registry that maps the identity
+ * hash code of an object to the userdata last pushed for it. It only exists
+ * while enabled through lua_setobjectcache(). Identity hash codes may
+ * collide, so a hit is confirmed with IsSameObject(); on a collision the
+ * newer object simply replaces the cached entry.
+ *
+ * Returns:
+ *   0 - cache disabled, stack unchanged
+ *   1 - hit, the cached userdata has been pushed
+ *  -1 - miss, the cache table has been pushed and *hash is set for
+ *       objectcache_put()
+ */
+static int objectcache_get(lua_State *L, jobject object, jint *hash)
+{
+    jobject *user_data;
+
+    lua_pushlightuserdata(L, (void *)&REGISTRY_KEY_OBJECT_CACHE);
+    lua_rawget(L, LUA_REGISTRYINDEX);
+    if (!lua_istable(L, -1))
+    {
+        lua_pop(L, 1);
+        return 0;
+    }
+    *hash = (*thread_env)->CallStaticIntMethod(thread_env, system_class, identityhashcode_id, object);
+    lua_rawgeti(L, -1, *hash);
+    user_data = (jobject *)lua_touserdata(L, -1);
+    if (user_data && *user_data && (*thread_env)->IsSameObject(thread_env, *user_data, object))
+    {
+        lua_remove(L, -2);
+        return 1;
+    }
+    lua_pop(L, 1);
+    return -1;
+}
+
+/**
+ * Stores the userdata on top of the stack in the identity cache, which
+ * objectcache_get() left just below it. Leaves the userdata on top.
+ */
+static void objectcache_put(lua_State *L, jint hash)
+{
+    lua_pushvalue(L, -1);
+    lua_rawseti(L, -3, hash);
+    lua_remove(L, -2);
+}
+
 /**
  * Pushes a Java object onto the Lua stack as a Lua userdata
  * 
@@ -1292,9 +1772,30 @@ void jcall_newstate_done(JNIEnv *env, jobject obj, jlong lua)
 static void pushjavaobject(lua_State *L, jobject object, const char *class, jbyte type)
 {
     jobject *user_data;
+    jint hash = 0;
+    int cached = 0;
+    jint array_type = 0;
+
+    /* Step 0: Plain objects may be served from the identity cache */
+    if (type == 1)
+    {
+        cached = objectcache_get(L, object, &hash);
+        if (cached == 1)
+            return;
+    }
 
     /* Step 1: Create a Lua userdata to hold the Java object reference */
-    user_data = (jobject *)lua_newuserdata(L, sizeof(jobject));
+    /* Primitive arrays get room for their component type, see JavaArray */
+    if (type == 1 && class && strcmp(class, "[]") == 0)
+        array_type = javaarraytype(object);
+    if (array_type)
+    {
+        JavaArray *array = (JavaArray *)lua_newuserdata(L, sizeof(JavaArray));
+        array->type = array_type;
+        user_data = &array->object;
+    }
+    else
+        user_data = (jobject *)lua_newuserdata(L, sizeof(jobject));
     
     /* Step 2: Set the metatable for this userdata (enables __index, __gc, etc.) */
     set_jnlua_metatable(L, -1);
@@ -1314,10 +1815,22 @@ static void pushjavaobject(lua_State *L, jobject object, const char *class, jbyt
     {
         /* Wrap the userdata in a closure to make it callable from Lua */
         /* Stack before: [userdata] */
-        lua_pushboolean(L, type == 3);  // Upvalue 1: has base class?
-        lua_pushstring(L, class);       // Upvalue 2: class name
-        lua_pushcclosure(L, calljavafunction, 3);  // Create closure with 3 upvalues
-        /* Stack after: [closure] - the userdata is now upvalue 3 of the closure */
+        lua_CFunction call = calljavafunction;
+        /* Primitive-specialized functions get a closure that bypasses the argument buffers.
+         * Only checked for explicitly pushed functions (type 2), not for member accessors. */
+        if (type == 2)
+        {
+            if ((*thread_env)->IsInstanceOf(thread_env, object, doublebinaryfunction_class))
+                call = calldoublebinary;
+            else if ((*thread_env)->IsInstanceOf(thread_env, object, longunaryfunction_class))
+                call = calllongunary;
+            else if ((*thread_env)->IsInstanceOf(thread_env, object, stringtolongfunction_class))
+                call = callstringtolong;
+        }
+        lua_pushboolean(L, type == 3);  // Upvalue 2: has base class?
+        lua_pushstring(L, class);       // Upvalue 3: class name
+        lua_pushcclosure(L, call, 3);  // Create closure with 3 upvalues
+        /* Stack after: [closure] - the userdata is upvalue 1 of the closure */
     }
     else if (class)  // type == 1 and class specified: Regular object with custom environment
     {
@@ -1332,6 +1845,75 @@ static void pushjavaobject(lua_State *L, jobject object, const char *class, jbyt
             lua_pop(L, 1);  // Class not registered, just pop nil
     }
     /* If type == 1 and class == NULL: Just a plain userdata with JNLUA_OBJECT metatable */
+
+    /* Step 5: Remember the new userdata if the identity cache missed */
+    if (cached)
+        objectcache_put(L, hash);
+}
+
+/**
+ * Creates the metadata table of a class, registers it and pushes it on the
+ * stack. Stack: [] -> [class_table]
+ */
+static void newclasstable(lua_State *L, const char *className)
+{
+    /* Get the base JNLUA_OBJECT metatable */
+    luaL_getmetatable(L, JNLUA_OBJECT);
+    /* Stack: [JNLUA_OBJECT_metatable] */
+    
+    /* Get the JNLUA_OBJECT_META registry table (stores class->metadata mapping) */
+    /* PERFORMANCE OPTIMIZATION: Use lightuserdata as registry key */
+    lua_pushlightuserdata(L, (void*)&REGISTRY_KEY_OBJECT_META);
+    lua_rawget(L, LUA_REGISTRYINDEX);
+    /* Stack: [JNLUA_OBJECT_metatable] [JNLUA_OBJECT_META] */
+    
+    /* Create a new table for this class's methods/fields */
+    lua_pushstring(L, className);
+    lua_createtable(L, 0, 16);  /* Array size 0, hash size 16 */
+    /* Stack: [JNLUA_OBJECT_metatable] [JNLUA_OBJECT_META] [className] [new_table] */
+    
+    /* Store the new table in registry: registry[className] = new_table */
+    // PERFORMANCE: Use lua_rawset() for registry access
+    lua_pushstring(L, className);
+    lua_pushvalue(L, -2);  // Copy new_table
+    lua_rawset(L, LUA_REGISTRYINDEX);
+    /* Stack: [JNLUA_OBJECT_metatable] [JNLUA_OBJECT_META] [className] [new_table] */
+    
+    /* Store it in JNLUA_OBJECT_META */
+    lua_rawset(L, -3);  /* JNLUA_OBJECT_META[className] = new_table */
+    /* Stack: [JNLUA_OBJECT_metatable] [JNLUA_OBJECT_META] */
+    
+    /* Get the class table again and store the class name in it */
+    // PERFORMANCE: Use lua_rawget() for registry access
+    lua_pushstring(L, className);
+    lua_rawget(L, LUA_REGISTRYINDEX);
+    /* Stack: [JNLUA_OBJECT_metatable] [JNLUA_OBJECT_META] [class_table] */
+    lua_pushstring(L, CLASS_NAME);
+    lua_pushstring(L, className);
+    lua_rawset(L, -3);  /* class_table[CLASS_NAME] = className */
+    /* Stack: [JNLUA_OBJECT_metatable] [JNLUA_OBJECT_META] [class_table] */
+    
+    /* Remove JNLUA_OBJECT_metatable, keep class_table on top */
+    lua_remove(L, -2);
+    /* Stack: [JNLUA_OBJECT_metatable] [class_table] */
+    lua_remove(L, -2);
+    /* Stack: [class_table] */
+    
+    /* ====================================================================
+     * Trigger Pre-caching for First Class Access
+     * ====================================================================
+     * When a class is accessed for the first time, pre-populate its
+     * environment table with commonly used metadata functions.
+     * 
+     * This is a one-time initialization that significantly speeds up
+     * subsequent metadata accesses for this class.
+     * 
+     * See precache_metadata_functions() at line 897 for details.
+     */
+    precache_metadata_functions(L, className);
+    // PERFORMANCE: Use lua_rawget() for registry access
+    lua_pushstring(L, className);
+    lua_rawget(L, LUA_REGISTRYINDEX); // Get class table again
 }
 
 /* Thread-local variables for metadata function pushing */
@@ -1389,64 +1971,7 @@ static int pushmetafunction_protected(lua_State *L)
         /* Class metadata not found - need to create it */
         lua_pop(L, 1);
         /* Stack: [] */
-        
-        /* Get the base JNLUA_OBJECT metatable */
-        luaL_getmetatable(L, JNLUA_OBJECT);
-        /* Stack: [JNLUA_OBJECT_metatable] */
-        
-        /* Get the JNLUA_OBJECT_META registry table (stores class->metadata mapping) */
-        /* PERFORMANCE OPTIMIZATION: Use lightuserdata as registry key */
-        lua_pushlightuserdata(L, (void*)&REGISTRY_KEY_OBJECT_META);
-        lua_rawget(L, LUA_REGISTRYINDEX);
-        /* Stack: [JNLUA_OBJECT_metatable] [JNLUA_OBJECT_META] */
-        
-        /* Create a new table for this class's methods/fields */
-        lua_pushstring(L, className);
-        lua_createtable(L, 0, 16);  /* Array size 0, hash size 16 */
-        /* Stack: [JNLUA_OBJECT_metatable] [JNLUA_OBJECT_META] [className] [new_table] */
-        
-        /* Store the new table in registry: registry[className] = new_table */
-        // PERFORMANCE: Use lua_rawset() for registry access
-        lua_pushstring(L, className);
-        lua_pushvalue(L, -2);  // Copy new_table
-        lua_rawset(L, LUA_REGISTRYINDEX);
-        /* Stack: [JNLUA_OBJECT_metatable] [JNLUA_OBJECT_META] [className] [new_table] */
-        
-        /* Store it in JNLUA_OBJECT_META */
-        lua_rawset(L, -3);  /* JNLUA_OBJECT_META[className] = new_table */
-        /* Stack: [JNLUA_OBJECT_metatable] [JNLUA_OBJECT_META] */
-        
-        /* Get the class table again and store the class name in it */
-        // PERFORMANCE: Use lua_rawget() for registry access
-        lua_pushstring(L, className);
-        lua_rawget(L, LUA_REGISTRYINDEX);
-        /* Stack: [JNLUA_OBJECT_metatable] [JNLUA_OBJECT_META] [class_table] */
-        lua_pushstring(L, CLASS_NAME);
-        lua_pushstring(L, className);
-        lua_rawset(L, -3);  /* class_table[CLASS_NAME] = className */
-        /* Stack: [JNLUA_OBJECT_metatable] [JNLUA_OBJECT_META] [class_table] */
-        
-        /* Remove JNLUA_OBJECT_metatable, keep class_table on top */
-        lua_remove(L, -2);
-        /* Stack: [JNLUA_OBJECT_metatable] [class_table] */
-        lua_remove(L, -2);
-        /* Stack: [class_table] */
-        
-        /* ====================================================================
-         * Trigger Pre-caching for First Class Access
-         * ====================================================================
-         * When a class is accessed for the first time, pre-populate its
-         * environment table with commonly used metadata functions.
-         * 
-         * This is a one-time initialization that significantly speeds up
-         * subsequent metadata accesses for this class.
-         * 
-         * See precache_metadata_functions() at line 897 for details.
-         */
-        precache_metadata_functions(L, className);
-        // PERFORMANCE: Use lua_rawget() for registry access
-        lua_pushstring(L, className);
-        lua_rawget(L, LUA_REGISTRYINDEX); // Get class table again
+        newclasstable(L, className);
     }
     /* Now stack has: [class_table] */
 
@@ -1535,17 +2060,103 @@ void jcall_pushjavafunction(JNIEnv *env, jobject obj, jlong lua, jobject jfunc,
     JNLUA_DETACH;
 }
 
+/* Thread-local variables for preloading class members */
+JNLUA_THREADLOCAL jbyteArray preload_class;       /* Class name byte array */
+JNLUA_THREADLOCAL jobjectArray preload_names;     /* Member name byte arrays */
+JNLUA_THREADLOCAL jobjectArray preload_functions; /* Member accessors */
+JNLUA_THREADLOCAL jbyteArray preload_types;       /* Call types of the accessors, see meta_call_type */
+JNLUA_THREADLOCAL jint preload_count;             /* Number of entries added */
+
 /**
- * ========================================================================
- * [Optimization #1] Set Negative Cache for Non-existent Members
- * ========================================================================
- * Marks a Java member (method/field) as non-existent in the class environment table.
- * This prevents repeated expensive Java reflection calls for members that don't exist.
- * 
- * Called from Java:
- * - JavaReflector.Index when reflection lookup fails (member not found)
- * - Sets a lightuserdata marker in the class environment table
- * - Marker is checked in findjavafunction() before calling Java
+ * Protected function that stores the accessors of a class in its metadata
+ * table, creating the table if needed. Members that already have an entry,
+ * including negative cache markers, are kept.
+ */
+static int preloadclass_protected(lua_State *L)
+{
+    jsize i, n = (*thread_env)->GetArrayLength(thread_env, preload_names);
+    jbyte *types = (jbyte *)lua_newuserdata(L, n > 0 ? n : 1);
+    const char *className, *key, *fullName;
+    jbyteArray name;
+    jobject function;
+
+    (*thread_env)->GetByteArrayRegion(thread_env, preload_types, 0, n, types);
+    /* Keep the class name on the stack while it is in use */
+    className = bytes2string(L, preload_class, -1, 0);
+    lua_pushvalue(L, -1);
+    lua_rawget(L, LUA_REGISTRYINDEX);
+    if (lua_isnil(L, -1))
+    {
+        lua_pop(L, 1);
+        newclasstable(L, className);
+    }
+    /* Stack: [types] [className] [class_table] */
+    for (i = 0; i < n; i++)
+    {
+        name = (jbyteArray)(*thread_env)->GetObjectArrayElement(thread_env, preload_names, i);
+        function = (*thread_env)->GetObjectArrayElement(thread_env, preload_functions, i);
+        if (name && function)
+        {
+            key = bytes2string(L, name, -1, 0);
+            lua_pushvalue(L, -1);
+            lua_rawget(L, -3);
+            if (lua_isnil(L, -1))
+            {
+                lua_pop(L, 1);
+                fullName = lua_pushfstring(L, "%s.%s", className, key);
+                pushjavaobject(L, function, fullName, types[i]);
+                lua_remove(L, -2);
+                lua_rawset(L, -3); /* class_table[key] = accessor */
+                preload_count++;
+            }
+            else
+                lua_pop(L, 2);
+        }
+        if (name)
+            (*thread_env)->DeleteLocalRef(thread_env, name);
+        if (function)
+            (*thread_env)->DeleteLocalRef(thread_env, function);
+    }
+    return 0;
+}
+
+jint jcall_preloadclass(JNIEnv *env, jobject obj, jlong lua, jbyteArray class, jobjectArray names, jobjectArray functions, jbyteArray types)
+{
+    jint result = -1;
+    int status;
+
+    JNLUA_ENV_L;
+    if (checkstack(L, JNLUA_MINSTACK) && checknotnull(class) && checknotnull(names) && checknotnull(functions) && checknotnull(types) //
+        && checkarg((*env)->GetArrayLength(env, functions) == (*env)->GetArrayLength(env, names)                                     //
+                    && (*env)->GetArrayLength(env, types) == (*env)->GetArrayLength(env, names), "array lengths differ"))
+    {
+        preload_class = class;
+        preload_names = names;
+        preload_functions = functions;
+        preload_types = types;
+        preload_count = 0;
+        lua_pushcfunction(L, preloadclass_protected);
+        status = lua_pcall(L, 0, 0, 0);
+        if (status != 0)
+            throw(L, status);
+        else
+            result = preload_count;
+    }
+    JNLUA_DETACH_L;
+    return result;
+}
+
+/**
+ * ========================================================================
+ * [Optimization #1] Set Negative Cache for Non-existent Members
+ * ========================================================================
+ * Marks a Java member (method/field) as non-existent in the class environment table.
+ * This prevents repeated expensive Java reflection calls for members that don't exist.
+ * 
+ * Called from Java:
+ * - JavaReflector.Index when reflection lookup fails (member not found)
+ * - Sets a lightuserdata marker in the class environment table
+ * - Marker is checked in findjavafunction() before calling Java
  * 
  * How It Works:
  * 1. Get the class environment table from registry
@@ -1669,6 +2280,113 @@ jint jcall_gc(JNIEnv *env, jobject obj, jlong lua, jint what, jint data)
     return (jint)gc_result;
 }
 
+/* lua_memorystats() */
+jint jcall_memorystats(JNIEnv *env, jobject obj, jlong lua, jlongArray stats)
+{
+    JNLUA_ENV_L;
+    LuaMemory *m = getluamemory(L);
+    jint result = 0;
+
+    if (m && checknotnull(stats))
+    {
+        (*env)->SetLongArrayRegion(env, stats, 0, LUAMEMORY_STATS, (jlong *)m);
+        result = 1;
+    }
+    JNLUA_DETACH_L;
+    return result;
+}
+
+/* lua_setmemorylimit() */
+jint jcall_setmemorylimit(JNIEnv *env, jobject obj, jlong lua, jlong total)
+{
+    JNLUA_ENV_L;
+    LuaMemory *m = getluamemory(L);
+
+    if (m)
+        m->total = total;
+    JNLUA_DETACH_L;
+    return m != NULL;
+}
+
+/* lua_setobjectcache() */
+JNLUA_THREADLOCAL int setobjectcache_enabled;
+static int setobjectcache_protected(lua_State *L)
+{
+    lua_pushlightuserdata(L, (void *)&REGISTRY_KEY_OBJECT_CACHE);
+    if (setobjectcache_enabled)
+    {
+        lua_pushvalue(L, -1);
+        lua_rawget(L, LUA_REGISTRYINDEX);
+        if (lua_istable(L, -1))
+            return 0;
+        lua_pop(L, 1);
+        lua_newtable(L);
+        lua_newtable(L);
+        lua_pushliteral(L, "v");
+        lua_setfield(L, -2, "__mode");
+        lua_setmetatable(L, -2);
+    }
+    else
+        lua_pushnil(L);
+    lua_rawset(L, LUA_REGISTRYINDEX);
+    return 0;
+}
+void jcall_setobjectcache(JNIEnv *env, jobject obj, jlong lua, jboolean enabled)
+{
+    JNLUA_ENV_L;
+    if (checkstack(L, JNLUA_MINSTACK))
+    {
+        setobjectcache_enabled = enabled;
+        lua_pushcfunction(L, setobjectcache_protected);
+        JNLUA_PCALL(L, 0, 0);
+    }
+    JNLUA_DETACH_L;
+}
+
+/* lua_isobjectcache() */
+jint jcall_isobjectcache(JNIEnv *env, jobject obj, jlong lua)
+{
+    JNLUA_ENV_FAST_L;
+    jint result;
+
+    lua_pushlightuserdata(L, (void *)&REGISTRY_KEY_OBJECT_CACHE);
+    lua_rawget(L, LUA_REGISTRYINDEX);
+    result = lua_istable(L, -1);
+    lua_pop(L, 1);
+    return result;
+}
+
+/* lua_setstacktrace() */
+JNLUA_THREADLOCAL int setstacktrace_enabled;
+static int setstacktrace_protected(lua_State *L)
+{
+    lua_pushlightuserdata(L, (void *)&REGISTRY_KEY_STACKTRACE);
+    if (setstacktrace_enabled)
+        lua_pushnil(L);
+    else
+        lua_pushboolean(L, 0);
+    lua_rawset(L, LUA_REGISTRYINDEX);
+    return 0;
+}
+void jcall_setstacktrace(JNIEnv *env, jobject obj, jlong lua, jboolean enabled)
+{
+    JNLUA_ENV_L;
+    if (checkstack(L, JNLUA_MINSTACK))
+    {
+        setstacktrace_enabled = enabled;
+        lua_pushcfunction(L, setstacktrace_protected);
+        JNLUA_PCALL(L, 0, 0);
+    }
+    JNLUA_DETACH_L;
+}
+
+/* lua_isstacktrace() */
+jint jcall_isstacktrace(JNIEnv *env, jobject obj, jlong lua)
+{
+    JNLUA_ENV_FAST_L;
+    return isstacktraceenabled(L);
+}
+
 /* ---- Registration ---- */
 JNLUA_THREADLOCAL int openlib_lib;
 static int openlib_protected(lua_State *L)
@@ -1727,7 +2445,14 @@ static int openlib_protected(lua_State *L)
     }
     lua_pushcfunction(L, openfunc);
     lua_pushstring(L, libname);
-    lua_call(L, 1, 0);
+    lua_call(L, 1, 1);
+    /* luaopen_ffi() does not register the module; keep it for require("ffi") and buffer views */
+    if (openlib_lib == 10)
+    {
+        luaL_findtable(L, LUA_REGISTRYINDEX, "_LOADED", 1);
+        lua_insert(L, -2);
+        lua_setfield(L, -2, "ffi");
+    }
     return 0;
 }
 void jcall_openlib(JNIEnv *env, jobject obj, jlong lua, jint lib)
@@ -1787,6 +2512,38 @@ void jcall_load(JNIEnv *env, jobject obj, jlong lua, jobject inputStream, jstrin
     JNLUA_DETACH_L;
 }
 
+/* lua_loadbuffer() */
+/* The chunk is parsed straight from the memory of a direct or mapped buffer, without upcalls or copies. */
+void jcall_loadbuffer(JNIEnv *env, jobject obj, jlong lua, jobject buffer, jint position, jint length, jstring chunkname, jstring mode)
+{
+    JNLUA_ENV_L;
+    const char *chunkname_utf = NULL;
+    const char *mode_utf = NULL;
+    jbyte *address = NULL;
+    int status;
+
+    if (checkstack(L, JNLUA_MINSTACK) && checknotnull(buffer)                                            //
+        && checkarg((address = (jbyte *)(*env)->GetDirectBufferAddress(env, buffer)) != NULL, "buffer is not direct") //
+        && checkarg(position >= 0 && length >= 0 && (jlong)position + length <= (*env)->GetDirectBufferCapacity(env, buffer), "illegal buffer range") //
+        && (chunkname_utf = getstringchars(chunkname)) && (!mode || (mode_utf = getstringchars(mode))))
+    {
+        status = luaL_loadbufferx(L, (const char *)(address + position), (size_t)length, chunkname_utf, mode_utf);
+        if (status != 0)
+        {
+            throw(L, status);
+        }
+    }
+    if (mode_utf)
+    {
+        releasestringchars(mode, mode_utf);
+    }
+    if (chunkname_utf)
+    {
+        releasestringchars(chunkname, chunkname_utf);
+    }
+    JNLUA_DETACH_L;
+}
+
 /* lua_dump() */
 void jcall_dump(JNIEnv *env, jobject obj, jlong lua, jobject outputStream)
 {
@@ -1817,6 +2574,104 @@ void jcall_dump(JNIEnv *env, jobject obj, jlong lua, jobject outputStream)
     JNLUA_DETACH_L;
 }
 
+/* lua_dumpbuffer() */
+/*
+ * The function is dumped straight into the memory of a direct buffer. If the buffer is full, it is replaced
+ * with a direct buffer of twice the size and the bytes written so far are copied over, so a dump takes one
+ * pass and no upcall per fragment.
+ */
+typedef struct
+{
+    jobject original; /* buffer of the caller */
+    jobject buffer;   /* current buffer */
+    char *address;    /* address of the current buffer */
+    size_t position;  /* end of the bytes written */
+    size_t limit;     /* end of the writable bytes */
+    int overflow;     /* whether the dump exceeds the maximum buffer size */
+} DumpBuffer;
+static int dumpbufferwriter(lua_State *L, const void *data, size_t size, void *ud)
+{
+    DumpBuffer *dump = (DumpBuffer *)ud;
+    jobject grown;
+    char *address;
+    size_t capacity;
+
+    (void)L;
+    if (size > dump->limit - dump->position)
+    {
+        capacity = dump->limit * 2 > dump->position + size ? dump->limit * 2 : dump->position + size;
+        if (capacity < 1024)
+        {
+            capacity = 1024;
+        }
+        if (capacity > 0x7fffffff)
+        {
+            dump->overflow = 1;
+            return 1;
+        }
+        grown = (*thread_env)->CallStaticObjectMethod(thread_env, bytebuffer_class, allocatedirect_id, (jint)capacity);
+        if ((*thread_env)->ExceptionCheck(thread_env) || !grown || !(address = (char *)(*thread_env)->GetDirectBufferAddress(thread_env, grown)))
+        {
+            return 1;
+        }
+        if (dump->position > 0)
+        {
+            memcpy(address, dump->address, dump->position);
+        }
+        /* Release the previous grown buffer; the caller owns the original one. */
+        if (dump->buffer && dump->buffer != dump->original)
+        {
+            (*thread_env)->DeleteLocalRef(thread_env, dump->buffer);
+        }
+        dump->buffer = grown;
+        dump->address = address;
+        dump->limit = capacity;
+    }
+    memcpy(dump->address + dump->position, data, size);
+    dump->position += size;
+    return 0;
+}
+jobject jcall_dumpbuffer(JNIEnv *env, jobject obj, jlong lua, jobject buffer, jint position, jint limit)
+{
+    JNLUA_ENV_L;
+    DumpBuffer dump = {buffer, buffer, NULL, 0, 0, 0};
+    jobject result = NULL;
+    jobject self;
+
+    if (checkstack(L, JNLUA_MINSTACK) && checknelems(L, 1) //
+        && (!buffer || (checkarg((dump.address = (char *)(*env)->GetDirectBufferAddress(env, buffer)) != NULL, "buffer is not direct") //
+                        && checkarg(position >= 0 && position <= limit && (jlong)limit <= (*env)->GetDirectBufferCapacity(env, buffer), "illegal buffer range"))))
+    {
+        if (buffer)
+        {
+            dump.position = (size_t)position;
+            dump.limit = (size_t)limit;
+        }
+        if (lua_dump(L, dumpbufferwriter, &dump) == 0)
+        {
+            self = (*thread_env)->CallObjectMethod(thread_env, dump.buffer, bufferposition_id, (jint)dump.position);
+            if (self)
+            {
+                (*thread_env)->DeleteLocalRef(thread_env, self);
+            }
+            result = dump.buffer;
+        }
+        else if (!(*thread_env)->ExceptionCheck(thread_env))
+        {
+            if (dump.overflow)
+            {
+                (*thread_env)->ThrowNew(thread_env, luamemoryallocationexception_class, "dump exceeds the maximum buffer size");
+            }
+            else
+            {
+                (*thread_env)->ThrowNew(thread_env, illegalargumentexception_class, "function cannot be dumped");
+            }
+        }
+    }
+    JNLUA_DETACH_L;
+    return result;
+}
+
 /* ---- Call ---- */
 /* lua_pcall() */
 jint jcall_call(JNIEnv *env, jobject obj, jlong lua, jint nargs, jint nresults)
@@ -1885,18 +2740,17 @@ void jcall_setglobal(JNIEnv *env, jobject obj, jlong lua, jbyteArray name)
 /* lua_pushboolean() */
 void jcall_pushboolean(JNIEnv *env, jobject obj, jlong lua, jint b)
 {
-    JNLUA_ENV_L;
+    JNLUA_ENV_FAST_L;
     if (checkstack(L, JNLUA_MINSTACK))
     {
         lua_pushboolean(L, b);
     }
-    JNLUA_DETACH_L;
 }
 
 /* lua_pushinteger() */
 void jcall_pushinteger(JNIEnv *env, jobject obj, jlong lua, jlong n)
 {
-    JNLUA_ENV_L;
+    JNLUA_ENV_FAST_L;
     if (checkstack(L, JNLUA_MINSTACK))
     {
         if (n == (lua_Integer)n)
@@ -1904,24 +2758,253 @@ void jcall_pushinteger(JNIEnv *env, jobject obj, jlong lua, jlong n)
         else
             lua_pushnumber(L, (lua_Number)n);
     }
+}
+
+/* lua_pusharray() */
+#define PUSHARRAY_INT 1
+#define PUSHARRAY_LONG 2
+#define PUSHARRAY_DOUBLE 3
+#define PUSHARRAY_FLOAT 4
+#define PUSHARRAY_BOOLEAN 5
+#define PUSHARRAY_BYTES 6
+JNLUA_THREADLOCAL jobjectArray pusharray_rows;
+JNLUA_THREADLOCAL jsize pusharray_length;
+JNLUA_THREADLOCAL jbyte *pusharray_scratch;
+JNLUA_THREADLOCAL jsize pusharray_scratch_size;
+static int pusharray_protected(lua_State *L)
+{
+    jbyteArray row;
+    jsize i, len;
+    jbyte *p;
+
+    lua_createtable(L, (int)pusharray_length, 0);
+    if (!pusharray_rows)
+        return 1;
+    for (i = 0; i < pusharray_length; i++)
+    {
+        if (!(row = (jbyteArray)(*thread_env)->GetObjectArrayElement(thread_env, pusharray_rows, i)))
+            continue;
+        len = (*thread_env)->GetArrayLength(thread_env, row);
+        if (len > pusharray_scratch_size)
+        {
+            if (!(p = (jbyte *)realloc(pusharray_scratch, (size_t)len)))
+            {
+                (*thread_env)->DeleteLocalRef(thread_env, row);
+                return luaL_error(L, "out of memory");
+            }
+            pusharray_scratch = p;
+            pusharray_scratch_size = len;
+        }
+        (*thread_env)->GetByteArrayRegion(thread_env, row, 0, len, pusharray_scratch);
+        (*thread_env)->DeleteLocalRef(thread_env, row);
+        lua_pushlstring(L, (const char *)pusharray_scratch, (size_t)len);
+        lua_rawseti(L, -2, (int)i + 1);
+    }
+    return 1;
+}
+void jcall_pusharray(JNIEnv *env, jobject obj, jlong lua, jarray array, jint type)
+{
+    void *elements;
+    jsize i, length;
+    int status;
+
+    JNLUA_ENV_L;
+    if (checkstack(L, JNLUA_MINSTACK) && checknotnull(array))
+    {
+        length = (*env)->GetArrayLength(env, array);
+        pusharray_length = length;
+        pusharray_rows = type == PUSHARRAY_BYTES ? (jobjectArray)array : NULL;
+        pusharray_scratch = NULL;
+        pusharray_scratch_size = 0;
+        lua_pushcfunction(L, pusharray_protected);
+        status = lua_pcall(L, 0, 1, 0);
+        free(pusharray_scratch);
+        pusharray_scratch = NULL;
+        pusharray_rows = NULL;
+        if (status != 0)
+            throw(L, status);
+        else if (type != PUSHARRAY_BYTES && length > 0)
+        {
+            /* The array part is presized, so the loop neither allocates nor calls back into Java. */
+            if ((elements = (*env)->GetPrimitiveArrayCritical(env, array, NULL)))
+            {
+                switch (type)
+                {
+                case PUSHARRAY_INT:
+                    for (i = 0; i < length; i++)
+                    {
+                        lua_pushnumber(L, (lua_Number)((jint *)elements)[i]);
+                        lua_rawseti(L, -2, (int)i + 1);
+                    }
+                    break;
+                case PUSHARRAY_LONG:
+                    for (i = 0; i < length; i++)
+                    {
+                        lua_pushnumber(L, (lua_Number)((jlong *)elements)[i]);
+                        lua_rawseti(L, -2, (int)i + 1);
+                    }
+                    break;
+                case PUSHARRAY_DOUBLE:
+                    for (i = 0; i < length; i++)
+                    {
+                        lua_pushnumber(L, (lua_Number)((jdouble *)elements)[i]);
+                        lua_rawseti(L, -2, (int)i + 1);
+                    }
+                    break;
+                case PUSHARRAY_FLOAT:
+                    for (i = 0; i < length; i++)
+                    {
+                        lua_pushnumber(L, (lua_Number)((jfloat *)elements)[i]);
+                        lua_rawseti(L, -2, (int)i + 1);
+                    }
+                    break;
+                case PUSHARRAY_BOOLEAN:
+                    for (i = 0; i < length; i++)
+                    {
+                        lua_pushboolean(L, ((jboolean *)elements)[i]);
+                        lua_rawseti(L, -2, (int)i + 1);
+                    }
+                    break;
+                }
+                (*env)->ReleasePrimitiveArrayCritical(env, array, elements, JNI_ABORT);
+            }
+        }
+    }
+    JNLUA_DETACH_L;
+}
+
+/* lua_todoublearray() */
+jdoubleArray jcall_todoublearray(JNIEnv *env, jobject obj, jlong lua, jint index)
+{
+    jdoubleArray result = NULL;
+    jdouble *elements;
+    jsize i, length;
+
+    JNLUA_ENV_L;
+    if (checkstack(L, JNLUA_MINSTACK) && checktype(L, index, LUA_TTABLE))
+    {
+        index = lua_absindex(L, index);
+        length = (jsize)lua_objlen(L, index);
+        if ((result = (*env)->NewDoubleArray(env, length)) && length > 0)
+        {
+            /* Raw reads neither allocate nor call back into Java. */
+            if ((elements = (jdouble *)(*env)->GetPrimitiveArrayCritical(env, result, NULL)))
+            {
+                for (i = 0; i < length; i++)
+                {
+                    lua_rawgeti(L, index, (int)i + 1);
+                    elements[i] = lua_isnumber(L, -1) ? (jdouble)lua_tonumber(L, -1) : (jdouble)NAN;
+                    lua_pop(L, 1);
+                }
+                (*env)->ReleasePrimitiveArrayCritical(env, result, elements, 0);
+            }
+        }
+    }
+    JNLUA_DETACH_L;
+    return result;
+}
+
+/* lua_pushbufferview() */
+JNLUA_THREADLOCAL jobject bufferview_buffer;
+JNLUA_THREADLOCAL const char *bufferview_ctype;
+JNLUA_THREADLOCAL void *bufferview_address;
+JNLUA_THREADLOCAL jint bufferview_length;
+JNLUA_THREADLOCAL int bufferview_readonly;
+JNLUA_THREADLOCAL jint bufferview_count;
+/* FFI finalizer of a buffer view. The buffer is upvalue 1 and stays reachable until the view is collected. */
+static int releasebufferview(lua_State *L)
+{
+    (void)L;
+    return 0;
+}
+static int pushbufferview_protected(lua_State *L)
+{
+    lua_Number size;
+
+    /* Stack: [ffi] */
+    lua_getfield(L, LUA_REGISTRYINDEX, "_LOADED");
+    lua_getfield(L, -1, "ffi");
+    lua_remove(L, -2);
+    if (!lua_istable(L, -1))
+    {
+        lua_pop(L, 1);
+        lua_getglobal(L, "require");
+        if (!lua_isfunction(L, -1))
+            return luaL_error(L, "FFI library is not available");
+        lua_pushliteral(L, "ffi");
+        lua_call(L, 1, 1);
+    }
+
+    /* Element size */
+    lua_getfield(L, 1, "sizeof");
+    lua_pushstring(L, bufferview_ctype);
+    lua_call(L, 1, 1);
+    size = lua_tonumber(L, -1);
+    lua_pop(L, 1);
+    if (size <= 0)
+        return luaL_error(L, "ctype '%s' has no fixed size", bufferview_ctype);
+    bufferview_count = (jint)(bufferview_length / (jlong)size);
+
+    /* ffi.gc(ffi.cast("ctype *", address), finalizer) */
+    lua_getfield(L, 1, "gc");
+    lua_getfield(L, 1, "cast");
+    lua_pushfstring(L, bufferview_readonly ? "const %s *" : "%s *", bufferview_ctype);
+    lua_pushlightuserdata(L, bufferview_address);
+    lua_call(L, 2, 1);
+    pushjavaobject(L, bufferview_buffer, NULL, 1);
+    lua_pushcclosure(L, releasebufferview, 1);
+    lua_call(L, 2, 1);
+    return 1;
+}
+jint jcall_pushbufferview(JNIEnv *env, jobject obj, jlong lua, jobject buffer, jint position, jint length, jboolean readonly, jstring ctype)
+{
+    const char *ctype_utf = NULL;
+    jbyte *address = NULL;
+    jint result = -1;
+    int status;
+
+    JNLUA_ENV_L;
+    if (checkstack(L, JNLUA_MINSTACK) && checknotnull(buffer)                                       //
+        && checkarg((address = (jbyte *)(*env)->GetDirectBufferAddress(env, buffer)) != NULL, "buffer is not direct") //
+        && checkarg(position >= 0 && length >= 0 && (jlong)position + length <= (*env)->GetDirectBufferCapacity(env, buffer), "illegal buffer range") //
+        && (ctype_utf = getstringchars(ctype)))
+    {
+        bufferview_buffer = buffer;
+        bufferview_ctype = ctype_utf;
+        bufferview_address = address + position;
+        bufferview_length = length;
+        bufferview_readonly = readonly;
+        bufferview_count = 0;
+        lua_pushcfunction(L, pushbufferview_protected);
+        status = lua_pcall(L, 0, 1, 0);
+        bufferview_buffer = NULL;
+        if (status != 0)
+            throw(L, status);
+        else
+            result = bufferview_count;
+    }
+    if (ctype_utf)
+    {
+        releasestringchars(ctype, ctype_utf);
+    }
     JNLUA_DETACH_L;
+    return result;
 }
 
 /* lua_pushnil() */
 void jcall_pushnil(JNIEnv *env, jobject obj, jlong lua)
 {
-    JNLUA_ENV_L;
+    JNLUA_ENV_FAST_L;
     if (checkstack(L, JNLUA_MINSTACK))
     {
         lua_pushnil(L);
     }
-    JNLUA_DETACH_L;
 }
 
 /* lua_pushnumber() */
 void jcall_pushnumber(JNIEnv *env, jobject obj, jlong lua, jdouble n)
 {
-    JNLUA_ENV_L;
+    JNLUA_ENV_FAST_L;
     if (checkstack(L, JNLUA_MINSTACK))
     {
         if (n == (lua_Integer)n)
@@ -1929,7 +3012,6 @@ void jcall_pushnumber(JNIEnv *env, jobject obj, jlong lua, jdouble n)
         else
             lua_pushnumber(L, (lua_Number)n);
     }
-    JNLUA_DETACH_L;
 }
 
 void jcall_pushbytearray(JNIEnv *env, jobject obj, jlong lua, jbyteArray ba, jint bl)
@@ -2027,9 +3109,8 @@ void jcall_pushstr2num(JNIEnv *env, jobject obj, jlong lua, jbyteArray ba, jint
 /* lua_isboolean() */
 jint jcall_isboolean(JNIEnv *env, jobject obj, jlong lua, jint index)
 {
-    JNLUA_ENV_L;
+    JNLUA_ENV_FAST_L;
     jint rtn = (jint)(!validindex(L, index) ? 0 : lua_isboolean(L, index));
-    JNLUA_DETACH_L;
     return rtn;
 }
 
@@ -2045,9 +3126,8 @@ jint jcall_iscfunction(JNIEnv *env, jobject obj, jlong lua, jint index)
 /* lua_isfunction() */
 jint jcall_isfunction(JNIEnv *env, jobject obj, jlong lua, jint index)
 {
-    JNLUA_ENV_L;
+    JNLUA_ENV_FAST_L;
     jint rtn = (jint)(!validindex(L, index) ? 0 : lua_isfunction(L, index));
-    JNLUA_DETACH_L;
     return rtn;
 }
 
@@ -2088,54 +3168,48 @@ jint jcall_isjavaobject(JNIEnv *env, jobject obj, jlong lua, jint index)
 /* lua_isnil() */
 jint jcall_isnil(JNIEnv *env, jobject obj, jlong lua, jint index)
 {
-    JNLUA_ENV_L;
+    JNLUA_ENV_FAST_L;
     jint rtn = (jint)(!validindex(L, index) ? 0 : lua_isnil(L, index));
-    JNLUA_DETACH_L;
     return rtn;
 }
 
 /* lua_isnone() */
 jint jcall_isnone(JNIEnv *env, jobject obj, jlong lua, jint index)
 {
-    JNLUA_ENV_L;
+    JNLUA_ENV_FAST_L;
     jint rtn = (jint)!validindex(L, index);
-    JNLUA_DETACH_L;
     return rtn;
 }
 
 /* lua_isnoneornil() */
 jint jcall_isnoneornil(JNIEnv *env, jobject obj, jlong lua, jint index)
 {
-    JNLUA_ENV_L;
+    JNLUA_ENV_FAST_L;
     jint rtn = (jint)(!validindex(L, index) ? 1 : lua_isnil(L, index));
-    JNLUA_DETACH_L;
     return rtn;
 }
 
 /* lua_isnumber() */
 jint jcall_isnumber(JNIEnv *env, jobject obj, jlong lua, jint index)
 {
-    JNLUA_ENV_L;
+    JNLUA_ENV_FAST_L;
     jint rtn = (jint)(!validindex(L, index) ? 0 : lua_isnumber(L, index));
-    JNLUA_DETACH_L;
     return rtn;
 }
 
 /* lua_isstring() */
 jint jcall_isstring(JNIEnv *env, jobject obj, jlong lua, jint index)
 {
-    JNLUA_ENV_L;
+    JNLUA_ENV_FAST_L;
     jint rtn = (jint)(!validindex(L, index) ? 0 : lua_isstring(L, index));
-    JNLUA_DETACH_L;
     return rtn;
 }
 
 /* lua_istable() */
 jint jcall_istable(JNIEnv *env, jobject obj, jlong lua, jint index)
 {
-    JNLUA_ENV_L;
+    JNLUA_ENV_FAST_L;
     jint rtn = (jint)(!validindex(L, index) ? 0 : lua_istable(L, index));
-    JNLUA_DETACH_L;
     return rtn;
 }
 
@@ -2219,18 +3293,16 @@ jint jcall_objlen(JNIEnv *env, jobject obj, jlong lua, jint index)
 /* lua_rawequal() */
 jint jcall_rawequal(JNIEnv *env, jobject obj, jlong lua, jint index1, jint index2)
 {
-    JNLUA_ENV_L;
+    JNLUA_ENV_FAST_L;
     jint rtn = (jint)(!validindex(L, index1) || !validindex(L, index2) ? 0 : lua_rawequal(L, index1, index2));
-    JNLUA_DETACH_L;
     return rtn;
 }
 
 /* lua_toboolean() */
 jint jcall_toboolean(JNIEnv *env, jobject obj, jlong lua, jint index)
 {
-    JNLUA_ENV_L;
+    JNLUA_ENV_FAST_L;
     jint rtn = (jint)(!validindex(L, index) ? 0 : lua_toboolean(L, index));
-    JNLUA_DETACH_L;
     return rtn;
 }
 
@@ -2245,13 +3317,12 @@ jbyteArray jcall_tobytearray(JNIEnv *env, jobject obj, jlong lua, jint index)
 /* lua_tointeger() */
 jlong jcall_tointeger(JNIEnv *env, jobject obj, jlong lua, jint index)
 {
-    JNLUA_ENV_L;
+    JNLUA_ENV_FAST_L;
     lua_Number result = 0;
     if (checkindex(L, index))
     {
         result = lua_tonumber(L, index);
     }
-    JNLUA_DETACH_L;
     return (jlong)result;
 }
 
@@ -2336,7 +3407,7 @@ jobject jcall_tojavaobject(JNIEnv *env, jobject obj, jlong lua, jint index)
 /* lua_tonumber() */
 jdouble jcall_tonumber(JNIEnv *env, jobject obj, jlong lua, jint index)
 {
-    JNLUA_ENV_L;
+    JNLUA_ENV_FAST_L;
 
     lua_Number result = 0.0;
 
@@ -2344,7 +3415,6 @@ jdouble jcall_tonumber(JNIEnv *env, jobject obj, jlong lua, jint index)
     {
         result = lua_tonumber(L, index);
     }
-    JNLUA_DETACH_L;
     return (jdouble)result;
 }
 
@@ -2449,11 +3519,8 @@ jint jcall_type(JNIEnv *env, jobject obj, jlong lua, jint index)
 /* lua_absindex() */
 jint jcall_absindex(JNIEnv *env, jobject obj, jlong lua, jint index)
 {
-    JNLUA_ENV_L;
-    jint rtn = (jint)lua_absindex(L, index);
-
-    JNLUA_DETACH_L;
-    return rtn;
+    JNLUA_ENV_FAST_L;
+    return (jint)lua_absindex(L, index);
 }
 /* lua_concat() */
 JNLUA_THREADLOCAL int concat_n;
@@ -2489,77 +3556,68 @@ void jcall_copy(JNIEnv *env, jobject obj, jlong lua, jint from_index, jint to_in
 /* lua_gettop() */
 jint jcall_gettop(JNIEnv *env, jobject obj, jlong lua)
 {
-    JNLUA_ENV_L;
-    jint rtn = (jint)lua_gettop(L);
-
-    JNLUA_DETACH_L;
-    return rtn;
+    JNLUA_ENV_FAST_L;
+    return (jint)lua_gettop(L);
 }
 
 /* lua_insert() */
 void jcall_insert(JNIEnv *env, jobject obj, jlong lua, jint index)
 {
-    JNLUA_ENV_L;
+    JNLUA_ENV_FAST_L;
     if (checkrealindex(L, index))
     {
         lua_insert(L, index);
     }
-    JNLUA_DETACH_L;
 }
 
 /* lua_pop() */
 void jcall_pop(JNIEnv *env, jobject obj, jlong lua, jint n)
 {
-    JNLUA_ENV_L;
+    JNLUA_ENV_FAST_L;
     if (checkarg(n >= 0 && n <= lua_gettop(L), "illegal count"))
     {
         lua_pop(L, n);
     }
-    JNLUA_DETACH_L;
 }
 
 /* lua_pushvalue() */
 void jcall_pushvalue(JNIEnv *env, jobject obj, jlong lua, jint index)
 {
-    JNLUA_ENV_L;
+    JNLUA_ENV_FAST_L;
     if (checkstack(L, JNLUA_MINSTACK) && checkindex(L, index))
     {
         lua_pushvalue(L, index);
     }
-    JNLUA_DETACH_L;
 }
 
 /* lua_remove() */
 void jcall_remove(JNIEnv *env, jobject obj, jlong lua, jint index)
 {
-    JNLUA_ENV_L;
+    JNLUA_ENV_FAST_L;
     if (checkrealindex(L, index))
     {
         lua_remove(L, index);
     }
-    JNLUA_DETACH_L;
 }
 
 /* lua_replace() */
 void jcall_replace(JNIEnv *env, jobject obj, jlong lua, jint index)
 {
-    JNLUA_ENV_L;
+    JNLUA_ENV_FAST_L;
     if (checkindex(L, index) && checknelems(L, 1))
     {
         lua_replace(L, index);
     }
-    JNLUA_DETACH_L;
 }
 
 /* lua_settop() */
 void jcall_settop(JNIEnv *env, jobject obj, jlong lua, jint index)
 {
-    JNLUA_ENV_L;
+    JNLUA_ENV_FAST_L;
     if ((index >= 0 && (index <= lua_gettop(L) || checkstack(L, index - lua_gettop(L)))) || (index < 0 && checkrealindex(L, index)))
     {
         lua_settop(L, index);
     }
-    JNLUA_DETACH_L;
 }
 
 /* ---- Table ---- */
@@ -2861,32 +3919,286 @@ static int newthread_protected(lua_State *L)
     lua_xmove(L, T, 1);
     return 1;
 }
-void jcall_newthread(JNIEnv *env, jobject obj, jlong lua)
+void jcall_newthread(JNIEnv *env, jobject obj, jlong lua)
+{
+    JNLUA_ENV_L;
+    if (checkstack(L, JNLUA_MINSTACK) && checktype(L, -1, LUA_TFUNCTION))
+    {
+        lua_pushcfunction(L, newthread_protected);
+        lua_insert(L, -2);
+        JNLUA_PCALL(L, 1, 1);
+    }
+    JNLUA_DETACH_L;
+}
+
+/* lua_resume() */
+jint jcall_resume(JNIEnv *env, jobject obj, jlong lua, jint index, jint nargs)
+{
+    JNLUA_ENV_L;
+    lua_State *T;
+    int status;
+    int nresults = 0;
+    if (checktype(L, index, LUA_TTHREAD) && checkarg(nargs >= 0, "illegal argument count") && checknelems(L, nargs + 1))
+    {
+        T = lua_tothread(L, index);
+        if (checkstack(T, nargs))
+        {
+            lua_xmove(L, T, nargs);
+            status = lua_resume(T, nargs);
+            switch (status)
+            {
+            case 0:
+            case LUA_YIELD:
+                nresults = lua_gettop(T);
+                if (checkstack(L, nresults))
+                {
+                    lua_xmove(T, L, nresults);
+                }
+                break;
+            default:
+                throw(L, status);
+            }
+        }
+    }
+    JNLUA_DETACH_L;
+    return (jint)nresults;
+}
+
+/* ---- Count hook ---- */
+/*
+ * The count hook serves both the execution budget of a state and the preemption of a thread resumed by
+ * lua_resumeslice(). It is only installed while one of them is active, so a state without either runs
+ * without any hook. The hook is global to the state in LuaJIT; setting a hook with debug.sethook()
+ * replaces it. Compiled traces do not call the count hook, so the JIT compiler is turned off while a
+ * budget is active or a thread is resumed with a time slice, and turned back on afterwards.
+ */
+#define JNLUA_BUDGETPERIOD 1000 /* Instructions between budget checks */
+typedef struct
+{
+    jlong instructions; /* instructions left, or -1 for no limit */
+    jlong deadline;     /* wall-clock deadline in microseconds, or 0 for no limit */
+    int exceeded;       /* whether the budget has been exceeded */
+    int jit;            /* whether the JIT compiler was on before the budget turned it off */
+} LuaBudget;
+/* Thread preempted by the count hook; other threads, such as coroutines resumed from Lua, keep running. */
+JNLUA_THREADLOCAL lua_State *preempt_thread = NULL;
+JNLUA_THREADLOCAL int preempt_slice;
+JNLUA_THREADLOCAL int preempt_count;
+static jlong currentmicros(void)
+{
+    struct timeval now;
+    gettimeofday(&now, NULL);
+    return (jlong)now.tv_sec * 1000000 + now.tv_usec;
+}
+/* Returns the execution budget of a state, or NULL if none has been set. */
+static LuaBudget *getbudget(lua_State *L)
+{
+    LuaBudget *budget;
+    lua_pushlightuserdata(L, (void *)&REGISTRY_KEY_BUDGET);
+    lua_rawget(L, LUA_REGISTRYINDEX);
+    budget = (LuaBudget *)lua_touserdata(L, -1);
+    lua_pop(L, 1);
+    return budget && (budget->instructions >= 0 || budget->deadline || budget->exceeded) ? budget : NULL;
+}
+static void counthook(lua_State *L, lua_Debug *ar);
+/* Installs or removes the count hook according to the budget and the preempted thread. */
+static void updatehook(lua_State *L)
+{
+    LuaBudget *budget = getbudget(L);
+    int count = 0;
+    if (budget)
+    {
+        count = budget->exceeded ? 1 : budget->instructions >= 0 && budget->instructions < JNLUA_BUDGETPERIOD ? (int)budget->instructions : JNLUA_BUDGETPERIOD;
+    }
+    if (preempt_thread && (count == 0 || preempt_slice < count))
+    {
+        count = preempt_slice;
+    }
+    if (count > 0)
+    {
+        lua_sethook(L, counthook, LUA_MASKCOUNT, count);
+    }
+    else
+    {
+        lua_sethook(L, NULL, 0, 0);
+    }
+}
+static void counthook(lua_State *L, lua_Debug *ar)
+{
+    LuaBudget *budget;
+    int count;
+
+    if (ar->event != LUA_HOOKCOUNT)
+    {
+        return;
+    }
+    count = lua_gethookcount(L);
+    if ((budget = getbudget(L)))
+    {
+        if (!budget->exceeded && ((budget->instructions >= 0 && (budget->instructions -= count) <= 0) || (budget->deadline && currentmicros() >= budget->deadline)))
+        {
+            /* From now on, raise the error on every instruction so that pcall() cannot keep the script running. */
+            budget->exceeded = 1;
+            lua_sethook(L, counthook, LUA_MASKCOUNT, 1);
+        }
+        if (budget->exceeded)
+        {
+            lua_pushliteral(L, "execution budget exceeded");
+            lua_error(L);
+        }
+        if (budget->instructions >= 0 && budget->instructions < count)
+        {
+            /* Shorten the interval so that the next check falls on the last instruction of the budget. */
+            updatehook(L);
+        }
+    }
+    if (L == preempt_thread && (preempt_count -= count) <= 0 && lua_isyieldable(L))
+    {
+        preempt_count = preempt_slice;
+        lua_yield(L, 0);
+    }
+}
+
+/* Returns whether the JIT compiler of a state is on, as reported by jit.status(). */
+static int jitstatus(lua_State *L)
+{
+    int on = 0;
+    lua_getfield(L, LUA_REGISTRYINDEX, "_LOADED");
+    if (lua_istable(L, -1))
+    {
+        lua_getfield(L, -1, "jit");
+        if (lua_istable(L, -1))
+        {
+            lua_getfield(L, -1, "status");
+            if (lua_isfunction(L, -1))
+            {
+                lua_call(L, 0, 1);
+                on = lua_toboolean(L, -1);
+            }
+            lua_pop(L, 1);
+        }
+        lua_pop(L, 1);
+    }
+    lua_pop(L, 1);
+    return on;
+}
+
+/* Flushes the compiled traces and turns the JIT compiler off; returns whether it was on. */
+static int jitoff(lua_State *L)
+{
+    int on = jitstatus(L);
+    if (on)
+    {
+        luaJIT_setmode(L, 0, LUAJIT_MODE_ENGINE | LUAJIT_MODE_FLUSH);
+        luaJIT_setmode(L, 0, LUAJIT_MODE_ENGINE | LUAJIT_MODE_OFF);
+    }
+    return on;
+}
+static int jitoff_protected(lua_State *L)
+{
+    lua_pushboolean(L, jitoff(L));
+    return 1;
+}
+
+/* lua_setbudget() */
+JNLUA_THREADLOCAL jlong setbudget_instructions;
+JNLUA_THREADLOCAL jlong setbudget_micros;
+static int setbudget_protected(lua_State *L)
+{
+    LuaBudget *budget;
+    int active;
+
+    lua_pushlightuserdata(L, (void *)&REGISTRY_KEY_BUDGET);
+    lua_rawget(L, LUA_REGISTRYINDEX);
+    budget = (LuaBudget *)lua_touserdata(L, -1);
+    lua_pop(L, 1);
+    if (!budget)
+    {
+        if (setbudget_instructions <= 0 && setbudget_micros <= 0)
+        {
+            return 0;
+        }
+        lua_pushlightuserdata(L, (void *)&REGISTRY_KEY_BUDGET);
+        budget = (LuaBudget *)lua_newuserdata(L, sizeof(LuaBudget));
+        budget->instructions = -1;
+        budget->deadline = 0;
+        budget->exceeded = 0;
+        budget->jit = 0;
+        lua_rawset(L, LUA_REGISTRYINDEX);
+    }
+    active = getbudget(L) != NULL;
+    budget->instructions = setbudget_instructions > 0 ? setbudget_instructions : -1;
+    budget->deadline = setbudget_micros > 0 ? currentmicros() + setbudget_micros : 0;
+    budget->exceeded = 0;
+    if (!active && getbudget(L))
+    {
+        /* Flush the compiled traces, which would run without calling the count hook. */
+        budget->jit = jitoff(L);
+    }
+    else if (active && !getbudget(L) && budget->jit)
+    {
+        budget->jit = 0;
+        luaJIT_setmode(L, 0, LUAJIT_MODE_ENGINE | LUAJIT_MODE_ON);
+    }
+    updatehook(L);
+    return 0;
+}
+void jcall_setbudget(JNIEnv *env, jobject obj, jlong lua, jlong instructions, jlong micros)
 {
     JNLUA_ENV_L;
-    if (checkstack(L, JNLUA_MINSTACK) && checktype(L, -1, LUA_TFUNCTION))
+    if (checkstack(L, JNLUA_MINSTACK))
     {
-        lua_pushcfunction(L, newthread_protected);
-        lua_insert(L, -2);
-        JNLUA_PCALL(L, 1, 1);
+        setbudget_instructions = instructions;
+        setbudget_micros = micros;
+        lua_pushcfunction(L, setbudget_protected);
+        JNLUA_PCALL(L, 0, 0);
     }
     JNLUA_DETACH_L;
 }
 
-/* lua_resume() */
-jint jcall_resume(JNIEnv *env, jobject obj, jlong lua, jint index, jint nargs)
+/* lua_isbudgetexceeded() */
+jint jcall_isbudgetexceeded(JNIEnv *env, jobject obj, jlong lua)
+{
+    JNLUA_ENV_FAST_L;
+    LuaBudget *budget = getbudget(L);
+    return budget && budget->exceeded;
+}
+
+/* lua_resumeslice() */
+jint jcall_resumeslice(JNIEnv *env, jobject obj, jlong lua, jint index, jint nargs, jint count)
 {
     JNLUA_ENV_L;
     lua_State *T;
+    lua_State *previous;
+    int previous_slice, previous_count;
     int status;
+    int jit;
     int nresults = 0;
-    if (checktype(L, index, LUA_TTHREAD) && checkarg(nargs >= 0, "illegal argument count") && checknelems(L, nargs + 1))
+    if (checktype(L, index, LUA_TTHREAD) && checkarg(nargs >= 0, "illegal argument count") && checkarg(count > 0, "illegal instruction count") && checknelems(L, nargs + 1) && checkstack(L, JNLUA_MINSTACK))
     {
         T = lua_tothread(L, index);
         if (checkstack(T, nargs))
         {
+            /* Compiled traces would run without calling the count hook. */
+            lua_pushcfunction(L, jitoff_protected);
+            jit = lua_pcall(L, 0, 1, 0) == 0 && lua_toboolean(L, -1);
+            lua_pop(L, 1);
             lua_xmove(L, T, nargs);
+            previous = preempt_thread;
+            previous_slice = preempt_slice;
+            previous_count = preempt_count;
+            preempt_thread = T;
+            preempt_slice = preempt_count = count;
+            updatehook(L);
             status = lua_resume(T, nargs);
+            preempt_thread = previous;
+            preempt_slice = previous_slice;
+            preempt_count = previous_count;
+            updatehook(L);
+            if (jit)
+            {
+                luaJIT_setmode(L, 0, LUAJIT_MODE_ENGINE | LUAJIT_MODE_ON);
+            }
             switch (status)
             {
             case 0:
@@ -3138,6 +4450,191 @@ jint jcall_tablesize(JNIEnv *env, jobject obj, jlong lua, jint index)
     return (jint)tablesize_result;
 }
 
+/* lua_tablesnapshot() */
+#define SNAPSHOT_NIL 0
+#define SNAPSHOT_BOOLEAN 1
+#define SNAPSHOT_NUMBER 3
+#define SNAPSHOT_STRING 4
+#define SNAPSHOT_TABLE 5
+#define SNAPSHOT_REF 9
+#define SNAPSHOT_JAVAOBJECT 10
+typedef struct
+{
+    unsigned char *data;
+    size_t length;
+    size_t capacity;
+} SnapshotBuffer;
+JNLUA_THREADLOCAL SnapshotBuffer *snapshot_buffer;
+JNLUA_THREADLOCAL int snapshot_depth;
+static unsigned char *snapshot_reserve(lua_State *L, size_t size)
+{
+    SnapshotBuffer *b = snapshot_buffer;
+    unsigned char *p;
+
+    if (b->length + size > b->capacity)
+    {
+        size_t capacity = b->capacity ? b->capacity : 256;
+        while (capacity < b->length + size)
+            capacity <<= 1;
+        p = (unsigned char *)realloc(b->data, capacity);
+        if (!p)
+            luaL_error(L, "out of memory");
+        b->data = p;
+        b->capacity = capacity;
+    }
+    p = b->data + b->length;
+    b->length += size;
+    return p;
+}
+static void snapshot_int(lua_State *L, unsigned char tag, jint value)
+{
+    unsigned char *p = snapshot_reserve(L, 1 + sizeof(jint));
+    *p = tag;
+    memcpy(p + 1, &value, sizeof(jint));
+}
+static void snapshot_table(lua_State *L, int depth);
+/* Appends the value at the (absolute) index. Stack index 2 holds the tables on the current path, 3 the Java objects. */
+static void snapshot_value(lua_State *L, int index, int depth)
+{
+    unsigned char *p;
+    size_t len;
+    const char *s;
+    lua_Number n;
+
+    switch (lua_type(L, index))
+    {
+    case LUA_TNIL:
+        *snapshot_reserve(L, 1) = SNAPSHOT_NIL;
+        return;
+    case LUA_TBOOLEAN:
+        p = snapshot_reserve(L, 2);
+        p[0] = SNAPSHOT_BOOLEAN;
+        p[1] = (unsigned char)lua_toboolean(L, index);
+        return;
+    case LUA_TNUMBER:
+        n = lua_tonumber(L, index);
+        p = snapshot_reserve(L, 1 + sizeof(lua_Number));
+        *p = SNAPSHOT_NUMBER;
+        memcpy(p + 1, &n, sizeof(lua_Number));
+        return;
+    case LUA_TSTRING:
+        s = lua_tolstring(L, index, &len);
+        snapshot_int(L, SNAPSHOT_STRING, (jint)len);
+        memcpy(snapshot_reserve(L, len), s, len);
+        return;
+    case LUA_TTABLE:
+        if (depth != 0)
+        {
+            lua_pushvalue(L, index);
+            lua_rawget(L, 2);
+            if (lua_isnil(L, -1))
+            {
+                lua_pop(L, 1);
+                lua_pushvalue(L, index);
+                snapshot_table(L, depth - 1);
+                lua_pop(L, 1);
+                return;
+            }
+            lua_pop(L, 1);
+        }
+        break;
+    case LUA_TUSERDATA:
+        if (tojavaobject(L, index, NULL))
+        {
+            len = lua_objlen(L, 3) + 1;
+            lua_pushvalue(L, index);
+            lua_rawseti(L, 3, (int)len);
+            snapshot_int(L, SNAPSHOT_JAVAOBJECT, (jint)len - 1);
+            return;
+        }
+        break;
+    }
+
+    /* Functions, threads, foreign userdata and tables beyond the depth or on the current path */
+    lua_pushvalue(L, index);
+    snapshot_int(L, SNAPSHOT_REF, (jint)luaL_ref(L, LUA_REGISTRYINDEX));
+}
+/* Appends the table on top of the stack. */
+static void snapshot_table(lua_State *L, int depth)
+{
+    int table = lua_gettop(L);
+    size_t offset;
+    jint count = 0;
+
+    luaL_checkstack(L, JNLUA_MINSTACK, "snapshot too deep");
+    lua_pushvalue(L, table);
+    lua_pushboolean(L, 1);
+    lua_rawset(L, 2);
+
+    snapshot_int(L, SNAPSHOT_TABLE, 0);
+    offset = snapshot_buffer->length - sizeof(jint);
+    lua_pushnil(L);
+    while (lua_next(L, table))
+    {
+        snapshot_value(L, table + 1, 0);
+        snapshot_value(L, table + 2, depth);
+        lua_pop(L, 1);
+        count++;
+    }
+    memcpy(snapshot_buffer->data + offset, &count, sizeof(jint));
+
+    lua_pushvalue(L, table);
+    lua_pushnil(L);
+    lua_rawset(L, 2);
+}
+static int tablesnapshot_protected(lua_State *L)
+{
+    lua_settop(L, 1);
+    lua_newtable(L);
+    lua_newtable(L);
+    lua_pushvalue(L, 1);
+    snapshot_table(L, snapshot_depth);
+    lua_pop(L, 1);
+    return 1;
+}
+jbyteArray jcall_tablesnapshot(JNIEnv *env, jobject obj, jlong lua, jint index, jint depth, jobjectArray objects)
+{
+    SnapshotBuffer buffer = {NULL, 0, 0};
+    jbyteArray result = NULL;
+    jobjectArray array;
+    int status, count, i;
+
+    JNLUA_ENV_L;
+    if (checkstack(L, JNLUA_MINSTACK) && checktype(L, index, LUA_TTABLE) && checknotnull(objects))
+    {
+        index = lua_absindex(L, index);
+        snapshot_buffer = &buffer;
+        snapshot_depth = depth;
+        lua_pushcfunction(L, tablesnapshot_protected);
+        lua_pushvalue(L, index);
+        status = lua_pcall(L, 1, 1, 0);
+        snapshot_buffer = NULL;
+        if (status != 0)
+            throw(L, status);
+        else
+        {
+            count = (int)lua_objlen(L, -1);
+            if (count > 0 && (array = (*env)->NewObjectArray(env, count, object_class, NULL)))
+            {
+                for (i = 0; i < count; i++)
+                {
+                    lua_rawgeti(L, -1, i + 1);
+                    (*env)->SetObjectArrayElement(env, array, i, tojavaobject(L, -1, NULL));
+                    lua_pop(L, 1);
+                }
+                (*env)->SetObjectArrayElement(env, objects, 0, array);
+                (*env)->DeleteLocalRef(env, array);
+            }
+            lua_pop(L, 1);
+            if ((result = newbytearray((jsize)buffer.length)))
+                (*env)->SetByteArrayRegion(env, result, 0, (jsize)buffer.length, (jbyte *)buffer.data);
+        }
+        free(buffer.data);
+    }
+    JNLUA_DETACH_L;
+    return result;
+}
+
 /* lua_tablemove() */
 JNLUA_THREADLOCAL int tablemove_from;
 JNLUA_THREADLOCAL int tablemove_to;
@@ -3227,6 +4724,19 @@ jstring jcall_debugnamewhat(JNIEnv *env, jobject obj)
 /* Args structure definition - must be before build_args function */
 #define ARGS_CACHE_POOL_SIZE 33  // Max params for calljavafunction (aligned with bytes_buffer size)
 
+/* Layout of the direct argument buffer shared with LuaState.paramBuffer (native byte order).
+ * Must be kept in sync with the PARAM_BUFFER_* constants in LuaState.java.
+ * - slots:   one 8-byte slot per argument (double, boolean as 0/1, or string offset << 32 | length)
+ * - mask:    bit i set if argument i was written to the buffer instead of the values array
+ * - enabled: written by Java, non-zero if the direct mode is active
+ * - strings: packed bytes of short string arguments
+ */
+#define DIRECT_ARGS_SLOTS 0
+#define DIRECT_ARGS_MAX 32
+#define DIRECT_ARGS_MASK 264
+#define DIRECT_ARGS_ENABLED 268
+#define DIRECT_ARGS_STRINGS 272
+
 typedef struct ArgStruct
 {
     jobjectArray values;  // Unified storage: Object[] for all types
@@ -3236,6 +4746,9 @@ typedef struct ArgStruct
     jbyteArray ref_cache;    // Reusable byte[4] for single-value TABLE ref (pair only)
     jbyteArray number_cache_pool[ARGS_CACHE_POOL_SIZE]; // Multi-slot NUMBER cache (args only)
     jbyteArray ref_cache_pool[ARGS_CACHE_POOL_SIZE];    // Multi-slot TABLE ref cache (args only)
+    jobject direct_buffer;   // GlobalRef of the direct ByteBuffer for primitive args (args only)
+    jbyte *direct;           // Address of direct_buffer, NULL if not available
+    jlong direct_capacity;   // Capacity of direct_buffer in bytes
 } Args;
 
 static void build_args(lua_State *L, int start, int stop, Args *args_ctx, jbyte *bytes_, bool pushtable, bool sync)
@@ -3243,11 +4756,51 @@ static void build_args(lua_State *L, int start, int stop, Args *args_ctx, jbyte
     jobject obj;
     jobjectArray args = args_ctx->values;
     jbyteArray types = args_ctx->types;
+    /* DIRECT MODE: numbers, booleans and short strings are written into the direct buffer
+     * with plain memory stores, avoiding one or two JNI calls per argument.
+     */
+    jbyte *direct = args_ctx->direct && *(jint *)(args_ctx->direct + DIRECT_ARGS_ENABLED) ? args_ctx->direct : NULL;
+    jint direct_mask = 0;
+    jlong direct_pos = DIRECT_ARGS_STRINGS;
     
     for (int i = start, idx = 0; i <= stop; i++, idx++)
     {
         bytes_[idx] = lua_type(L, i);
         
+        if (direct && idx < DIRECT_ARGS_MAX)
+        {
+            jlong slot;
+            size_t len;
+            const char *str;
+            jdouble num;
+
+            switch (bytes_[idx])
+            {
+            case LUA_TNUMBER:
+                num = lua_tonumber(L, i);
+                memcpy(direct + DIRECT_ARGS_SLOTS + idx * 8, &num, 8);
+                direct_mask |= (jint)(1u << idx);
+                continue;
+            case LUA_TBOOLEAN:
+                slot = lua_toboolean(L, i) ? 1 : 0;
+                memcpy(direct + DIRECT_ARGS_SLOTS + idx * 8, &slot, 8);
+                direct_mask |= (jint)(1u << idx);
+                continue;
+            case LUA_TSTRING:
+                str = lua_tolstring(L, i, &len);
+                if ((jlong)len <= args_ctx->direct_capacity - direct_pos)
+                {
+                    memcpy(direct + direct_pos, str, len);
+                    slot = (direct_pos << 32) | (jlong)len;
+                    memcpy(direct + DIRECT_ARGS_SLOTS + idx * 8, &slot, 8);
+                    direct_pos += len;
+                    direct_mask |= (jint)(1u << idx);
+                    continue;
+                }
+                break;
+            }
+        }
+
         switch (bytes_[idx])
         {
         case LUA_TSTRING:
@@ -3373,6 +4926,11 @@ static void build_args(lua_State *L, int start, int stop, Args *args_ctx, jbyte
             break;
         }
     }
+    /* The mask is cleared in disabled mode too, so that no stale slots of a previous call are decoded. */
+    if (args_ctx->direct)
+    {
+        memcpy(args_ctx->direct + DIRECT_ARGS_MASK, &direct_mask, sizeof(jint));
+    }
     if (sync)
     {
         (*thread_env)->SetByteArrayRegion(thread_env, types, 0, stop - start + 1, bytes_);
@@ -3551,6 +5109,12 @@ static int gc_args(lua_State *L)
         }
     }
     
+    if (args->direct_buffer) {
+        (*thread_env)->DeleteGlobalRef(thread_env, args->direct_buffer);
+        args->direct_buffer = NULL;
+        args->direct = NULL;
+    }
+    
     /* Free malloc'd memory */
     if (args->bytes_buffer) {
         free(args->bytes_buffer);
@@ -3585,7 +5149,7 @@ static void set_args_metatable(lua_State *L)
     lua_setmetatable(L, -2);
 }
 
-void jcall_table_pair_init(JNIEnv *env, jobject obj, jlong lua, jobjectArray keys, jbyteArray types, jobjectArray params, jbyteArray paramTypes)
+void jcall_table_pair_init(JNIEnv *env, jobject obj, jlong lua, jobjectArray keys, jbyteArray types, jobjectArray params, jbyteArray paramTypes, jobject paramBuffer)
 {
     JNLUA_ENV_L;
     
@@ -3602,6 +5166,9 @@ void jcall_table_pair_init(JNIEnv *env, jobject obj, jlong lua, jobjectArray key
         (*pair).number_cache_pool[i] = NULL;
         (*pair).ref_cache_pool[i] = NULL;
     }
+    (*pair).direct_buffer = NULL;
+    (*pair).direct = NULL;
+    (*pair).direct_capacity = 0;
     /* PERFORMANCE OPTIMIZATION: Use lightuserdata as registry key */
     lua_pushlightuserdata(L, (void*)&REGISTRY_KEY_PAIRS);
     lua_pushvalue(L, -2);
@@ -3644,6 +5211,25 @@ void jcall_table_pair_init(JNIEnv *env, jobject obj, jlong lua, jobjectArray key
         }
     }
     
+    /* Direct argument buffer: only usable if the JVM supports direct buffer access and the
+     * buffer can hold at least the slots and the header.
+     */
+    (*args).direct_buffer = NULL;
+    (*args).direct = NULL;
+    (*args).direct_capacity = 0;
+    if (paramBuffer)
+    {
+        jbyte *address = (jbyte *)(*thread_env)->GetDirectBufferAddress(thread_env, paramBuffer);
+        jlong capacity = (*thread_env)->GetDirectBufferCapacity(thread_env, paramBuffer);
+        if (address && capacity >= DIRECT_ARGS_STRINGS)
+        {
+            (*args).direct_buffer = (*thread_env)->NewGlobalRef(thread_env, paramBuffer);
+            (*args).direct = address;
+            (*args).direct_capacity = capacity;
+        }
+        (*thread_env)->DeleteLocalRef(thread_env, paramBuffer);
+    }
+    
     /* PERFORMANCE OPTIMIZATION: Use lightuserdata as registry key */
     lua_pushlightuserdata(L, (void*)&REGISTRY_KEY_ARGS);
     lua_pushvalue(L, -2);
@@ -3900,6 +5486,8 @@ static JNINativeMethod luastate_native_map[] = {
     {"lua_isthread", "(JI)I", (void *)jcall_isthread},
     {"lua_lessthan", "(JII)I", (void *)jcall_lessthan},
     {"lua_load", "(JLjava/io/InputStream;Ljava/lang/String;Ljava/lang/String;)V", (void *)jcall_load},
+    {"lua_loadbuffer", "(JLjava/nio/ByteBuffer;IILjava/lang/String;Ljava/lang/String;)V", (void *)jcall_loadbuffer},
+    {"lua_dumpbuffer", "(JLjava/nio/ByteBuffer;II)Ljava/nio/ByteBuffer;", (void *)jcall_dumpbuffer},
     {"lua_narg", "(JI)I", (void *)jcall_narg},
     {"lua_newstate", "(IJ)I", (void *)jcall_newstate},
     {"lua_newstate_done", "(J)V", (void *)jcall_newstate_done},
@@ -3912,6 +5500,7 @@ static JNINativeMethod luastate_native_map[] = {
     {"lua_pop", "(JI)V", (void *)jcall_pop},
     {"lua_pushboolean", "(JI)V", (void *)jcall_pushboolean},
     {"lua_pushbytearray", "(J[BI)V", (void *)jcall_pushbytearray},
+    {"lua_pusharray", "(JLjava/lang/Object;I)V", (void *)jcall_pusharray},
     {"lua_pushinteger", "(JJ)V", (void *)jcall_pushinteger},
     {"lua_pushjavafunction", "(JLcom/naef/jnlua/JavaFunction;[B)V", (void *)jcall_pushjavafunction},
     {"lua_pushjavaobject", "(JLjava/lang/Object;[B)V", (void *)jcall_pushjavaobject},
@@ -3930,6 +5519,9 @@ static JNINativeMethod luastate_native_map[] = {
     {"lua_remove", "(JI)V", (void *)jcall_remove},
     {"lua_replace", "(JI)V", (void *)jcall_replace},
     {"lua_resume", "(JII)I", (void *)jcall_resume},
+    {"lua_resumeslice", "(JIII)I", (void *)jcall_resumeslice},
+    {"lua_setbudget", "(JJJ)V", (void *)jcall_setbudget},
+    {"lua_isbudgetexceeded", "(J)I", (void *)jcall_isbudgetexceeded},
     {"lua_setfenv", "(JI)I", (void *)jcall_setfenv},
     {"lua_setfield", "(JI[B)V", (void *)jcall_setfield},
     {"lua_setglobal", "(J[B)V", (void *)jcall_setglobal},
@@ -3937,12 +5529,22 @@ static JNINativeMethod luastate_native_map[] = {
     {"lua_settable", "(JI)V", (void *)jcall_settable},
     {"lua_settop", "(JI)V", (void *)jcall_settop},
     {"lua_pushmetafunction", "(J[B[BLcom/naef/jnlua/JavaFunction;B)I", (void *)jcall_pushmetafunction},
+    {"lua_preloadclass", "(J[B[[B[Lcom/naef/jnlua/JavaFunction;[B)I", (void *)jcall_preloadclass},
     /* [Optimization #1] Negative cache setter - Marks non-existent members to avoid repeated reflection */
     {"lua_set_negative_cache", "(J[B[B)V", (void *)jcall_set_negative_cache},
     {"lua_status", "(JI)I", (void *)jcall_status},
     {"lua_tablemove", "(JIIII)V", (void *)jcall_tablemove},
+    {"lua_memorystats", "(J[J)I", (void *)jcall_memorystats},
+    {"lua_setmemorylimit", "(JJ)I", (void *)jcall_setmemorylimit},
+    {"lua_setobjectcache", "(JZ)V", (void *)jcall_setobjectcache},
+    {"lua_isobjectcache", "(J)I", (void *)jcall_isobjectcache},
+    {"lua_setstacktrace", "(JZ)V", (void *)jcall_setstacktrace},
+    {"lua_isstacktrace", "(J)I", (void *)jcall_isstacktrace},
     {"lua_tablesize", "(JI)I", (void *)jcall_tablesize},
-	{"lua_table_pair_init", "(J[Ljava/lang/Object;[B[Ljava/lang/Object;[B)V", (void *)jcall_table_pair_init},
+    {"lua_todoublearray", "(JI)[D", (void *)jcall_todoublearray},
+    {"lua_pushbufferview", "(JLjava/nio/ByteBuffer;IIZLjava/lang/String;)I", (void *)jcall_pushbufferview},
+    {"lua_tablesnapshot", "(JII[Ljava/lang/Object;)[B", (void *)jcall_tablesnapshot},
+	{"lua_table_pair_init", "(J[Ljava/lang/Object;[B[Ljava/lang/Object;[BLjava/nio/ByteBuffer;)V", (void *)jcall_table_pair_init},
     {"lua_table_pair_get", "(JII)V", (void *)jcall_table_pair_get},
     {"lua_table_pair_push", "(JII)V", (void *)jcall_table_pair_push},
     {"lua_toboolean", "(JI)I", (void *)jcall_toboolean},
@@ -4012,8 +5614,8 @@ JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM *vm, void *reserved)
         || !(luastate_id = (*env)->GetFieldID(env, luastate_class, "luaState", "J"))               // Field: native Lua state pointer
         || !(luathread_id = (*env)->GetFieldID(env, luastate_class, "luaThread", "J"))               // Field: current Lua thread
         || !(luaexecthread_id = (*env)->GetMethodID(env, luastate_class, "setExecThread", "(J)V")) // Method: set execution thread
-        || !(luamemorytotal_id = (*env)->GetFieldID(env, luastate_class, "luaMemoryTotal", "I"))   // Field: max memory allowed
-        || !(luamemoryused_id = (*env)->GetFieldID(env, luastate_class, "luaMemoryUsed", "I"))       // Field: current memory used
+        || !(luamemorytotal_id = (*env)->GetFieldID(env, luastate_class, "luaMemoryTotal", "J"))   // Field: max memory allowed
+        || !(luaallocator_id = (*env)->GetFieldID(env, luastate_class, "luaAllocator", "I"))         // Field: allocator mode
         || !(yield_id = (*env)->GetFieldID(env, luastate_class, "yield", "Z"))                       // Field: yield flag for coroutines
         || !(print_id = (*env)->GetStaticMethodID(env, luastate_class, "println", "(Ljava/lang/String;)V")) // Method: debug printing
         || !(classname_id = (*env)->GetStaticMethodID(env, luastate_class, "getCanonicalName", "(Ljava/lang/Object;)[B"))) // Method: get class name
@@ -4049,6 +5651,17 @@ JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM *vm, void *reserved)
     {
         return JNLUA_JNIVERSION;
     }
+
+    /* Primitive-specialized JavaFunction subclasses */
+    if (!(doublebinaryfunction_class = referenceclass(env, "com/naef/jnlua/DoubleBinaryJavaFunction")) //
+        || !(doublebinary_id = (*env)->GetMethodID(env, doublebinaryfunction_class, "call", "(DD)D"))    //
+        || !(longunaryfunction_class = referenceclass(env, "com/naef/jnlua/LongUnaryJavaFunction"))      //
+        || !(longunary_id = (*env)->GetMethodID(env, longunaryfunction_class, "call", "(J)J"))            //
+        || !(stringtolongfunction_class = referenceclass(env, "com/naef/jnlua/StringToLongJavaFunction")) //
+        || !(stringtolong_id = (*env)->GetMethodID(env, stringtolongfunction_class, "JNI_call", "([B)J")))
+    {
+        return JNLUA_JNIVERSION;
+    }
     
     /* Exception classes initialization */
     if (!(luaruntimeexception_class = referenceclass(env, "com/naef/jnlua/LuaRuntimeException")) || !(luaruntimeexception_id = (*env)->GetMethodID(env, luaruntimeexception_class, "<init>", "(Ljava/lang/String;)V")) || !(setluaerror_id = (*env)->GetMethodID(env, luaruntimeexception_class, "setLuaError", "(Lcom/naef/jnlua/LuaError;)V")))
@@ -4059,23 +5672,23 @@ JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM *vm, void *reserved)
     {
         return JNLUA_JNIVERSION;
     }
-    if (!(luamemoryallocationexception_class = referenceclass(env, "com/naef/jnlua/LuaMemoryAllocationException")) || !(luamemoryallocationexception_id = (*env)->GetMethodID(env, luamemoryallocationexception_class, "<init>", "(Ljava/lang/String;)V")))
+    if (!(luabudgetexceededexception_class = referenceclass(env, "com/naef/jnlua/LuaBudgetExceededException")) || !(luabudgetexceededexception_id = (*env)->GetMethodID(env, luabudgetexceededexception_class, "<init>", "(Ljava/lang/String;)V")))
     {
         return JNLUA_JNIVERSION;
     }
-    if (!(luagcmetamethodexception_class = referenceclass(env, "com/naef/jnlua/LuaGcMetamethodException")) || !(luagcmetamethodexception_id = (*env)->GetMethodID(env, luagcmetamethodexception_class, "<init>", "(Ljava/lang/String;)V")))
+    if (!(luamemoryallocationexception_class = referenceclass(env, "com/naef/jnlua/LuaMemoryAllocationException")) || !(luamemoryallocationexception_id = (*env)->GetMethodID(env, luamemoryallocationexception_class, "<init>", "(Ljava/lang/String;)V")))
     {
         return JNLUA_JNIVERSION;
     }
-    if (!(luamessagehandlerexception_class = referenceclass(env, "com/naef/jnlua/LuaMessageHandlerException")) || !(luamessagehandlerexception_id = (*env)->GetMethodID(env, luamessagehandlerexception_class, "<init>", "(Ljava/lang/String;)V")))
+    if (!(luagcmetamethodexception_class = referenceclass(env, "com/naef/jnlua/LuaGcMetamethodException")) || !(luagcmetamethodexception_id = (*env)->GetMethodID(env, luagcmetamethodexception_class, "<init>", "(Ljava/lang/String;)V")))
     {
         return JNLUA_JNIVERSION;
     }
-    if (!(luastacktraceelement_class = referenceclass(env, "com/naef/jnlua/LuaStackTraceElement")) || !(luastacktraceelement_id = (*env)->GetMethodID(env, luastacktraceelement_class, "<init>", "(Ljava/lang/String;Ljava/lang/String;I)V")))
+    if (!(luamessagehandlerexception_class = referenceclass(env, "com/naef/jnlua/LuaMessageHandlerException")) || !(luamessagehandlerexception_id = (*env)->GetMethodID(env, luamessagehandlerexception_class, "<init>", "(Ljava/lang/String;)V")))
     {
         return JNLUA_JNIVERSION;
     }
-    if (!(luaerror_class = referenceclass(env, "com/naef/jnlua/LuaError")) || !(luaerror_id = (*env)->GetMethodID(env, luaerror_class, "<init>", "(Ljava/lang/String;Ljava/lang/Throwable;)V")) || !(setluastacktrace_id = (*env)->GetMethodID(env, luaerror_class, "setLuaStackTrace", "([Lcom/naef/jnlua/LuaStackTraceElement;)V")))
+    if (!(luaerror_class = referenceclass(env, "com/naef/jnlua/LuaError")) || !(luaerror_id = (*env)->GetMethodID(env, luaerror_class, "<init>", "(Ljava/lang/String;Ljava/lang/Throwable;)V")) || !(setluastackframes_id = (*env)->GetMethodID(env, luaerror_class, "setLuaStackFrames", "([B)V")))
     {
         return JNLUA_JNIVERSION;
     }
@@ -4097,6 +5710,21 @@ JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM *vm, void *reserved)
     {
         return JNLUA_JNIVERSION;
     }
+    if (!(system_class = referenceclass(env, "java/lang/System")) //
+        || !(identityhashcode_id = (*env)->GetStaticMethodID(env, system_class, "identityHashCode", "(Ljava/lang/Object;)I")))
+    {
+        return JNLUA_JNIVERSION;
+    }
+
+    /* Primitive array classes for native element access */
+    if (!(intarray_class = referenceclass(env, "[I"))        //
+        || !(longarray_class = referenceclass(env, "[J"))    //
+        || !(doublearray_class = referenceclass(env, "[D"))  //
+        || !(floatarray_class = referenceclass(env, "[F"))   //
+        || !(bytearray_class = referenceclass(env, "[B")))
+    {
+        return JNLUA_JNIVERSION;
+    }
     
     /* Java number classes for type conversion */
     if (!(integer_class = referenceclass(env, "java/lang/Long")) || !(valueof_integer_id = (*env)->GetStaticMethodID(env, integer_class, "valueOf", "(J)Ljava/lang/Long;")))
@@ -4123,6 +5751,10 @@ JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM *vm, void *reserved)
     {
         return JNLUA_JNIVERSION;
     }
+    if (!(bytebuffer_class = referenceclass(env, "java/nio/ByteBuffer")) || !(allocatedirect_id = (*env)->GetStaticMethodID(env, bytebuffer_class, "allocateDirect", "(I)Ljava/nio/ByteBuffer;")) || !(bufferposition_id = (*env)->GetMethodID(env, bytebuffer_class, "position", "(I)Ljava/nio/Buffer;")))
+    {
+        return JNLUA_JNIVERSION;
+    }
 
     /* Initialize cached boolean byte arrays to avoid repeated allocation */
     /* These arrays are used in build_args for boolean parameter passing */
@@ -4201,6 +5833,42 @@ JNIEXPORT void JNICALL JNI_OnUnload(JavaVM *vm, void *reserved)
     {
         (*env)->DeleteGlobalRef(env, javafunction_interface);
     }
+    if (doublebinaryfunction_class)
+    {
+        (*env)->DeleteGlobalRef(env, doublebinaryfunction_class);
+    }
+    if (longunaryfunction_class)
+    {
+        (*env)->DeleteGlobalRef(env, longunaryfunction_class);
+    }
+    if (stringtolongfunction_class)
+    {
+        (*env)->DeleteGlobalRef(env, stringtolongfunction_class);
+    }
+    if (system_class)
+    {
+        (*env)->DeleteGlobalRef(env, system_class);
+    }
+    if (intarray_class)
+    {
+        (*env)->DeleteGlobalRef(env, intarray_class);
+    }
+    if (longarray_class)
+    {
+        (*env)->DeleteGlobalRef(env, longarray_class);
+    }
+    if (doublearray_class)
+    {
+        (*env)->DeleteGlobalRef(env, doublearray_class);
+    }
+    if (floatarray_class)
+    {
+        (*env)->DeleteGlobalRef(env, floatarray_class);
+    }
+    if (bytearray_class)
+    {
+        (*env)->DeleteGlobalRef(env, bytearray_class);
+    }
     if (luaruntimeexception_class)
     {
         (*env)->DeleteGlobalRef(env, luaruntimeexception_class);
@@ -4209,6 +5877,10 @@ JNIEXPORT void JNICALL JNI_OnUnload(JavaVM *vm, void *reserved)
     {
         (*env)->DeleteGlobalRef(env, luasyntaxexception_class);
     }
+    if (luabudgetexceededexception_class)
+    {
+        (*env)->DeleteGlobalRef(env, luabudgetexceededexception_class);
+    }
     if (luamemoryallocationexception_class)
     {
         (*env)->DeleteGlobalRef(env, luamemoryallocationexception_class);
@@ -4221,10 +5893,6 @@ JNIEXPORT void JNICALL JNI_OnUnload(JavaVM *vm, void *reserved)
     {
         (*env)->DeleteGlobalRef(env, luamessagehandlerexception_class);
     }
-    if (luastacktraceelement_class)
-    {
-        (*env)->DeleteGlobalRef(env, luastacktraceelement_class);
-    }
     if (luaerror_class)
     {
         (*env)->DeleteGlobalRef(env, luaerror_class);
@@ -4261,6 +5929,10 @@ JNIEXPORT void JNICALL JNI_OnUnload(JavaVM *vm, void *reserved)
     {
         (*env)->DeleteGlobalRef(env, outputstream_class);
     }
+    if (bytebuffer_class)
+    {
+        (*env)->DeleteGlobalRef(env, bytebuffer_class);
+    }
     if (ioexception_class)
     {
         (*env)->DeleteGlobalRef(env, ioexception_class);
@@ -4409,32 +6081,6 @@ static void setluathread(jobject javastate, lua_State *L)
     (*thread_env)->SetLongField(thread_env, javastate, luathread_id, (jlong)(uintptr_t)L);
 }
 
-/**
- * getluamemory - Get memory usage from Java LuaState object
- * Extracts memory usage information from the Java LuaState object's fields.
- * Used by the custom memory allocator to enforce memory limits.
- * 
- * @param total Pointer to store total allowed memory
- * @param used Pointer to store currently used memory
- */
-static void getluamemory(jint *total, jint *used)
-{
-    *total = (*thread_env)->GetIntField(thread_env, luastate_obj, luamemorytotal_id);
-    *used = (*thread_env)->GetIntField(thread_env, luastate_obj, luamemoryused_id);
-}
-
-/**
- * setluamemoryused - Update memory usage in Java LuaState object
- * Updates the memory usage field in the Java LuaState object.
- * Called by the custom memory allocator whenever memory is allocated or freed.
- * 
- * @param used Current memory usage in bytes
- */
-static void setluamemoryused(jint used)
-{
-    (*thread_env)->SetIntField(thread_env, luastate_obj, luamemoryused_id, used);
-}
-
 /* ---- Yield Support Functions ---- */
 /**
  * getyield - Get yield flag from Java LuaState object
@@ -4882,58 +6528,198 @@ static int calljavafunction(lua_State *L)
     return nresults;
 }
 
+/* ---- Primitive-specialized Java functions ---- */
+/* Returns the Java function of a primitive-specialized closure, raising a Lua error if it was cleared. */
+static jobject primitivejavafunction(lua_State *L)
+{
+    jobject *user_data = (jobject *)lua_touserdata(L, lua_upvalueindex(1));
+    if (!user_data || !*user_data)
+    {
+        lua_pushliteral(L, "no Java function");
+        lua_error(L);
+    }
+    if ((trace & 9) == 1)
+    {
+        TRACE_LOG("CallJavaFunction: %s", lua_tostring(L, lua_upvalueindex(3)));
+    }
+    return *user_data;
+}
+
+/* Calls a DoubleBinaryJavaFunction: number, number -> number */
+static int calldoublebinary(lua_State *L)
+{
+    jobject luastate_obj_old;
+    jdouble a, b, result;
+    jobject javafunction;
+
+    a = (jdouble)luaL_checknumber(L, 1);
+    b = (jdouble)luaL_checknumber(L, 2);
+    javafunction = primitivejavafunction(L);
+    luastate_obj_old = luastate_obj;
+    result = (*thread_env)->CallDoubleMethod(thread_env, javafunction, doublebinary_id, a, b);
+    luastate_obj = luastate_obj_old;
+    if (handlejavaexception(L, 0))
+    {
+        return lua_error(L);
+    }
+    lua_pushnumber(L, (lua_Number)result);
+    return 1;
+}
+
+/* Calls a LongUnaryJavaFunction: number -> number */
+static int calllongunary(lua_State *L)
+{
+    jobject luastate_obj_old;
+    jlong value, result;
+    jobject javafunction;
+
+    value = (jlong)luaL_checknumber(L, 1);
+    javafunction = primitivejavafunction(L);
+    luastate_obj_old = luastate_obj;
+    result = (*thread_env)->CallLongMethod(thread_env, javafunction, longunary_id, value);
+    luastate_obj = luastate_obj_old;
+    if (handlejavaexception(L, 0))
+    {
+        return lua_error(L);
+    }
+    lua_pushnumber(L, (lua_Number)result);
+    return 1;
+}
+
+/* Calls a StringToLongJavaFunction: string -> number */
+static int callstringtolong(lua_State *L)
+{
+    jobject luastate_obj_old;
+    jbyteArray bytes;
+    const char *str;
+    size_t len;
+    jlong result;
+    jobject javafunction;
+
+    str = luaL_checklstring(L, 1, &len);
+    javafunction = primitivejavafunction(L);
+    bytes = (*thread_env)->NewByteArray(thread_env, (jsize)len);
+    if (!bytes)
+    {
+        (*thread_env)->ExceptionClear(thread_env);
+        lua_pushliteral(L, "JNI error: NewByteArray() failed");
+        return lua_error(L);
+    }
+    (*thread_env)->SetByteArrayRegion(thread_env, bytes, 0, (jsize)len, (const jbyte *)str);
+    luastate_obj_old = luastate_obj;
+    result = (*thread_env)->CallLongMethod(thread_env, javafunction, stringtolong_id, bytes);
+    luastate_obj = luastate_obj_old;
+    (*thread_env)->DeleteLocalRef(thread_env, bytes);
+    if (handlejavaexception(L, 0))
+    {
+        return lua_error(L);
+    }
+    lua_pushnumber(L, (lua_Number)result);
+    return 1;
+}
+
+/*
+ * Compact record of the Lua stack frames of an error. Each relevant frame is
+ * stored as [line] [name length] [name] [source length] [source] with jint
+ * fields in native byte order and a length of -1 for a missing string. The
+ * record is copied to Java as a single byte[]; LuaError decodes it into
+ * LuaStackTraceElement objects only when the trace is requested.
+ */
+typedef struct
+{
+    char *data;
+    size_t length;
+    size_t capacity;
+    char fixed[512];
+} FrameBuffer;
+static int addframedata(FrameBuffer *b, const void *p, size_t size)
+{
+    char *data;
+    size_t capacity;
+
+    if (b->length + size > b->capacity)
+    {
+        capacity = b->capacity << 1;
+        while (capacity < b->length + size)
+            capacity <<= 1;
+        if (!(data = (char *)(b->data == b->fixed ? malloc(capacity) : realloc(b->data, capacity))))
+            return 0;
+        if (b->data == b->fixed)
+            memcpy(data, b->fixed, b->length);
+        b->data = data;
+        b->capacity = capacity;
+    }
+    memcpy(b->data + b->length, p, size);
+    b->length += size;
+    return 1;
+}
+static int addframestring(FrameBuffer *b, const char *s)
+{
+    jint length = s ? (jint)strlen(s) : -1;
+
+    return addframedata(b, &length, sizeof(jint)) && (!s || addframedata(b, s, (size_t)length));
+}
+static int addframe(FrameBuffer *b, lua_Debug *ar)
+{
+    jint line = ar->currentline;
+    size_t length = b->length;
+
+    if (addframedata(b, &line, sizeof(jint)) && addframestring(b, ar->name) && addframestring(b, ar->source))
+        return 1;
+    b->length = length;
+    return 0;
+}
+
+/* Returns whether stack traces are captured for errors of the state, see lua_setstacktrace(). */
+static int isstacktraceenabled(lua_State *L)
+{
+    int enabled;
+
+    lua_pushlightuserdata(L, (void *)&REGISTRY_KEY_STACKTRACE);
+    lua_rawget(L, LUA_REGISTRYINDEX);
+    enabled = lua_isnil(L, -1);
+    lua_pop(L, 1);
+    return enabled;
+}
+
 /* Handles Lua errors. */
 static int messagehandler(lua_State *L)
 {
-    int level, count;
+    int level;
     lua_Debug ar;
-    jobjectArray luastacktrace;
-    jstring name, source;
-    jobject luastacktraceelement;
+    FrameBuffer buffer;
+    jbyteArray frames = NULL;
     jobject luaerror;
     jstring message;
 
-    /* Count relevant stack frames */
-    level = 1;
-    count = 0;
-    while (lua_getstack(L, level, &ar))
-    {
-        lua_getinfo(L, "nSl", &ar);
-        if (isrelevant(&ar))
-        {
-            count++;
-        }
-        level++;
-    }
     (*thread_env)->PushLocalFrame(thread_env, LOCALFRAME_MEDIUM);
-    /* Create Lua stack trace as a Java LuaStackTraceElement[] */
-    luastacktrace = (*thread_env)->NewObjectArray(thread_env, count, luastacktraceelement_class, NULL);
-    if (!luastacktrace)
+    /* Record the relevant stack frames in one pass; the Java trace is created on demand */
+    if (isstacktraceenabled(L))
     {
-        goto END;
-    }
-    level = 1;
-    count = 0;
-    while (lua_getstack(L, level, &ar))
-    {
-        lua_getinfo(L, "nSl", &ar);
-        if (isrelevant(&ar))
+        buffer.data = buffer.fixed;
+        buffer.length = 0;
+        buffer.capacity = sizeof(buffer.fixed);
+        for (level = 1; lua_getstack(L, level, &ar); level++)
         {
-            name = ar.name ? (*thread_env)->NewStringUTF(thread_env, ar.name) : NULL;
-            source = ar.source ? (*thread_env)->NewStringUTF(thread_env, ar.source) : NULL;
-            luastacktraceelement = (*thread_env)->NewObject(thread_env, luastacktraceelement_class, luastacktraceelement_id, name, source, ar.currentline);
-            if (!luastacktraceelement)
-            {
-                goto END;
-            }
-            (*thread_env)->SetObjectArrayElement(thread_env, luastacktrace, count, luastacktraceelement);
-            if ((*thread_env)->ExceptionCheck(thread_env))
+            lua_getinfo(L, "nSl", &ar);
+            if (isrelevant(&ar) && !addframe(&buffer, &ar))
             {
-                goto END;
+                break;
             }
-            count++;
         }
-        level++;
+        frames = (*thread_env)->NewByteArray(thread_env, (jsize)buffer.length);
+        if (frames)
+        {
+            (*thread_env)->SetByteArrayRegion(thread_env, frames, 0, (jsize)buffer.length, (jbyte *)buffer.data);
+        }
+        if (buffer.data != buffer.fixed)
+        {
+            free(buffer.data);
+        }
+        if (!frames)
+        {
+            goto END;
+        }
     }
 
     /* Get or create the error object  */
@@ -4946,7 +6732,7 @@ static int messagehandler(lua_State *L)
             goto END;
         }
     }
-    (*thread_env)->CallVoidMethod(thread_env, luaerror, setluastacktrace_id, luastacktrace);
+    (*thread_env)->CallVoidMethod(thread_env, luaerror, setluastackframes_id, frames);
     handlejavaexception(L, 3);
     /* Replace error */
     pushjavaobject(L, luaerror, "com.naef.jnlua.LuaError", 1);
@@ -4984,11 +6770,18 @@ static int throw_protected(lua_State *L)
     jmethodID id;
     jthrowable throwable;
     jobject luaerror;
+    LuaBudget *budget;
 
     /* Determine the type of exception to throw. */
     switch (throw_status)
     {
     case LUA_ERRRUN:
+        if ((budget = getbudget(L)) && budget->exceeded)
+        {
+            class = luabudgetexceededexception_class;
+            id = luabudgetexceededexception_id;
+            break;
+        }
         class = luaruntimeexception_class;
         id = luaruntimeexception_id;
         break;
@@ -5023,7 +6816,7 @@ static int throw_protected(lua_State *L)
 
     /* Set the Lua error, if any. */
     luaerror = tojavaobject(L, 1, luaerror_class);
-    if (luaerror && class == luaruntimeexception_class)
+    if (luaerror && (class == luaruntimeexception_class || class == luabudgetexceededexception_class))
     {
         (*thread_env)->CallVoidMethod(thread_env, throwable, setluaerror_id, luaerror);
         handlejavaexception(L, 3);
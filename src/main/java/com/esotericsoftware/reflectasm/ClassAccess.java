@@ -1,6 +1,8 @@
 package com.esotericsoftware.reflectasm;
 
 import com.esotericsoftware.reflectasm.util.AsmUtil;
+import com.esotericsoftware.reflectasm.util.BoundedCache;
+import com.esotericsoftware.reflectasm.util.ClassCache;
 import com.esotericsoftware.reflectasm.util.NumberUtils;
 import jdk.internal.org.objectweb.asm.*;
 import jdk.internal.org.objectweb.asm.Type;
@@ -13,7 +15,8 @@ import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.reflect.*;
 import java.util.*;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 import static com.esotericsoftware.reflectasm.util.NumberUtils.convert;
 import static com.esotericsoftware.reflectasm.util.NumberUtils.getDistance;
@@ -42,19 +45,34 @@ public class ClassAccess<ANY> implements Accessor<ANY> {
     public final static String GETTER = "get";
     public final static String METHOD = "method";
     public final static String ACCESS_CLASS_PREFIX = "asm.";
+    /**
+     * @deprecated The caches are always safe for concurrent use; this flag has no effect.
+     */
+    @Deprecated
     public static boolean IS_SINGLE_THREAD_MODE = false;
     public static boolean IS_CACHED = true;
     public static boolean IS_STRICT_CONVERT = false;
     public static boolean IS_DEBUG = false;
     public static boolean IS_INCLUDE_NON_PUBLIC = true;
-    public static int totalAccesses = 0;
-    public static int cacheHits = 0;
-    public static int loaderHits = 0;
-    static HashMap<Object, Object>[] caches = new HashMap[HASH_BUCKETS];
+    /**
+     * Number of accessors that were loaded from an already defined access class instead of being generated
+     */
+    public static final LongAdder LOADER_HITS = new LongAdder();
+    /**
+     * Class -> ClassAccess, released when the class is unloaded
+     */
+    public static final ClassCache<ClassAccess> ACCESS_CACHE = ClassCache.of(type -> build(type));
+    /**
+     * Method signature -> distance * 10000 + method index, see {@link #indexOfMethod(Class, String, Integer[], Class[])}
+     */
+    public static final BoundedCache<Long, Integer> SIGNATURE_CACHE = new BoundedCache<>(Integer.valueOf(System.getProperty("reflectasm.signature_cache_size", "65536")));
+    /**
+     * Values stored with {@link #writeCache(Class, String, Object)}, released when the class is unloaded
+     */
+    public static final ClassCache<Map<String, Object>> VALUE_CACHE = ClassCache.of(type -> new ConcurrentHashMap<>());
     static final String thisPath = Type.getInternalName(ClassAccess.class);
     static final String accessorPath = Type.getInternalName(Accessor.class);
     static final String classInfoPath = Type.getInternalName(ClassInfo.class);
-    static ReentrantReadWriteLock[] locks = new ReentrantReadWriteLock[HASH_BUCKETS];
     public static final MethodHandles.Lookup lookup = MethodHandles.lookup();
     public HandleWrapper[][] methodHandles;
     public static Field methodWriterCodeField = null;
@@ -76,8 +94,6 @@ public class ClassAccess<ANY> implements Accessor<ANY> {
 
         if (System.getProperty("reflectasm.is_cache", "true").equalsIgnoreCase("false")) {
             IS_CACHED = false;
-        } else for (int i = 0; i < HASH_BUCKETS; i++) {
-            caches[i] = new HashMap<>(HASH_BUCKETS);
         }
         if (System.getProperty("reflectasm.is_debug", "false").equalsIgnoreCase("true")) {
             IS_DEBUG = true;
@@ -85,9 +101,6 @@ public class ClassAccess<ANY> implements Accessor<ANY> {
         if (System.getProperty("reflectasm.is_strict_convert", "false").equalsIgnoreCase("true")) {
             IS_STRICT_CONVERT = true;
         }
-        for (int i = 0; i < HASH_BUCKETS; i++) {
-            locks[i] = new ReentrantReadWriteLock();
-        }
     }
 
     public final Accessor<ANY> accessor;
@@ -113,62 +126,14 @@ public class ClassAccess<ANY> implements Accessor<ANY> {
         return Math.abs(clz.getName().hashCode()) % HASH_BUCKETS;
     }
 
-    public final static void lock(int bucket, String mode, boolean isEnable) {
-        if (IS_SINGLE_THREAD_MODE) return;
-        if (mode.equals("read")) {
-            if (isEnable) locks[bucket].readLock().lock();
-            else locks[bucket].readLock().unlock();
-        } else {
-            if (isEnable) locks[bucket].writeLock().lock();
-            else locks[bucket].writeLock().unlock();
-        }
-    }
-
     public final static Object readCache(Class<?> clz, String key) {
-        int bucket = getBucket(clz);
-        // Optimize: Use a composite key object to avoid string concatenation
-        Object cacheKey = key == null ? clz : new Object() {
-            private final Class<?> c = clz;
-            private final String k = key;
-
-            @Override
-            public int hashCode() {
-                return c.hashCode() * 31 + (k != null ? k.hashCode() : 0);
-            }
-
-            @Override
-            public boolean equals(Object obj) {
-                if (this == obj) return true;
-                if (!(obj instanceof Object)) return false;
-                // Safe cast for comparison
-                try {
-                    java.lang.reflect.Field cf = obj.getClass().getDeclaredField("c");
-                    java.lang.reflect.Field kf = obj.getClass().getDeclaredField("k");
-                    cf.setAccessible(true);
-                    kf.setAccessible(true);
-                    return c.equals(cf.get(obj)) && (k != null ? k.equals(kf.get(obj)) : kf.get(obj) == null);
-                } catch (Exception e) {
-                    return false;
-                }
-            }
-        };
-        lock(bucket, "read", true);
-        try {
-            return caches[bucket].get(cacheKey);
-        } finally {
-            lock(bucket, "read", false);
-        }
+        return VALUE_CACHE.get(clz).get(key == null ? "" : key);
     }
 
     public final static void writeCache(Class<?> clz, String key, Object value) {
-        int bucket = getBucket(clz);
-        String k = clz.getName() + "." + key;
-        lock(bucket, "write", true);
-        try {
-            caches[bucket].put(k, value);
-        } finally {
-            lock(bucket, "write", false);
-        }
+        final Map<String, Object> values = VALUE_CACHE.get(clz);
+        if (value == null) values.remove(key == null ? "" : key);
+        else values.put(key == null ? "" : key, value);
     }
 
     public static int activeAccessClassLoaders() {
@@ -207,60 +172,33 @@ public class ClassAccess<ANY> implements Accessor<ANY> {
     public static <ANY> ClassAccess access(Class<ANY> type, String... dumpFile) {
         if (type.isArray())
             throw new IllegalArgumentException(String.format("Input class '%s' cannot be an array!", type.getCanonicalName()));
+        reset();
+        if (IS_CACHED && dumpFile.length == 0) return ACCESS_CACHE.get(type);
+        return build(type, dumpFile);
+    }
+
+    private static <ANY> ClassAccess build(Class<ANY> type, String... dumpFile) {
         String className = type.getName();
         final String accessClassName = (className.startsWith("java.") ? ACCESS_CLASS_PREFIX + className : className + "_asm").replace("$", "");
-        final String source = String.valueOf(type.getResource(""));
         Class<ANY> accessClass = null;
         Accessor<ANY> accessor;
-        byte[] bytes = null;
+        byte[] bytes;
         ClassInfo<ANY> info = null;
-        ClassAccess<ANY> self;
         int bucket = getBucket(type);
-        AccessClassLoader loader = null;
-        ++totalAccesses;
-        int lockFlag = 0;
-        reset();
-        try {
-            lock(bucket, "write", true);
-            lockFlag |= 2;
-            /*Cache: className={Class,classResourcePath,ClassAccess(),byte[]}*/
-            if (IS_CACHED) {
-                Object cachedObject = caches[bucket].get(className);
-                if (cachedObject != null) {
-                    Object[] cache = (Object[]) cachedObject;
-                    //Class equals then directly return from cache
-                    if (type == cache[0]) {
-                        ++cacheHits;
-                        self = (ClassAccess<ANY>) cache[2];
-                        return self;
-                    }
-                    //Else if resources are equal then load from pre-built bytes
-                    if (cache[3] != null) {
-                        if (cache[1] == null && source == null || cache[1].equals(source)) {
-                            bytes = (byte[]) cache[3];
-                            ++loaderHits;
-                        }
-                    }
-                }
-            } else {
-                loader = AccessClassLoader.get(type);
+        final AccessClassLoader loader = AccessClassLoader.get(type);
+        //Only one thread per class loader may define the access class
+        synchronized (loader) {
+            try {
+                //The access class may already be defined, e.g. by an uncached or dumping access
                 try {
                     accessClass = (Class<ANY>) loader.loadClass(accessClassName);
-                } catch (ClassNotFoundException ignore1) {
-                    synchronized (loader) {
-                        try {
-                            accessClass = (Class<ANY>) loader.loadClass(accessClassName);
-                        } catch (ClassNotFoundException ignore2) {
-                        }
-                    }
+                } catch (ClassNotFoundException ignore) {
                 }
                 if (accessClass != null) {
-                    ++loaderHits;
+                    LOADER_HITS.increment();
                     return new ClassAccess((Accessor) accessClass.newInstance());
                 }
-            }
 
-            if (bytes == null) {//Otherwise rebuild the bytes
                 ArrayList<Method> methods = new ArrayList<Method>();
                 ArrayList<Constructor<?>> constructors = new ArrayList<Constructor<?>>();
                 ArrayList<Field> fields = new ArrayList<Field>();
@@ -330,37 +268,32 @@ public class ClassAccess<ANY> implements Accessor<ANY> {
                 int position = className.lastIndexOf('$');
                 info.isNonStaticMemberClass = position > 0 && classNameInternal.substring(position).indexOf('/') == -1 && !Modifier.isStatic(type.getModifiers());
                 bytes = byteCode(info, accessClassNameInternal, classNameInternal);
-            }
-            if (dumpFile.length > 0) try {
-                File f = new File(dumpFile[0]);
-                if (!f.exists()) {
-                    if (!dumpFile[0].endsWith(".class")) f.createNewFile();
-                    else f.mkdir();
-                }
-                if (f.isDirectory()) f = new File(f.getCanonicalPath() + File.separator + accessClassName + ".class");
-                try (FileOutputStream writer = new FileOutputStream(f)) {
-                    writer.write(bytes);
-                    writer.flush();
-                    System.out.println("Class saved to " + f.getCanonicalPath());
+                if (dumpFile.length > 0) try {
+                    File f = new File(dumpFile[0]);
+                    if (!f.exists()) {
+                        if (!dumpFile[0].endsWith(".class")) f.createNewFile();
+                        else f.mkdir();
+                    }
+                    if (f.isDirectory()) f = new File(f.getCanonicalPath() + File.separator + accessClassName + ".class");
+                    try (FileOutputStream writer = new FileOutputStream(f)) {
+                        writer.write(bytes);
+                        writer.flush();
+                        System.out.println("Class saved to " + f.getCanonicalPath());
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
                 }
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
 
-            if (loader == null) loader = AccessClassLoader.get(type);
-            if (IS_DEBUG) CheckClassAdapter.verify(new ClassReader(bytes), loader, false, new PrintWriter(System.out));
-            accessClass = (Class<ANY>) loader.defineClass(accessClassName, bytes, type);
-            accessor = (Accessor) accessClass.newInstance();
-            self = new ClassAccess(accessor);
-            if (IS_CACHED) {
-                caches[bucket].put(className, new Object[]{type, source, self, bytes});
+                if (IS_DEBUG) CheckClassAdapter.verify(new ClassReader(bytes), loader, false, new PrintWriter(System.out));
+                accessClass = (Class<ANY>) loader.defineClass(accessClassName, bytes, type);
+                accessor = (Accessor) accessClass.newInstance();
+                return new ClassAccess(accessor);
+            } catch (Exception ex) {
+                throw new RuntimeException("Error constructing method access class: " + accessClassName + ": " + ex.getMessage(), ex);
+            } finally {
+                //The access class holds its ClassInfo once initialized
+                if (info != null) Handles.removeInfo(info.id);
             }
-            return self;
-        } catch (Exception ex) {
-            throw new RuntimeException("Error constructing method access class: " + accessClassName + ": " + ex.getMessage(), ex);
-        } finally {
-            if ((lockFlag & 2) > 0) lock(bucket, "write", false);
-            if ((lockFlag & 1) > 0) lock(bucket, "read", false);
         }
     }
 
@@ -1117,107 +1050,88 @@ public class ClassAccess<ANY> implements Accessor<ANY> {
             paramTypes = classInfo.methodParamTypes;
             modifiers = classInfo.methodModifiers;
         }
-        final int bucket = classInfo.bucket;
-        int lockFlag = 0;
-        try {
-            if (IS_CACHED) {
-                signature = getSignature(clz, methodName, argTypes);
-                lock(bucket, "read", true);
-                lockFlag |= 1;
-                Integer targetIndex = (Integer) caches[bucket].get(signature);
-                lock(bucket, "read", false);
-                lockFlag ^= 1;
-                if (targetIndex != null) {
-                    minDistance = targetIndex / 10000;
-                    targetIndex = targetIndex % 10000;
-                    if (10000 - targetIndex == 1) result = -2;
-                    else for (int index : candidates)
-                        if (index == targetIndex) result = index;
-                }
+        if (IS_CACHED) {
+            signature = getSignature(clz, methodName, argTypes);
+            Integer targetIndex = SIGNATURE_CACHE.get(signature);
+            if (targetIndex != null) {
+                minDistance = targetIndex / 10000;
+                targetIndex = targetIndex % 10000;
+                if (10000 - targetIndex == 1) result = -2;
+                else for (int index : candidates)
+                    if (index == targetIndex) result = index;
+            }
+        }
+        final int argCount = argTypes.length;
+        int[] distances = new int[0];
+        if (result == -1) for (int index : candidates) {
+            int min = 10;
+            int[] val = new int[argCount + 1];
+            if (Arrays.equals(argTypes, paramTypes[index])) {
+                if (IS_CACHED) SIGNATURE_CACHE.put(signature, Integer.valueOf(index + 50000));
+                return index;
+            }
+            int thisDistance = 0;
+            final int paramCount = paramTypes[index].length;
+            final int last = paramCount - 1;
+            final Class<?> lastClass = last < 0 ? null : paramTypes[index][last];
+            final boolean isVarArgs = isVarArgs(modifiers[index]) || (lastClass != null && lastClass.isArray() && argCount > last);
+            for (int i = 0, n = Math.min(argCount, paramCount); i < n; i++) {
+                if (i == last && isVarArgs) break;
+                val[i] = IS_STRICT_CONVERT ? 10 : NumberUtils.getDistance(argTypes[i], paramTypes[index][i]);
+                min = Math.min(val[i], min);
+                thisDistance += stepSize + val[i];
             }
-            final int argCount = argTypes.length;
-            int[] distances = new int[0];
-            if (result == -1) for (int index : candidates) {
-                int min = 10;
-                int[] val = new int[argCount + 1];
-                if (Arrays.equals(argTypes, paramTypes[index])) {
-                    if (IS_CACHED) {
-                        lock(bucket, "write", true);
-                        lockFlag |= 2;
-                        caches[bucket].put(signature, Integer.valueOf(index + 50000));
-                    }
-                    return index;
-                }
-                int thisDistance = 0;
-                final int paramCount = paramTypes[index].length;
-                final int last = paramCount - 1;
-                final Class<?> lastClass = last < 0 ? null : paramTypes[index][last];
-                final boolean isVarArgs = isVarArgs(modifiers[index]) || (lastClass != null && lastClass.isArray() && argCount > last);
-                for (int i = 0, n = Math.min(argCount, paramCount); i < n; i++) {
-                    if (i == last && isVarArgs) break;
-                    val[i] = IS_STRICT_CONVERT ? 10 : NumberUtils.getDistance(argTypes[i], paramTypes[index][i]);
-                    min = Math.min(val[i], min);
-                    thisDistance += stepSize + val[i];
-                }
 
-                if (argCount > last && isVarArgs) {
-                    if (!IS_STRICT_CONVERT) {
-                        final Class<?> arrayType = paramTypes[index][last].getComponentType();
-                        int sum = 0;
-                        for (int i = last; i < argCount; i++) {
-                            thisDistance += stepSize;
-                            val[i] = Math.max(getDistance(argTypes[i], arrayType), getDistance(argTypes[i], paramTypes[index][last]));
-                            min = Math.min(min, val[i]);
-                            if (val[i] <= 0) sum = -stepSize;
-                            else sum += val[i];
-                        }
-                        thisDistance += sum;
-                    }
-                } else if (paramCount != argCount) {
-                    final boolean isVar = isVarArgs(modifiers[index]);
-                    if (isVar && (paramCount == argCount + 1 || argCount > paramCount)) {
-                        thisDistance -= 1;
-                    } else {
-                        int penalty = ((Math.abs(paramCount - argCount) - (isVar ? 1 : 0)) * (isVar ? 1 : 2)) * stepSize / (argCount > paramCount ? 2 : 1);
-                        thisDistance -= penalty;
+            if (argCount > last && isVarArgs) {
+                if (!IS_STRICT_CONVERT) {
+                    final Class<?> arrayType = paramTypes[index][last].getComponentType();
+                    int sum = 0;
+                    for (int i = last; i < argCount; i++) {
+                        thisDistance += stepSize;
+                        val[i] = Math.max(getDistance(argTypes[i], arrayType), getDistance(argTypes[i], paramTypes[index][last]));
+                        min = Math.min(min, val[i]);
+                        if (val[i] <= 0) sum = -stepSize;
+                        else sum += val[i];
                     }
+                    thisDistance += sum;
                 }
-                if (thisDistance > distance) {
-                    distance = thisDistance;
-                    distances = val;
-                    result = index;
-                    minDistance = min;
+            } else if (paramCount != argCount) {
+                final boolean isVar = isVarArgs(modifiers[index]);
+                if (isVar && (paramCount == argCount + 1 || argCount > paramCount)) {
+                    thisDistance -= 1;
+                } else {
+                    int penalty = ((Math.abs(paramCount - argCount) - (isVar ? 1 : 0)) * (isVar ? 1 : 2)) * stepSize / (argCount > paramCount ? 2 : 1);
+                    thisDistance -= penalty;
                 }
             }
-            if (result < -1) result = -1;
-            if (IS_CACHED) {
-                lock(bucket, "write", true);
-                lockFlag |= 2;
-                caches[bucket].put(signature, Integer.valueOf(minDistance * 10000 + result));
+            if (thisDistance > distance) {
+                distance = thisDistance;
+                distances = val;
+                result = index;
+                minDistance = min;
             }
-            if (result >= 0 && argCount == 0 && paramTypes[result].length == 0) return result;
-            if (result < 0 || minDistance == 0 //
-                    || (argCount < paramTypes[result].length && !isVarArgs(modifiers[result])) //
-                    || (isVarArgs(modifiers[result]) && argCount < paramTypes[result].length - 1)) {
-                String str = "Unable to apply " + (methodName.equals(NEW) ? "constructor" : METHOD) + ":\n    " + typesToString(methodName, argTypes) //
-                        + (result == -1 ? "" : "\n => " + typesToString(methodName, paramTypes[result]));
-                if (IS_DEBUG && result >= 0) {
-                    System.out.println(String.format("Method=%s, Index=%d, isVarArgs=%s, MinDistance=%d%s", methodName, result, isVarArgs(modifiers[result]) + "(" + modifiers[result] + ")", minDistance, Arrays.toString(distances)));
-                    for (int i = 0; i < Math.max(argCount, paramTypes[result].length); i++) {
-                        int flag = i >= argCount ? 1 : i >= paramTypes[result].length ? 2 : 0;
-                        System.out.println(String.format("Parameter#%2d: %20s -> %-20s : %2d",//
-                                i, flag == 1 ? "N/A" : argTypes[i] == null ? "null" : argTypes[i].getSimpleName(),//
-                                flag == 2 ? "N/A" : paramTypes[result][i] == null ? "null" : paramTypes[result][i].getSimpleName(),//
-                                flag > 0 ? -1 : distances[i]));
-                    }
+        }
+        if (result < -1) result = -1;
+        if (IS_CACHED) SIGNATURE_CACHE.put(signature, Integer.valueOf(minDistance * 10000 + result));
+        if (result >= 0 && argCount == 0 && paramTypes[result].length == 0) return result;
+        if (result < 0 || minDistance == 0 //
+                || (argCount < paramTypes[result].length && !isVarArgs(modifiers[result])) //
+                || (isVarArgs(modifiers[result]) && argCount < paramTypes[result].length - 1)) {
+            String str = "Unable to apply " + (methodName.equals(NEW) ? "constructor" : METHOD) + ":\n    " + typesToString(methodName, argTypes) //
+                    + (result == -1 ? "" : "\n => " + typesToString(methodName, paramTypes[result]));
+            if (IS_DEBUG && result >= 0) {
+                System.out.println(String.format("Method=%s, Index=%d, isVarArgs=%s, MinDistance=%d%s", methodName, result, isVarArgs(modifiers[result]) + "(" + modifiers[result] + ")", minDistance, Arrays.toString(distances)));
+                for (int i = 0; i < Math.max(argCount, paramTypes[result].length); i++) {
+                    int flag = i >= argCount ? 1 : i >= paramTypes[result].length ? 2 : 0;
+                    System.out.println(String.format("Parameter#%2d: %20s -> %-20s : %2d",//
+                            i, flag == 1 ? "N/A" : argTypes[i] == null ? "null" : argTypes[i].getSimpleName(),//
+                            flag == 2 ? "N/A" : paramTypes[result][i] == null ? "null" : paramTypes[result][i].getSimpleName(),//
+                            flag > 0 ? -1 : distances[i]));
                 }
-                throw new IllegalArgumentException(str);
             }
-            return result;
-        } finally {
-            if ((lockFlag & 2) > 0) lock(bucket, "write", false);
-            if ((lockFlag & 1) > 0) lock(bucket, "read", false);
+            throw new IllegalArgumentException(str);
         }
+        return result;
     }
 
     /**
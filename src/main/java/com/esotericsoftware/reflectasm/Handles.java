@@ -1,5 +1,7 @@
 package com.esotericsoftware.reflectasm;
 
+import com.esotericsoftware.reflectasm.util.ClassCache;
+
 import java.lang.invoke.MethodHandle;
 import java.util.HashMap;
 import java.util.Map;
@@ -18,12 +20,16 @@ import java.util.concurrent.atomic.AtomicInteger;
  * }
  * }</pre></blockquote>
  * <p>
- * The id comes from an LDC instruction.
+ * The id comes from an LDC instruction. Entries are only kept until the
+ * generated class has been initialized, so they do not pin any class.
  */
 public class Handles {
     private static final Map<Integer, MethodHandle> HANDLES = new ConcurrentHashMap<>();
     private static final Map<Integer, ClassInfo> CLASSES = new ConcurrentHashMap<>();
-    public static final Map<String, HandleWrapper> CACHES = new HashMap<>();
+    /**
+     * Owner class -> wrapper class name -> wrapper, released when the owner class is unloaded
+     */
+    public static final ClassCache<Map<String, HandleWrapper>> CACHES = ClassCache.of(type -> new HashMap<>());
 
     private Handles() {
         throw new AssertionError();
@@ -64,8 +70,19 @@ public class Handles {
         return CLASSES.get(id);
     }
 
+    static void removeInfo(int id) {
+        CLASSES.remove(id);
+    }
+
     static void del(int id) {
         HANDLES.remove(id);
     }
 
+    /**
+     * Returns the number of MethodHandles and ClassInfos waiting for their generated class to be initialized.
+     */
+    public static int pendingCount() {
+        return HANDLES.size() + CLASSES.size();
+    }
+
 }
@@ -16,6 +16,7 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.Map;
 
 import static com.esotericsoftware.reflectasm.ClassAccess.IS_DEBUG;
 import static jdk.internal.org.objectweb.asm.Opcodes.*;
@@ -143,13 +144,14 @@ public class WrapperFactory {
         Handles.add(id, handle);
 
         try {
-            synchronized (Handles.CACHES) {
-                HandleWrapper wrapper = Handles.CACHES.get(name);
+            final Map<String, HandleWrapper> wrappers = Handles.CACHES.get(owner);
+            synchronized (wrappers) {
+                HandleWrapper wrapper = wrappers.get(name);
                 if (wrapper == null) {
                     AccessClassLoader loader = AccessClassLoader.get(owner);
                     Class<?> wrapperClass = loader.defineClass(name, cw.toByteArray(), owner);
                     wrapper = (HandleWrapper) wrapperClass.newInstance();
-                    Handles.CACHES.put(name, wrapper);
+                    wrappers.put(name, wrapper);
                     if (IS_DEBUG) {
                         File f = new File(".");
                         if (!f.exists()) {
@@ -0,0 +1,106 @@
+package com.esotericsoftware.reflectasm.util;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe cache with a maximum size.
+ * <p>
+ * Reads and writes go to a {@link ConcurrentHashMap} without further locking. When an insertion takes the cache
+ * over its maximum size, entries are evicted in the iteration order of the map, which is effectively arbitrary;
+ * evicted entries are simply computed again on the next miss. Hits, misses and evictions are counted with
+ * {@link LongAdder}s, so the counters stay accurate under contention.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public final class BoundedCache<K, V> {
+    private final ConcurrentHashMap<K, V> map;
+    private final int maxSize;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxSize the maximum number of entries
+     */
+    public BoundedCache(int maxSize) {
+        if (maxSize <= 0) throw new IllegalArgumentException("Maximum size must be larger than zero.");
+        this.maxSize = maxSize;
+        this.map = new ConcurrentHashMap<>(Math.min(maxSize, 256));
+    }
+
+    /**
+     * Returns the cached value and counts a hit or a miss.
+     */
+    public V get(K key) {
+        final V value = map.get(key);
+        if (value != null) hits.increment();
+        else misses.increment();
+        return value;
+    }
+
+    /**
+     * Returns the cached value without counting.
+     */
+    public V peek(K key) {
+        return map.get(key);
+    }
+
+    /**
+     * Caches a value, evicting other entries if the cache exceeds its maximum size.
+     */
+    public void put(K key, V value) {
+        if (map.put(key, value) == null && map.size() > maxSize) {
+            final Iterator<K> it = map.keySet().iterator();
+            while (map.size() > maxSize && it.hasNext()) {
+                final K evicted = it.next();
+                if (!evicted.equals(key) && map.remove(evicted) != null) evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Removes all entries. The counters are kept.
+     */
+    public void clear() {
+        map.clear();
+    }
+
+    /**
+     * Resets the hit, miss and eviction counters.
+     */
+    public void resetStats() {
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("size=%d/%d, hits=%d, misses=%d, evictions=%d", size(), maxSize, getHitCount(), getMissCount(), getEvictionCount());
+    }
+}
@@ -0,0 +1,132 @@
+package com.esotericsoftware.reflectasm.util;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A per-class cache that does not keep classes from being unloaded.
+ * <p>
+ * Values are attached to their class with a {@link ClassValue}, so an entry is reclaimed together with its class and
+ * class loader. Values may therefore reference the class itself, e.g. generated accessors. The cached classes are also
+ * tracked with weak references, which gives the number of live entries.
+ *
+ * @param <V> the value type
+ */
+public abstract class ClassCache<V> {
+    private final ClassValue<Entry<V>> values = new ClassValue<Entry<V>>() {
+        @Override
+        protected Entry<V> computeValue(Class<?> type) {
+            misses.increment();
+            return new Entry<>(ClassCache.this.computeValue(type));
+        }
+    };
+    private final ReferenceQueue<Class<?>> queue = new ReferenceQueue<>();
+    private final Set<Reference<Class<?>>> classes = ConcurrentHashMap.newKeySet();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final boolean isCountingHits;
+
+    private static final class Entry<V> {
+        private final V value;
+        private volatile boolean isTracked;
+
+        private Entry(V value) {
+            this.value = value;
+        }
+    }
+
+    protected ClassCache() {
+        this(true);
+    }
+
+    /**
+     * @param isCountingHits false to skip the hit counter on hot paths
+     */
+    protected ClassCache(boolean isCountingHits) {
+        this.isCountingHits = isCountingHits;
+    }
+
+    /**
+     * Computes the value of a class on its first lookup.
+     */
+    protected abstract V computeValue(Class<?> type);
+
+    /**
+     * Returns the value of a class, computing it if necessary.
+     */
+    public final V get(Class<?> type) {
+        final Entry<V> entry = values.get(type);
+        if (!entry.isTracked) track(type, entry);
+        else if (isCountingHits) hits.increment();
+        return entry.value;
+    }
+
+    private void track(Class<?> type, Entry<V> entry) {
+        synchronized (entry) {
+            if (entry.isTracked) return;
+            entry.isTracked = true;
+        }
+        expunge();
+        classes.add(new WeakReference<Class<?>>(type, queue));
+    }
+
+    private void expunge() {
+        Reference<?> ref;
+        while ((ref = queue.poll()) != null) classes.remove(ref);
+    }
+
+    /**
+     * Returns the number of classes with a value that have not been unloaded yet.
+     */
+    public final int size() {
+        expunge();
+        return classes.size();
+    }
+
+    public final long getHitCount() {
+        return hits.sum();
+    }
+
+    public final long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Resets the hit and miss counters.
+     */
+    public final void resetStats() {
+        hits.reset();
+        misses.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("live=%d, hits=%d, misses=%d", size(), getHitCount(), getMissCount());
+    }
+
+    /**
+     * Creates a cache whose values are computed by the given function.
+     */
+    public static <V> ClassCache<V> of(final Function<Class<?>, V> factory) {
+        return of(factory, true);
+    }
+
+    /**
+     * Creates a cache whose values are computed by the given function.
+     *
+     * @param isCountingHits false to skip the hit counter on hot paths
+     */
+    public static <V> ClassCache<V> of(final Function<Class<?>, V> factory, boolean isCountingHits) {
+        return new ClassCache<V>(isCountingHits) {
+            @Override
+            protected V computeValue(Class<?> type) {
+                return factory.apply(type);
+            }
+        };
+    }
+}
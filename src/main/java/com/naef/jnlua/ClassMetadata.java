@@ -0,0 +1,124 @@
+package com.naef.jnlua;
+
+import com.esotericsoftware.reflectasm.ClassAccess;
+import com.esotericsoftware.reflectasm.util.ClassCache;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Per-class metadata used on the push and <code>__index</code> paths.
+ * <p/>
+ * <p>
+ * The metadata is attached to its class with a <code>ClassValue</code>, so a
+ * lookup is a field read and is released when the class is unloaded. It holds
+ * the class name, its UTF-8 bytes for JNI, the lazily created
+ * {@link ClassAccess} and the {@link Invoker}s of the accessed members.
+ * </p>
+ * <p>
+ * The Invokers are stored in an open-addressing table of alternating keys and
+ * values. Readers probe the current table without locking or allocation;
+ * writers are synchronized and publish a new copy of the table, so readers
+ * never observe a partially initialized Invoker.
+ * </p>
+ */
+final class ClassMetadata {
+    // -- Static
+    private static final int INITIAL_CAPACITY = 16;
+    private static final Object[] EMPTY_TABLE = new Object[INITIAL_CAPACITY * 2];
+    private static final ClassCache<ClassMetadata> METADATA = ClassCache.of(ClassMetadata::new, false);
+
+    // -- State
+    final Class<?> type;
+    final String name;
+    /**
+     * UTF-8 bytes of the class name.
+     */
+    final byte[] nameBytes;
+    private volatile ClassAccess<?> access;
+    private volatile Object[] invokers = EMPTY_TABLE;
+    private int invokerCount;
+
+    // -- Construction
+    private ClassMetadata(Class<?> type) {
+        this.type = type;
+        // Prefer getCanonicalName(), fallback to getName()
+        final String canonicalName = type.getCanonicalName();
+        this.name = canonicalName != null ? canonicalName : type.getName();
+        this.nameBytes = name.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the metadata of a class.
+     */
+    static ClassMetadata of(Class<?> type) {
+        return METADATA.get(type);
+    }
+
+    /**
+     * Returns the number of classes with metadata that have not been unloaded
+     * yet.
+     */
+    static int liveCount() {
+        return METADATA.size();
+    }
+
+    // -- Properties
+
+    /**
+     * Returns the ClassAccess of the class, creating it on first use.
+     */
+    ClassAccess<?> getAccess() {
+        ClassAccess<?> result = access;
+        if (result == null) access = result = ClassAccess.access(type);
+        return result;
+    }
+
+    // -- Invokers
+
+    /**
+     * Returns the cached Invoker of a member, or <code>null</code> if none has
+     * been cached yet.
+     */
+    Invoker getInvoker(String member) {
+        final Object[] table = invokers;
+        final int mask = (table.length >> 1) - 1;
+        for (int i = hash(member) & mask; ; i = (i + 1) & mask) {
+            final Object key = table[i << 1];
+            if (key == null) return null;
+            if (key == member || key.equals(member)) return (Invoker) table[(i << 1) + 1];
+        }
+    }
+
+    /**
+     * Caches the Invoker of a member and returns the Invoker that is cached
+     * after the call, which is an existing one if another thread won the race.
+     */
+    synchronized Invoker putInvoker(String member, Invoker invoker) {
+        final Invoker existing = getInvoker(member);
+        if (existing != null) return existing;
+        final Object[] table = invokers;
+        // Keep the load factor at or below 1/2 so that probes stay short
+        final int capacity = (invokerCount + 1) * 2 > table.length >> 1 ? table.length : table.length >> 1;
+        final Object[] newTable = new Object[capacity << 1];
+        for (int i = 0; i < table.length; i += 2) {
+            if (table[i] != null) insert(newTable, (String) table[i], table[i + 1]);
+        }
+        insert(newTable, member, invoker);
+        invokerCount++;
+        invokers = newTable;
+        return invoker;
+    }
+
+    private static void insert(Object[] table, String key, Object value) {
+        final int mask = (table.length >> 1) - 1;
+        int i = hash(key) & mask;
+        while (table[i << 1] != null) i = (i + 1) & mask;
+        table[i << 1] = key;
+        table[(i << 1) + 1] = value;
+    }
+
+    private static int hash(String key) {
+        final int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+}
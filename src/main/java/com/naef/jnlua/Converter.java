@@ -11,6 +11,7 @@ import java.lang.reflect.Array;
 import java.lang.reflect.Modifier;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -241,12 +242,24 @@ final class Converter {
         JAVA_OBJECT_CONVERTERS.put(String.class, stringConverter);
         final JavaObjectConverter<LuaTable> arrayConverter = new JavaObjectConverter<LuaTable>() {
             void toLua(LuaState luaState, Object o) {
-                if (o instanceof Object[]) {
+                if (o instanceof byte[][]) {
+                    luaState.pushArray((byte[][]) o);
+                } else if (o instanceof Object[]) {
                     convertArray(luaState, (Object[]) o);
                 } else if (o instanceof List) {
                     convertArray(luaState, ((List<?>) o).toArray());
                 } else if (o instanceof Map) {
                     convertMap(luaState, (Map<?, ?>) o);
+                } else if (o instanceof double[]) {
+                    luaState.pushArray((double[]) o);
+                } else if (o instanceof int[]) {
+                    luaState.pushArray((int[]) o);
+                } else if (o instanceof long[]) {
+                    luaState.pushArray((long[]) o);
+                } else if (o instanceof float[]) {
+                    luaState.pushArray((float[]) o);
+                } else if (o instanceof boolean[]) {
+                    luaState.pushArray((boolean[]) o);
                 } else {
                     luaState.getConverter().convertJavaObject(luaState, o);
                 }
@@ -619,9 +632,35 @@ final class Converter {
     }
 
     public final boolean getLuaValues(LuaState L, boolean skipLoadTable, Object[] args, byte[] argTypes, Object[] params, LuaType[] types, Class<?> returnClass) {
+        return getLuaValues(L, skipLoadTable, args, argTypes, null, params, types, returnClass);
+    }
+
+    /**
+     * Decodes the arguments passed from the JNI side. Arguments flagged in the mask of the direct
+     * buffer are read from their 8-byte slot instead of <code>args</code>.
+     *
+     * @param direct the direct argument buffer of the Lua state, or <code>null</code>
+     */
+    public final boolean getLuaValues(LuaState L, boolean skipLoadTable, Object[] args, byte[] argTypes, ByteBuffer direct, Object[] params, LuaType[] types, Class<?> returnClass) {
         boolean hasTable = false;
+        final int mask = direct == null || types.length == 0 || direct.getInt(LuaState.PARAM_BUFFER_ENABLED) == 0 ? 0 : direct.getInt(LuaState.PARAM_BUFFER_MASK);
         for (int i = 0; i < types.length; i++) {
             types[i] = LuaType.get(argTypes[i]);
+            if (mask != 0 && i < 32 && (mask & (1 << i)) != 0) {
+                final long slot = direct.getLong(i << 3);
+                switch (types[i]) {
+                    case NUMBER:
+                        params[i] = toNumber(Double.longBitsToDouble(slot));
+                        break;
+                    case BOOLEAN:
+                        params[i] = slot != 0;
+                        break;
+                    default:
+                        params[i] = L.paramBufferString(slot);
+                        break;
+                }
+                continue;
+            }
             switch (types[i]) {
                 case TABLE:
                     params[i] = args[i];
@@ -672,12 +711,7 @@ final class Converter {
                                     ((long) (numBytes[5] & 0xFF) << 16) |
                                     ((long) (numBytes[6] & 0xFF) << 8) |
                                     (long) (numBytes[7] & 0xFF);
-                            double d = Double.longBitsToDouble(bits);
-                            if (d >= Long.MIN_VALUE && d <= Long.MAX_VALUE && Math.floor(d) == d) {
-                                params[i] = (long) d;
-                            } else {
-                                params[i] = d;
-                            }
+                            params[i] = toNumber(Double.longBitsToDouble(bits));
                         } else {
                             // Fallback: treat as string representation
                             params[i] = new String(numBytes, LuaState.UTF8);
@@ -698,6 +732,16 @@ final class Converter {
         return hasTable;
     }
 
+    /**
+     * Returns a Lua number as a long if it is integral, or as a double otherwise.
+     */
+    static Object toNumber(double d) {
+        if (d >= Long.MIN_VALUE && d <= Long.MAX_VALUE && Math.floor(d) == d) {
+            return (long) d;
+        }
+        return d;
+    }
+
     /**
      * Converts Java objects to Lua types with unified storage optimization.
      * Primitive types (BOOLEAN, STRING, NUMBER) are serialized to byte[] and stored directly in args[].
@@ -0,0 +1,48 @@
+package com.naef.jnlua;
+
+/**
+ * A Lua function implemented in Java that takes two numbers and returns a
+ * number.
+ * <p/>
+ * <p>
+ * When called from Lua, the function is invoked through a dedicated JNI entry
+ * point that passes the arguments as primitive doubles. No argument arrays are
+ * filled and no values are boxed, which makes numeric callbacks free of
+ * allocations. Missing or non-numeric arguments raise a Lua error.
+ * </p>
+ */
+public abstract class DoubleBinaryJavaFunction extends JavaFunction {
+    // -- Construction
+
+    /**
+     * Creates a new instance.
+     */
+    protected DoubleBinaryJavaFunction() {
+    }
+
+    /**
+     * Creates a new instance with the specified name.
+     *
+     * @param name the function name
+     */
+    protected DoubleBinaryJavaFunction(String name) {
+        setName(name);
+    }
+
+    // -- Operations
+
+    /**
+     * Invokes this function.
+     *
+     * @param a the first argument
+     * @param b the second argument
+     * @return the result
+     */
+    public abstract double call(double a, double b);
+
+    @Override
+    public void call(LuaState luaState, Object[] args) {
+        LuaState.checkArg(args.length >= 2 && args[0] instanceof Number && args[1] instanceof Number, "number expected");
+        luaState.pushJavaFunctionResult(call(((Number) args[0]).doubleValue(), ((Number) args[1]).doubleValue()));
+    }
+}
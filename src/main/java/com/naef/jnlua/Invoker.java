@@ -1,13 +1,16 @@
 package com.naef.jnlua;
 
 import com.esotericsoftware.reflectasm.ClassAccess;
+import com.esotericsoftware.reflectasm.ClassInfo;
 
 import java.lang.reflect.Modifier;
 import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
 
 import static com.naef.jnlua.LuaState.toClass;
 
@@ -15,39 +18,43 @@ import static com.naef.jnlua.LuaState.toClass;
  * Created by Will on 2017/2/13.
  */
 final class Invoker extends JavaFunction {
-    private static final class InvokerKey {
-        private final Class<?> clz;
-        private final String name;
-        private final int hashCode;
-
-        public InvokerKey(Class<?> clz, String name) {
-            this.clz = clz;
-            this.name = name;
-            this.hashCode = clz.hashCode() * 31 + name.hashCode();
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-            if (this == obj) return true;
-            if (!(obj instanceof InvokerKey)) return false;
-            InvokerKey other = (InvokerKey) obj;
-            return clz == other.clz && name.equals(other.name);
-        }
+    /**
+     * One entry of the overload inline cache: the classes of the arguments of
+     * a call and the method index they resolved to. Immutable, so entries can
+     * be shared between threads without locking.
+     */
+    private static final class CallSite {
+        private final Class<?>[] argTypes;
+        private final int index;
 
-        @Override
-        public int hashCode() {
-            return hashCode;
+        private CallSite(Class<?>[] argTypes, int index) {
+            this.argTypes = argTypes;
+            this.index = index;
         }
     }
 
+    // ========================================================================
+    // [Performance] Overload Inline Cache
+    // ========================================================================
+    // Overloaded members resolve the target method from the argument classes.
+    // The last INLINE_CACHE_SIZE argument class vectors seen by an Invoker are
+    // remembered and compared element-wise before any array is allocated or
+    // ClassAccess.indexOfMethod (signature hashing + locked cache) is called.
+    // After MEGAMORPHIC_MISSES misses the call site is considered megamorphic
+    // and the cache is bypassed.
+    private static final int INLINE_CACHE_SIZE = 4;
+    private static final int MEGAMORPHIC_MISSES = 32;
+    private static final CallSite[] NO_CALL_SITES = new CallSite[0];
+
     // ========================================================================
     // [Performance] Invoker Instance Cache and Pre-computed UTF-8 Byte Arrays
     // ========================================================================
     // Static cache: Reuses Invoker instances for same class+member combinations
-    // - Key: (Class, member name) -> Value: Invoker instance
-    // - Thread-safe using ConcurrentHashMap
+    // - Key: Class -> member name -> Value: Invoker instance
+    // - Stored in the ClassMetadata of the class: a ClassValue read plus an
+    //   open-addressing probe, without allocating a key object
+    // - Released when the class is unloaded
     // - Eliminates repeated ClassAccess lookups and Invoker object creation
-    private static final ConcurrentHashMap<InvokerKey, Invoker> INVOKERS = new ConcurrentHashMap<>();
 
     public final ClassAccess access;
     public final String className;
@@ -72,6 +79,8 @@ final class Invoker extends JavaFunction {
     private boolean isPushed = false;
     private final boolean isArray;
     private final Integer[] candidates;
+    private volatile CallSite[] callSites = NO_CALL_SITES;
+    private int callSiteMisses;
 
     public Invoker(ClassAccess access, String className, String name, String attr, String attrType, boolean isArray) {
         this.isMaintainTable = true;
@@ -167,7 +176,7 @@ final class Invoker extends JavaFunction {
         if (this.index > -1) {
             // Fast path: pre-computed single method index
             methodIndex = this.index;
-        } else {
+        } else if ((methodIndex = lookupCallSite(arg, startIndex)) < 0) {
             // Slow path: need type matching, but optimize the process
             Class<?>[] argTypes;
             if (isTableArgs) {
@@ -186,6 +195,7 @@ final class Invoker extends JavaFunction {
                 }
             }
             methodIndex = access.indexOfMethod(null, attr, candidates, argTypes);
+            addCallSite(argTypes, methodIndex);
         }
 
         if (isTableArgs) {
@@ -223,27 +233,96 @@ final class Invoker extends JavaFunction {
         luaState.pushJavaObject(result);
     }
 
+    /**
+     * Returns the method index cached for the classes of the arguments, or -1.
+     */
+    private int lookupCallSite(final Object[] arg, final int startIndex) {
+        final CallSite[] sites = callSites;
+        for (int s = 0; s < sites.length; s++) {
+            final Class<?>[] argTypes = sites[s].argTypes;
+            if (argTypes.length != arg.length) continue;
+            int i = 0;
+            while (i < arg.length && argTypes[i] == argType(arg, i, startIndex)) i++;
+            if (i == arg.length) return sites[s].index;
+        }
+        return -1;
+    }
+
+    /**
+     * Remembers a resolved overload, evicting the oldest entry when full.
+     */
+    private void addCallSite(final Class<?>[] argTypes, final int index) {
+        if (index < 0 || callSiteMisses >= MEGAMORPHIC_MISSES) return;
+        final CallSite[] sites = callSites;
+        if (++callSiteMisses >= MEGAMORPHIC_MISSES) {
+            callSites = NO_CALL_SITES;
+            return;
+        }
+        final int length = Math.min(sites.length + 1, INLINE_CACHE_SIZE);
+        final CallSite[] updated = new CallSite[length];
+        updated[0] = new CallSite(argTypes, index);
+        System.arraycopy(sites, 0, updated, 1, length - 1);
+        callSites = updated;
+    }
+
+    /**
+     * Returns the class an argument contributes to overload resolution, which
+     * matches the argument types built for ClassAccess.indexOfMethod.
+     */
+    private Class<?> argType(final Object[] arg, final int i, final int startIndex) {
+        final Object value = arg[i];
+        if (value != null) return value.getClass();
+        return isTableArgs && types[startIndex + i] == LuaType.TABLE ? AbstractMap.class : null;
+    }
+
     public final static Invoker getInvoker(final Object... args) {
         if (args.length < 2 || args[0] == null || !(args[1] instanceof String)) return null;
         final Class<?> clz = toClass(args[0]);
         if (clz == null || clz.isArray()) return null;
-        return INVOKERS.get(new InvokerKey(clz, (String) args[1]));
+        return ClassMetadata.of(clz).getInvoker((String) args[1]);
     }
 
     public final static Invoker get(final Class<?> clz, final String attr, final String prefix) {
-        final String attrName = (prefix == null ? "" : prefix) + attr;
-        InvokerKey key = new InvokerKey(clz, attrName);
-        Invoker invoker = INVOKERS.get(key);
+        // Avoid the concatenation for the common empty prefix
+        final String attrName = prefix == null || prefix.isEmpty() ? attr : prefix + attr;
+        final ClassMetadata metadata = ClassMetadata.of(clz);
+        Invoker invoker = metadata.getInvoker(attrName);
         if (invoker != null) return invoker;
 
-        final String className = LuaState.toClassName(clz);
+        final String className = metadata.name;
         String fullName = className + "." + attr;
-        ClassAccess<?> access = ClassAccess.access(clz);
+        ClassAccess<?> access = metadata.getAccess();
         String type = access.getNameType(attrName);
         if (type == null) return null;
         invoker = new Invoker(access, className, fullName, attr, type, clz.isArray());
-        Invoker existing = INVOKERS.putIfAbsent(key, invoker);
-        return existing != null ? existing : invoker;
+        return metadata.putInvoker(attrName, invoker);
+    }
+
+    /**
+     * Returns the Invokers of all fields, methods and constructors of a class,
+     * resolved by name in the same way as a lookup from Lua.
+     */
+    static List<Invoker> getAll(final Class<?> clz) {
+        final ClassInfo<?> info = ClassMetadata.of(clz).getAccess().classInfo;
+        final Set<String> names = new LinkedHashSet<>();
+        names.addAll(Arrays.asList(info.fieldNames));
+        names.addAll(Arrays.asList(info.methodNames));
+        if (info.constructorCount > 0) names.add(ClassAccess.NEW);
+        final List<Invoker> invokers = new ArrayList<>(names.size());
+        for (String name : names) {
+            final Invoker invoker = get(clz, name, "");
+            if (invoker != null) invokers.add(invoker);
+        }
+        return invokers;
+    }
+
+    /**
+     * Returns the call type of the Lua accessor of this Invoker, see
+     * {@link #read(LuaState, Object[])}, and marks fields as pushed.
+     */
+    final byte preload() {
+        isPushed = true;
+        return (byte) (isField ? 3 : 2);
     }
 
     @Override
@@ -100,7 +100,7 @@ public class JavaFunction {
                 params = new Object[argCount];
                 types = new LuaType[argCount];
             }
-            hasTable = luaState.converter.getLuaValues(luaState, isMaintainTable, luaState.paramArgs, luaState.paramTypes, params, types, Object.class);
+            hasTable = luaState.converter.getLuaValues(luaState, isMaintainTable, luaState.paramArgs, luaState.paramTypes, luaState.paramBuffer, params, types, Object.class);
             result = invoke(luaState);
             luaState.paramTypes[32] = (byte) (luaState.yield ? 1 : 0);
             return result;
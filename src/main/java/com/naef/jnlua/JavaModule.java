@@ -51,7 +51,7 @@ public class JavaModule {
     }
 
     // -- State
-    private final JavaFunction[] functions = {new Trace(), new Require(), new New(), new InstanceOf(), new Cast(), new Proxy(), new Pairs(), new IPairs(), new ToLua(), new ToTable(), new Elements(), new Fields(), new Methods(), new Properties()};
+    private final JavaFunction[] functions = {new Trace(), new Require(), new Preload(), new New(), new InstanceOf(), new Cast(), new Proxy(), new Pairs(), new IPairs(), new ToLua(), new ToTable(), new Elements(), new Fields(), new Methods(), new Properties()};
 
     // -- Static methods
 
@@ -217,6 +217,32 @@ public class JavaModule {
         }
     }
 
+    /**
+     * Registers the members of Java classes in the Lua state, so that their
+     * first accesses do not call into Java. The classes are given as classes
+     * or as type names. Returns the number of registered members.
+     *
+     * @see LuaState#preloadClass(Class)
+     */
+    private static class Preload extends JavaFunction {
+        // -- JavaFunction methods
+        @Override
+        public void call(LuaState luaState, Object[] args) {
+            LuaState.checkArg(args.length > 0, "class expected");
+            int count = 0;
+            for (Object arg : args) {
+                Class<?> clazz = arg instanceof Class ? (Class<?>) arg : loadType(luaState, String.valueOf(arg));
+                count += luaState.preloadClass(clazz);
+            }
+            luaState.pushInteger(count);
+        }
+
+        @Override
+        public String getName() {
+            return "preload";
+        }
+    }
+
     /**
      * Creates and returns a new Java object or array thereof. The first
      * argument designates the type to instantiate, either as a class or a
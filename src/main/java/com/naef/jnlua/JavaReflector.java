@@ -55,7 +55,6 @@ public class JavaReflector {
      * @return the instance
      */
     public static JavaReflector getInstance() {
-        ClassAccess.IS_SINGLE_THREAD_MODE = true;
         return INSTANCE;
     }
 
@@ -0,0 +1,47 @@
+package com.naef.jnlua;
+
+/**
+ * A Lua function implemented in Java that takes an integer and returns an
+ * integer.
+ * <p/>
+ * <p>
+ * When called from Lua, the function is invoked through a dedicated JNI entry
+ * point that passes the argument as a primitive long. No argument arrays are
+ * filled and no values are boxed. A missing or non-numeric argument raises a
+ * Lua error; fractional numbers are truncated.
+ * </p>
+ */
+public abstract class LongUnaryJavaFunction extends JavaFunction {
+    // -- Construction
+
+    /**
+     * Creates a new instance.
+     */
+    protected LongUnaryJavaFunction() {
+    }
+
+    /**
+     * Creates a new instance with the specified name.
+     *
+     * @param name the function name
+     */
+    protected LongUnaryJavaFunction(String name) {
+        setName(name);
+    }
+
+    // -- Operations
+
+    /**
+     * Invokes this function.
+     *
+     * @param value the argument
+     * @return the result
+     */
+    public abstract long call(long value);
+
+    @Override
+    public void call(LuaState luaState, Object[] args) {
+        LuaState.checkArg(args.length >= 1 && args[0] instanceof Number, "number expected");
+        luaState.pushJavaFunctionResult(call(((Number) args[0]).longValue()));
+    }
+}
@@ -0,0 +1,27 @@
+package com.naef.jnlua;
+
+/**
+ * Selects the native memory allocator of a Lua state.
+ *
+ * @see LuaState#LuaState(LuaAllocator, long)
+ */
+public enum LuaAllocator {
+    /**
+     * The default allocator of the Lua library. No memory limit and no
+     * accounting.
+     */
+    SYSTEM,
+    /**
+     * Allocates from the system heap and enforces a maximum memory
+     * consumption.
+     */
+    LIMITED,
+    /**
+     * Serves small blocks from per-state size-class slabs and large blocks
+     * from the system heap. Freed small blocks are reused by the state; the
+     * slabs are returned to the system as a whole when the state is closed,
+     * which avoids heap fragmentation from many short-lived states. A memory
+     * limit is optional.
+     */
+    ARENA
+}
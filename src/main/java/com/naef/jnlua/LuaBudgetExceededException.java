@@ -0,0 +1,26 @@
+package com.naef.jnlua;
+
+/**
+ * Indicates that a Lua state has exceeded its execution budget.
+ * <p/>
+ * <p>
+ * The exception is thrown if Lua code runs longer than the number of
+ * instructions or the time set with
+ * {@link LuaState#setExecutionBudget(long, java.time.Duration)}.
+ * </p>
+ */
+public class LuaBudgetExceededException extends LuaRuntimeException {
+    // -- Static
+    private static final long serialVersionUID = 1L;
+
+    // -- Construction
+
+    /**
+     * Creates a new instance.
+     *
+     * @param msg the message
+     */
+    public LuaBudgetExceededException(String msg) {
+        super(msg);
+    }
+}
@@ -6,16 +6,24 @@ package com.naef.jnlua;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Contains information about a Lua error condition. This object is created in
  * the native library.
  */
 class LuaError {
+    // -- Static
+    private static final LuaStackTraceElement[] EMPTY_LUA_STACK_TRACE = new LuaStackTraceElement[0];
+
     // -- State
     private final String message;
-    private LuaStackTraceElement[] luaStackTrace;
+    private byte[] luaStackFrames;
     private final Throwable cause;
     private final boolean hasMessage;
 
@@ -51,14 +59,23 @@ class LuaError {
      * Returns the Lua stack trace.
      */
     public LuaStackTraceElement[] getLuaStackTrace() {
-        return luaStackTrace;
+        return toLuaStackTrace(luaStackFrames);
     }
 
     /**
-     * Sets the Lua stack trace.
+     * Returns the Lua stack frames in the compact form recorded by the
+     * native library, or <code>null</code> if no stack trace was captured.
      */
-    void setLuaStackTrace(LuaStackTraceElement[] luaStackTrace) {
-        this.luaStackTrace = luaStackTrace;
+    byte[] getLuaStackFrames() {
+        return luaStackFrames;
+    }
+
+    /**
+     * Sets the Lua stack frames. The method is invoked from the native
+     * library.
+     */
+    void setLuaStackFrames(byte[] luaStackFrames) {
+        this.luaStackFrames = luaStackFrames;
     }
 
     /**
@@ -70,6 +87,39 @@ class LuaError {
 
     // -- Package private methods
 
+    /**
+     * Decodes Lua stack frames recorded by the native library. Each frame is
+     * stored as the line number, the function name and the source name; the
+     * names are prefixed with their length, which is -1 for a missing name.
+     *
+     * @param frames the frames, or <code>null</code>
+     * @return the stack trace
+     */
+    static LuaStackTraceElement[] toLuaStackTrace(byte[] frames) {
+        if (frames == null || frames.length == 0) {
+            return EMPTY_LUA_STACK_TRACE;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(frames).order(ByteOrder.nativeOrder());
+        List<LuaStackTraceElement> trace = new ArrayList<>();
+        while (buffer.hasRemaining()) {
+            int line = buffer.getInt();
+            String functionName = getFrameString(buffer);
+            String sourceName = getFrameString(buffer);
+            trace.add(new LuaStackTraceElement(functionName, sourceName, line));
+        }
+        return trace.toArray(EMPTY_LUA_STACK_TRACE);
+    }
+
+    private static String getFrameString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String s = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return s;
+    }
+
     // -- Object methods
     @Override
     public String toString() {
@@ -0,0 +1,245 @@
+package com.naef.jnlua;
+
+/**
+ * Base class of the generated classes that implement a Java interface in Lua.
+ * <p/>
+ * <p>
+ * The implementation classes are generated per interface by
+ * {@link LuaProxyFactory}. When a proxy is created, the Lua function of every
+ * interface method is looked up in the table once and kept in the registry.
+ * A generated method then pushes the cached function, the table as
+ * <code>self</code> and its arguments, and converts the result to the declared
+ * return type. Primitive arguments and results are not boxed.
+ * </p>
+ * <p/>
+ * <p>
+ * Changes to the table after the proxy has been created are not seen by the
+ * proxy. An interface method without a Lua function throws
+ * <code>UnsupportedOperationException</code>, unless it is a default method,
+ * in which case the default implementation is invoked.
+ * </p>
+ * <p/>
+ * <p>
+ * This class is public because the generated classes are defined in the
+ * package of their interface. It is not intended to be used directly.
+ * </p>
+ */
+public abstract class LuaInterfaceProxy implements LuaValueProxy {
+    // -- State
+    private final LuaState luaState;
+    private final LuaValueProxy table;
+    private final String[] names;
+    private final LuaValueProxy[] functions;
+    /**
+     * Registry references of the functions, or <code>-1</code> for methods
+     * without a Lua function.
+     */
+    private final int[] references;
+
+    // -- Construction
+
+    /**
+     * Creates a new instance and resolves the Lua functions of the interface
+     * methods.
+     *
+     * @param table the proxied table
+     * @param names the method names, indexed by method slot
+     */
+    protected LuaInterfaceProxy(LuaValueProxy table, String[] names) {
+        this.luaState = table.getLuaState();
+        this.table = table;
+        this.names = names;
+        this.functions = new LuaValueProxy[names.length];
+        this.references = new int[names.length];
+        table.pushValue();
+        try {
+            for (int i = 0; i < names.length; i++) {
+                luaState.getField(-1, names[i]);
+                if (luaState.isFunction(-1)) {
+                    functions[i] = luaState.getProxy(-1);
+                    references[i] = functions[i].getRef();
+                } else {
+                    references[i] = -1;
+                }
+                luaState.pop(1);
+            }
+        } finally {
+            luaState.pop(1);
+        }
+    }
+
+    // -- LuaValueProxy methods
+    @Override
+    public final LuaState getLuaState() {
+        return luaState;
+    }
+
+    @Override
+    public final void pushValue() {
+        table.pushValue();
+    }
+
+    @Override
+    public final int getRef() {
+        return table.getRef();
+    }
+
+    @Override
+    public final void unRef() {
+        for (int i = 0; i < functions.length; i++) {
+            if (functions[i] != null) {
+                functions[i].unRef();
+                functions[i] = null;
+                references[i] = -1;
+            }
+        }
+        table.unRef();
+    }
+
+    // -- Protected methods
+
+    /**
+     * Returns whether the method in the specified slot has a Lua function.
+     */
+    protected final boolean hasFunction(int slot) {
+        return references[slot] >= 0;
+    }
+
+    /**
+     * Pushes the function of the method in the specified slot and, if
+     * requested, the table as <code>self</code>.
+     *
+     * @param slot   the method slot
+     * @param isSelf whether to pass the table as first argument
+     * @return the stack top before the function, to be passed to the
+     * <code>invoke</code> methods
+     */
+    protected final int begin(int slot, boolean isSelf) {
+        final int reference = references[slot];
+        if (reference < 0) {
+            throw new UnsupportedOperationException(names[slot]);
+        }
+        final int base = luaState.getTop();
+        luaState.rawGet(LuaState.REGISTRYINDEX, reference);
+        if (isSelf) {
+            table.pushValue();
+        }
+        return base;
+    }
+
+    protected final void pushInteger(long n) {
+        luaState.pushInteger(n);
+    }
+
+    protected final void pushNumber(double n) {
+        luaState.pushNumber(n);
+    }
+
+    protected final void pushBoolean(boolean b) {
+        luaState.pushBoolean(b);
+    }
+
+    protected final void pushObject(Object object) {
+        luaState.pushJavaObject(object);
+    }
+
+    /**
+     * Pushes the elements of an array argument, unwrapping nested single
+     * element arrays like the reflective proxies do.
+     */
+    protected final void pushElements(Object[] args) {
+        if (args == null) {
+            return;
+        }
+        while (args.length == 1 && args[0] instanceof Object[]) {
+            args = (Object[]) args[0];
+        }
+        for (Object arg : args) {
+            luaState.pushJavaObject(arg);
+        }
+    }
+
+    /**
+     * Calls the function pushed by {@link #begin(int, boolean)} and discards
+     * its results.
+     */
+    protected final void invokeVoid(int base) {
+        luaState.call(luaState.getTop() - base - 1, 0);
+    }
+
+    protected final boolean invokeBoolean(int base) {
+        luaState.call(luaState.getTop() - base - 1, 1);
+        final boolean result = luaState.toBoolean(-1);
+        luaState.pop(1);
+        return result;
+    }
+
+    protected final int invokeInt(int base) {
+        return (int) invokeLong(base);
+    }
+
+    protected final long invokeLong(int base) {
+        luaState.call(luaState.getTop() - base - 1, 1);
+        try {
+            if (luaState.type(-1) != LuaType.NUMBER) {
+                return luaState.toJavaObject(-1, Long.class);
+            }
+            return luaState.toInteger(-1);
+        } finally {
+            luaState.pop(1);
+        }
+    }
+
+    protected final float invokeFloat(int base) {
+        return (float) invokeDouble(base);
+    }
+
+    protected final double invokeDouble(int base) {
+        luaState.call(luaState.getTop() - base - 1, 1);
+        try {
+            if (luaState.type(-1) != LuaType.NUMBER) {
+                return luaState.toJavaObject(-1, Double.class);
+            }
+            return luaState.toNumber(-1);
+        } finally {
+            luaState.pop(1);
+        }
+    }
+
+    /**
+     * Calls the function pushed by {@link #begin(int, boolean)} and converts
+     * its first result to the specified type.
+     */
+    protected final Object invokeObject(int base, Class<?> type) {
+        luaState.call(luaState.getTop() - base - 1, 1);
+        try {
+            return luaState.toJavaObject(-1, type);
+        } finally {
+            luaState.pop(1);
+        }
+    }
+
+    /**
+     * Calls the function pushed by {@link #begin(int, boolean)} for a method
+     * returning <code>Object</code>. A single result is returned as is,
+     * multiple results are returned as an array.
+     */
+    protected final Object invokeResults(int base) {
+        final int count = luaState.call(luaState.getTop() - base - 1, LuaState.MULTRET);
+        if (count <= 0) {
+            return null;
+        }
+        try {
+            if (count == 1) {
+                return luaState.toJavaObject(-1, Object.class);
+            }
+            final Object[] results = new Object[count];
+            for (int i = 0; i < count; i++) {
+                results[i] = luaState.toJavaObject(i - count, Object.class);
+            }
+            return results;
+        } finally {
+            luaState.pop(count);
+        }
+    }
+}
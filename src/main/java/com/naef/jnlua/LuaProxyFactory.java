@@ -0,0 +1,300 @@
+package com.naef.jnlua;
+
+import com.esotericsoftware.reflectasm.AccessClassLoader;
+import com.esotericsoftware.reflectasm.ClassAccess;
+import com.esotericsoftware.reflectasm.util.AsmUtil;
+import com.esotericsoftware.reflectasm.util.ClassCache;
+import jdk.internal.org.objectweb.asm.ClassWriter;
+import jdk.internal.org.objectweb.asm.Label;
+import jdk.internal.org.objectweb.asm.MethodVisitor;
+import jdk.internal.org.objectweb.asm.Type;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static jdk.internal.org.objectweb.asm.Opcodes.*;
+
+/**
+ * Generates and instantiates the {@link LuaInterfaceProxy} implementation
+ * class of an interface.
+ * <p/>
+ * <p>
+ * The class is generated with ASM on the first proxy of an interface and is
+ * defined through the {@link AccessClassLoader} of the interface, so it is
+ * released together with the interface. Interfaces that cannot be
+ * implemented this way, such as non-public interfaces, have no factory and
+ * are served by <code>java.lang.reflect.Proxy</code>.
+ * </p>
+ */
+final class LuaProxyFactory {
+    // -- Static
+    private static final String SUFFIX = "$LuaProxy";
+    private static final String BASE_NAME = Type.getInternalName(LuaInterfaceProxy.class);
+    private static final String CONSTRUCTOR_DESC = "(" + Type.getDescriptor(LuaValueProxy.class) + "[Ljava/lang/String;)V";
+    private static final ClassCache<LuaProxyFactory> FACTORIES = ClassCache.of(LuaProxyFactory::create);
+
+    // -- State
+    private final Constructor<?> constructor;
+    private final String[] names;
+
+    // -- Construction
+    private LuaProxyFactory(Constructor<?> constructor, String[] names) {
+        this.constructor = constructor;
+        this.names = names;
+    }
+
+    /**
+     * Returns the factory of an interface, or <code>null</code> if the
+     * interface is not supported.
+     */
+    static LuaProxyFactory of(Class<?> interfaze) {
+        return FACTORIES.get(interfaze);
+    }
+
+    /**
+     * Returns the number of interfaces with a generated class that have not
+     * been unloaded yet.
+     */
+    static int size() {
+        return FACTORIES.size();
+    }
+
+    // -- Operations
+
+    /**
+     * Creates a proxy for the specified table.
+     */
+    LuaValueProxy newProxy(LuaValueProxy table) {
+        try {
+            return (LuaValueProxy) constructor.newInstance(table, names);
+        } catch (InvocationTargetException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // -- Private methods
+
+    /**
+     * Generates the implementation class of an interface.
+     */
+    private static LuaProxyFactory create(Class<?> interfaze) {
+        if (!interfaze.isInterface() || !Modifier.isPublic(interfaze.getModifiers())
+                || LuaValueProxy.class.isAssignableFrom(interfaze)) {
+            return null;
+        }
+        final Method[] methods = getMethods(interfaze);
+        if (methods == null) {
+            return null;
+        }
+        String name = interfaze.getName() + SUFFIX;
+        if (interfaze.getClassLoader() == null || name.startsWith("java.")) {
+            name = ClassAccess.ACCESS_CLASS_PREFIX + name;
+        }
+        try {
+            final AccessClassLoader loader = AccessClassLoader.get(interfaze);
+            Class<?> proxyClass;
+            synchronized (LuaProxyFactory.class) {
+                try {
+                    // Defined by a concurrent lookup
+                    proxyClass = Class.forName(name, false, loader);
+                } catch (ClassNotFoundException e) {
+                    proxyClass = loader.defineClass(name, generate(name.replace('.', '/'), interfaze, methods), interfaze);
+                }
+            }
+            final String[] names = new String[methods.length];
+            for (int i = 0; i < methods.length; i++) {
+                names[i] = methods[i].getName();
+            }
+            return new LuaProxyFactory(proxyClass.getConstructor(LuaValueProxy.class, String[].class), names);
+        } catch (LinkageError | ReflectiveOperationException e) {
+            // The interface or the proxy base class is not visible from the
+            // class loader; the reflective proxy is used instead
+            return null;
+        }
+    }
+
+    /**
+     * Returns the methods to implement, or <code>null</code> if two methods
+     * have the same parameters but different return types.
+     */
+    private static Method[] getMethods(Class<?> interfaze) {
+        final Map<String, Method> methods = new LinkedHashMap<>();
+        for (Method method : interfaze.getMethods()) {
+            if (Modifier.isStatic(method.getModifiers()) || isObjectMethod(method)) {
+                continue;
+            }
+            final String desc = Type.getMethodDescriptor(method);
+            final String key = method.getName() + desc.substring(0, desc.indexOf(')') + 1);
+            final Method other = methods.get(key);
+            if (other == null) {
+                methods.put(key, method);
+            } else if (other.getReturnType() != method.getReturnType()) {
+                return null;
+            } else if (other.isDefault() && !method.isDefault()) {
+                methods.put(key, method);
+            }
+        }
+        return methods.values().toArray(new Method[0]);
+    }
+
+    /**
+     * Returns whether a method is implemented by <code>Object</code>, such as
+     * <code>Comparator.equals(Object)</code>.
+     */
+    private static boolean isObjectMethod(Method method) {
+        try {
+            return Modifier.isPublic(Object.class.getMethod(method.getName(), method.getParameterTypes()).getModifiers());
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static byte[] generate(String className, Class<?> interfaze, Method[] methods) {
+        final String interfaceName = Type.getInternalName(interfaze);
+        final ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_8, ACC_PUBLIC | ACC_FINAL | ACC_SUPER | ACC_SYNTHETIC, className, null, BASE_NAME, new String[]{interfaceName});
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", CONSTRUCTOR_DESC, null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitVarInsn(ALOAD, 2);
+        mv.visitMethodInsn(INVOKESPECIAL, BASE_NAME, "<init>", CONSTRUCTOR_DESC, false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        for (int slot = 0; slot < methods.length; slot++) {
+            generateMethod(cw, interfaceName, methods[slot], slot);
+        }
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static void generateMethod(ClassWriter cw, String interfaceName, Method method, int slot) {
+        final Class<?>[] parameterTypes = method.getParameterTypes();
+        final Class<?> returnType = method.getReturnType();
+        final String desc = Type.getMethodDescriptor(method);
+        final MethodVisitor mv = cw.visitMethod(ACC_PUBLIC | ACC_FINAL, method.getName(), desc, null,
+                AsmUtil.internalTypeArray(method.getExceptionTypes()));
+        mv.visitCode();
+
+        // Methods without a Lua function fall back to their default
+        if (method.isDefault()) {
+            final Label resolved = new Label();
+            mv.visitVarInsn(ALOAD, 0);
+            AsmUtil.iconst(mv, slot);
+            mv.visitMethodInsn(INVOKEVIRTUAL, BASE_NAME, "hasFunction", "(I)Z", false);
+            mv.visitJumpInsn(IFNE, resolved);
+            mv.visitVarInsn(ALOAD, 0);
+            AsmUtil.loadParams(mv, false, parameterTypes);
+            mv.visitMethodInsn(INVOKESPECIAL, interfaceName, method.getName(), desc, true);
+            AsmUtil.makeReturn(mv, Type.getType(returnType));
+            mv.visitLabel(resolved);
+        }
+
+        // Varargs methods are called without self, like the reflective proxies
+        int baseVar = 1;
+        for (Class<?> parameterType : parameterTypes) {
+            baseVar += Type.getType(parameterType).getSize();
+        }
+        mv.visitVarInsn(ALOAD, 0);
+        AsmUtil.iconst(mv, slot);
+        mv.visitInsn(method.isVarArgs() ? ICONST_0 : ICONST_1);
+        mv.visitMethodInsn(INVOKEVIRTUAL, BASE_NAME, "begin", "(IZ)I", false);
+        mv.visitVarInsn(ISTORE, baseVar);
+
+        final boolean isSpread = parameterTypes.length == 1 && parameterTypes[0].isArray()
+                && !parameterTypes[0].getComponentType().isPrimitive();
+        for (int i = 0, var = 1; i < parameterTypes.length; i++) {
+            final Type type = Type.getType(parameterTypes[i]);
+            mv.visitVarInsn(ALOAD, 0);
+            AsmUtil.loadParam(mv, type, var);
+            var += type.getSize();
+            switch (type.getSort()) {
+                case Type.BOOLEAN:
+                    mv.visitMethodInsn(INVOKEVIRTUAL, BASE_NAME, "pushBoolean", "(Z)V", false);
+                    break;
+                case Type.CHAR:
+                    // Pushed as an integer, like the Character converter
+                case Type.BYTE:
+                case Type.SHORT:
+                case Type.INT:
+                    mv.visitInsn(I2L);
+                    // fall through
+                case Type.LONG:
+                    mv.visitMethodInsn(INVOKEVIRTUAL, BASE_NAME, "pushInteger", "(J)V", false);
+                    break;
+                case Type.FLOAT:
+                    mv.visitInsn(F2D);
+                    // fall through
+                case Type.DOUBLE:
+                    mv.visitMethodInsn(INVOKEVIRTUAL, BASE_NAME, "pushNumber", "(D)V", false);
+                    break;
+                default:
+                    if (isSpread) {
+                        mv.visitMethodInsn(INVOKEVIRTUAL, BASE_NAME, "pushElements", "([Ljava/lang/Object;)V", false);
+                    } else {
+                        mv.visitMethodInsn(INVOKEVIRTUAL, BASE_NAME, "pushObject", "(Ljava/lang/Object;)V", false);
+                    }
+            }
+        }
+
+        final Type type = Type.getType(returnType);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ILOAD, baseVar);
+        switch (type.getSort()) {
+            case Type.VOID:
+                mv.visitMethodInsn(INVOKEVIRTUAL, BASE_NAME, "invokeVoid", "(I)V", false);
+                break;
+            case Type.BOOLEAN:
+                mv.visitMethodInsn(INVOKEVIRTUAL, BASE_NAME, "invokeBoolean", "(I)Z", false);
+                break;
+            case Type.CHAR:
+                mv.visitMethodInsn(INVOKEVIRTUAL, BASE_NAME, "invokeInt", "(I)I", false);
+                mv.visitInsn(I2C);
+                break;
+            case Type.BYTE:
+                mv.visitMethodInsn(INVOKEVIRTUAL, BASE_NAME, "invokeInt", "(I)I", false);
+                mv.visitInsn(I2B);
+                break;
+            case Type.SHORT:
+                mv.visitMethodInsn(INVOKEVIRTUAL, BASE_NAME, "invokeInt", "(I)I", false);
+                mv.visitInsn(I2S);
+                break;
+            case Type.INT:
+                mv.visitMethodInsn(INVOKEVIRTUAL, BASE_NAME, "invokeInt", "(I)I", false);
+                break;
+            case Type.LONG:
+                mv.visitMethodInsn(INVOKEVIRTUAL, BASE_NAME, "invokeLong", "(I)J", false);
+                break;
+            case Type.FLOAT:
+                mv.visitMethodInsn(INVOKEVIRTUAL, BASE_NAME, "invokeFloat", "(I)F", false);
+                break;
+            case Type.DOUBLE:
+                mv.visitMethodInsn(INVOKEVIRTUAL, BASE_NAME, "invokeDouble", "(I)D", false);
+                break;
+            default:
+                if (returnType == Object.class) {
+                    mv.visitMethodInsn(INVOKEVIRTUAL, BASE_NAME, "invokeResults", "(I)Ljava/lang/Object;", false);
+                } else {
+                    mv.visitLdcInsn(type);
+                    mv.visitMethodInsn(INVOKEVIRTUAL, BASE_NAME, "invokeObject", "(ILjava/lang/Class;)Ljava/lang/Object;", false);
+                    mv.visitTypeInsn(CHECKCAST, type.getInternalName());
+                }
+        }
+        AsmUtil.makeReturn(mv, type);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+}
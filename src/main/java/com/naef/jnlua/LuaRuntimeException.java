@@ -22,6 +22,7 @@ public class LuaRuntimeException extends LuaException {
     private static final LuaStackTraceElement[] EMPTY_LUA_STACK_TRACE = new LuaStackTraceElement[0];
     // -- State
     private LuaStackTraceElement[] luaStackTrace;
+    private byte[] luaStackFrames;
 
     // -- Construction
 
@@ -65,7 +66,7 @@ public class LuaRuntimeException extends LuaException {
      * Returns the Lua stack trace of this runtime exception.
      */
     public LuaStackTraceElement[] getLuaStackTrace() {
-        return luaStackTrace.clone();
+        return luaStackTrace().clone();
     }
 
     // -- Operations
@@ -86,6 +87,7 @@ public class LuaRuntimeException extends LuaException {
      */
     public void printLuaStackTrace(PrintStream s) {
         s.println(this);
+        LuaStackTraceElement[] luaStackTrace = luaStackTrace();
         for (int i = 0; i < luaStackTrace.length; i++) {
             s.println("\tat " + luaStackTrace[i]);
         }
@@ -98,6 +100,7 @@ public class LuaRuntimeException extends LuaException {
      * @param s the print writer
      */
     public void printLuaStackTrace(PrintWriter s) {
+        LuaStackTraceElement[] luaStackTrace = luaStackTrace();
         for (int i = 0; i < luaStackTrace.length; i++) {
             s.println("\tat " + luaStackTrace[i]);
         }
@@ -109,8 +112,24 @@ public class LuaRuntimeException extends LuaException {
      * Sets the Lua error in this exception. The method in invoked from the
      * native library.
      */
-    void setLuaError(LuaError luaError) {
+    synchronized void setLuaError(LuaError luaError) {
         initCause(luaError.getCause());
-        luaStackTrace = luaError.getLuaStackTrace();
+        luaStackFrames = luaError.getLuaStackFrames();
+        luaStackTrace = null;
+    }
+
+    // -- Private methods
+
+    /**
+     * Returns the Lua stack trace, creating it from the recorded stack frames
+     * on first use. The exception may be read by several threads, so the
+     * decoding and the release of the frames are done under its lock.
+     */
+    private synchronized LuaStackTraceElement[] luaStackTrace() {
+        if (luaStackTrace == null) {
+            luaStackTrace = LuaError.toLuaStackTrace(luaStackFrames);
+            luaStackFrames = null;
+        }
+        return luaStackTrace;
     }
 }
@@ -5,6 +5,7 @@
 package com.naef.jnlua;
 
 import com.esotericsoftware.reflectasm.ClassAccess;
+import com.esotericsoftware.reflectasm.util.NumberUtils;
 import com.naef.jnlua.JavaReflector.Metamethod;
 
 import java.io.*;
@@ -13,9 +14,19 @@ import java.lang.ref.ReferenceQueue;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ReadOnlyBufferException;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
@@ -67,6 +78,10 @@ import static java.lang.reflect.Modifier.TRANSIENT;
  * <td>if a Lua runtime error occurs</td>
  * </tr>
  * <tr>
+ * <td>{@link com.naef.jnlua.LuaBudgetExceededException}</td>
+ * <td>if Lua code exceeds the execution budget of the state</td>
+ * </tr>
+ * <tr>
  * <td>{@link com.naef.jnlua.LuaSyntaxException}</td>
  * <td>if a the syntax of a Lua chunk is incorrect</td>
  * </tr>
@@ -171,14 +186,15 @@ public class LuaState {
      * The maximum amount of memory the may be used by the Lua state, in bytes.
      * This can be adjusted to limit the amount of memory a state may use. If
      * it is reduced while a VM is active this can very quickly lead to out of
-     * memory errors.
+     * memory errors. This is read once by the JNI side when the state is
+     * created; the allocator keeps its own copy afterwards.
      */
-    private int luaMemoryTotal;
+    private long luaMemoryTotal;
     /**
-     * The amount of memory currently used by the Lua state, in bytes. This is
-     * set from the JNI side and must not be modified from the Java side.
+     * The ordinal of the {@link LuaAllocator} of the Lua state. This is read
+     * once by the JNI side when the state is created.
      */
-    private int luaMemoryUsed;
+    private final int luaAllocator;
     /**
      * Ensures proper finalization of this Lua state.
      */
@@ -225,11 +241,11 @@ public class LuaState {
      * @see #setConverter(Converter)
      */
     public LuaState() {
-        this(0L, 0);
+        this(0L, LuaAllocator.SYSTEM, 0);
     }
 
     public LuaState(long luaState) {
-        this(luaState, 0);
+        this(luaState, LuaAllocator.SYSTEM, 0);
     }
 
     /**
@@ -248,14 +264,45 @@ public class LuaState {
      * @see #setConverter(Converter)
      */
     public LuaState(int memory) {
-        this(0L, validateMemory(memory));
+        this(0L, LuaAllocator.LIMITED, validateMemory(memory));
+    }
+
+    /**
+     * Creates a new instance with the specified native allocator and no
+     * memory limit.
+     *
+     * @param allocator the allocator
+     * @see #LuaState(LuaAllocator, long)
+     */
+    public LuaState(LuaAllocator allocator) {
+        this(allocator, 0L);
+    }
+
+    /**
+     * Creates a new instance with the specified native allocator. The class
+     * loader, the Java reflector and the converter are initialized as in
+     * {@link #LuaState()}.
+     * <p/>
+     * <p>
+     * A memory limit of <code>0</code> means no limit; it is required for the
+     * {@link LuaAllocator#LIMITED} allocator and not supported by the
+     * {@link LuaAllocator#SYSTEM} allocator.
+     * </p>
+     *
+     * @param allocator the allocator
+     * @param memory    the maximum amount of memory this Lua state may use, in
+     *                  bytes, or <code>0</code>
+     */
+    public LuaState(LuaAllocator allocator, long memory) {
+        this(0L, allocator, checkAllocator(allocator, memory));
     }
 
     /**
      * Creates a new instance.
      */
-    private LuaState(long luaState, int memory) {
+    private LuaState(long luaState, LuaAllocator allocator, long memory) {
         ownState = luaState == 0L;
+        luaAllocator = allocator.ordinal();
         luaMemoryTotal = memory;
         lua_trace(trace);
 
@@ -361,13 +408,32 @@ public class LuaState {
      * @param value the value to validate
      * @return the value itself
      */
-    private static int validateMemory(int value) {
+    private static long validateMemory(long value) {
         if (value < 1) {
             throw new IllegalArgumentException("Maximum memory must be larger than zero.");
         }
         return value;
     }
 
+    /**
+     * Validates the allocator and the maximum memory passed to the
+     * constructor. The system allocator takes no limit, the limited allocator
+     * requires one, and the arena allocator works with or without.
+     *
+     * @param allocator the allocator
+     * @param memory    the maximum memory, or <code>0</code> for no limit
+     * @return the maximum memory
+     */
+    private static long checkAllocator(LuaAllocator allocator, long memory) {
+        if (allocator == null) {
+            throw new NullPointerException("allocator");
+        }
+        if (memory < 0 || memory == 0 && allocator == LuaAllocator.LIMITED || memory > 0 && allocator == LuaAllocator.SYSTEM) {
+            throw new IllegalArgumentException("Invalid maximum memory " + memory + " for allocator " + allocator + ".");
+        }
+        return memory;
+    }
+
     // -- Native methods
     final private static native String lua_version();
 
@@ -516,22 +582,6 @@ public class LuaState {
     // Purpose: Eliminate repeated reflection calls and UTF-8 encoding conversions in JNI boundary
     // Impact: ~80-95% reduction in JNI call overhead (based on cache hit rate)
 
-    /**
-     * Cache: Class -> UTF-8 byte array of class name
-     * - Avoids repeated getCanonicalName() + getBytes(UTF8) operations
-     * - JNI boundary prefers byte[] over String for efficiency
-     * - Thread-safe using ConcurrentHashMap for high-concurrency scenarios
-     */
-    private static final ConcurrentHashMap<Class<?>, byte[]> CLASS_NAME_CACHE = new ConcurrentHashMap<>();
-
-    /**
-     * Cache: Class -> String of class name
-     * - Avoids repeated reflection API calls (getCanonicalName/getName)
-     * - Works with CLASS_NAME_CACHE to minimize redundant computations
-     * - Thread-safe using ConcurrentHashMap
-     */
-    private static final ConcurrentHashMap<Class<?>, String> CLASS_STRING_NAME_CACHE = new ConcurrentHashMap<>();
-
     /**
      * Pre-compiled byte array for array type suffix "[]"
      * - Eliminates repeated allocation on every array object push to JNI
@@ -542,22 +592,9 @@ public class LuaState {
     /**
      * Get canonical class name with caching
      * <p>
-     * Performance Optimizations:
-     * 1. ConcurrentHashMap caches class names to avoid repeated reflection calls
-     * 2. putIfAbsent + double-get pattern ensures concurrency safety
-     * 3. Prefers getCanonicalName(), falls back to getName() on failure
-     * <p>
-     * Concurrency Safety (CRITICAL):
-     * - MUST call get() again after putIfAbsent() to retrieve the actually stored value
-     * - Multiple threads may compute the same class name simultaneously
-     * - putIfAbsent() returns: null (insert success) OR existing value (insert failed)
-     * - Second get() guarantees all threads return the SAME cached instance
-     * <p>
-     * Example Concurrency Scenario:
-     * Thread-A: name="Foo", putIfAbsent(Foo, "Foo") -> returns null (success)
-     * Thread-B: name="Foo", putIfAbsent(Foo, "Foo") -> returns "Foo" (failed, A won)
-     * Without 2nd get(): Thread-A returns local "Foo", Thread-B returns different "Foo" instance
-     * With 2nd get(): Both return THE SAME "Foo" instance from cache
+     * The name is computed once per class and kept in its ClassMetadata. If
+     * several threads compute it concurrently, ClassValue guarantees that all
+     * of them return the same cached instance.
      *
      * @param object Target object or Class object
      * @return Canonical class name, or null if unavailable
@@ -565,21 +602,7 @@ public class LuaState {
     public final static String toClassName(final Object object) {
         final Class<?> clz = toClass(object);
         if (clz == null) return null;
-
-        String name = CLASS_STRING_NAME_CACHE.get(clz);
-        if (name == null) {
-            // Compute class name: prefer getCanonicalName(), fallback to getName()
-            name = clz.getCanonicalName();
-            if (name == null) name = clz.getName();
-
-            // Attempt cache insertion (fails silently if already exists)
-            CLASS_STRING_NAME_CACHE.putIfAbsent(clz, name);
-
-            // [CRITICAL] Second get() ensures concurrency safety
-            // Retrieves the actual cached value (might differ from local 'name' if another thread won the race)
-            name = CLASS_STRING_NAME_CACHE.get(clz);
-        }
-        return name;
+        return ClassMetadata.of(clz).name;
     }
 
     /**
@@ -588,17 +611,6 @@ public class LuaState {
      * Performance Optimizations:
      * 1. Caches byte arrays to avoid repeated String.getBytes(UTF8) during JNI calls
      * 2. JNI boundary is more efficient with byte[] than String
-     * 3. ~95% reduction in string encoding overhead (based on cache hit rate)
-     * <p>
-     * Concurrency Safety:
-     * - Uses putIfAbsent + double-get pattern for thread safety
-     * - Empty byte array (length=0) serves as sentinel for null class names
-     * <p>
-     * Design Decisions:
-     * - Why not return empty array directly? Need to distinguish:
-     * a) "class name is null" (return null)
-     * b) "object is null" (handled by toClass())
-     * - Empty array as sentinel prevents caching actual null (which would cause cache miss)
      * <p>
      * Sentinel Pattern:
      * clz.getCanonicalName() == null
@@ -611,27 +623,28 @@ public class LuaState {
     public static byte[] getCanonicalName(final Object obj) {
         final Class<?> clz = toClass(obj);
         if (clz == null) return null;
-
-        byte[] bytes = CLASS_NAME_CACHE.get(clz);
-        if (bytes == null) {
-            // Get string class name first (leverages CLASS_STRING_NAME_CACHE)
-            final String name = toClassName(clz);
-
-            // Convert to byte array: null name -> empty array (sentinel value)
-            bytes = name == null ? new byte[0] : name.getBytes(UTF8);
-
-            // Attempt cache insertion
-            CLASS_NAME_CACHE.putIfAbsent(clz, bytes);
-
-            // [CRITICAL] Second get() ensures concurrency safety
-            // Retrieves the actual cached value (all threads get the SAME byte[] instance)
-            bytes = CLASS_NAME_CACHE.get(clz);
-        }
-
+        final byte[] bytes = ClassMetadata.of(clz).nameBytes;
         // Convert sentinel back to null for return (API contract)
         return bytes.length == 0 ? null : bytes;
     }
 
+    /**
+     * Returns the number of Java classes with cached reflection metadata that
+     * have not been unloaded yet.
+     * <p/>
+     * <p>
+     * The caches are attached to the classes themselves, so classes loaded by
+     * a discarded class loader, together with their generated accessors, are
+     * released once the class loader is garbage collected. The count can be
+     * monitored to confirm this in long-running hosts.
+     * </p>
+     *
+     * @return the number of live cached classes
+     */
+    public static int getReflectionCacheSize() {
+        return ClassMetadata.liveCount();
+    }
+
     /**
      * Returns whether this Lua state is open.
      * <p/>
@@ -652,7 +665,7 @@ public class LuaState {
      * @return the maximum memory consumption
      */
     public int getTotalMemory() {
-        return luaMemoryTotal;
+        return (int) Math.min(Integer.MAX_VALUE, getMemoryLimit());
     }
 
     // -- Life cycle
@@ -666,10 +679,7 @@ public class LuaState {
      * @param value the new maximum memory size this state may allocate
      */
     public void setTotalMemory(int value) {
-        if (luaMemoryTotal < 1) {
-            throw new IllegalStateException("cannot set maximum memory for this state");
-        }
-        luaMemoryTotal = validateMemory(value);
+        setMemoryLimit(value);
     }
 
     /**
@@ -690,7 +700,122 @@ public class LuaState {
         // lower the max memory we can get below used memory, which would be
         // weird; so we just say free memory is zero, which is more intuitive
         // and true at the same time.
-        return Math.max(0, luaMemoryTotal - luaMemoryUsed);
+        final long[] stats = getMemoryStats();
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0, stats[MEMORY_TOTAL] - stats[MEMORY_USED]));
+    }
+
+    /**
+     * Returns the maximum memory consumption of this Lua state, in bytes, or
+     * <code>0</code> if the state does not enforce a maximum.
+     *
+     * @return the maximum memory consumption
+     */
+    public long getMemoryLimit() {
+        return getMemoryStats()[MEMORY_TOTAL];
+    }
+
+    /**
+     * Sets the maximum amount of memory this Lua state may allocate, in bytes.
+     * Unlike {@link #setTotalMemory(int)} this supports limits beyond 2 GB.
+     * The limit can only be set for states using the
+     * {@link LuaAllocator#LIMITED} or {@link LuaAllocator#ARENA} allocator.
+     * The new limit is visible to the allocator immediately and may be set
+     * from any thread.
+     *
+     * @param value the new maximum memory size this state may allocate
+     */
+    public void setMemoryLimit(long value) {
+        validateMemory(value);
+        check();
+        if (lua_setmemorylimit(luaState, value) == 0) {
+            throw new IllegalStateException("cannot set maximum memory for this state");
+        }
+        luaMemoryTotal = value;
+    }
+
+    /**
+     * Returns the raw memory currently allocated by this Lua state, in bytes.
+     * Only tracked for the {@link LuaAllocator#LIMITED} and
+     * {@link LuaAllocator#ARENA} allocators; otherwise returns zero.
+     *
+     * @return the allocated memory
+     */
+    public long getMemoryUsed() {
+        return getMemoryStats()[MEMORY_USED];
+    }
+
+    /**
+     * Returns the highest amount of raw memory allocated by this Lua state so
+     * far, in bytes. Only tracked for the {@link LuaAllocator#LIMITED} and
+     * {@link LuaAllocator#ARENA} allocators.
+     *
+     * @return the high-water mark of the allocated memory
+     */
+    public long getMemoryPeak() {
+        return getMemoryStats()[MEMORY_PEAK];
+    }
+
+    /**
+     * Returns the number of memory blocks allocated by this Lua state so far.
+     * Only tracked for the {@link LuaAllocator#LIMITED} and
+     * {@link LuaAllocator#ARENA} allocators.
+     *
+     * @return the number of allocations
+     */
+    public long getAllocationCount() {
+        return getMemoryStats()[MEMORY_ALLOCATIONS];
+    }
+
+    /**
+     * Returns the allocator of this Lua state.
+     *
+     * @return the allocator
+     */
+    public LuaAllocator getAllocator() {
+        return LuaAllocator.values()[luaAllocator];
+    }
+
+    /**
+     * Returns the slab memory currently held by this Lua state, in bytes. Only
+     * tracked for the {@link LuaAllocator#ARENA} allocator.
+     *
+     * @return the reserved arena memory
+     */
+    public long getArenaReservedMemory() {
+        return getMemoryStats()[MEMORY_RESERVED];
+    }
+
+    /**
+     * Returns the number of slabs currently held by this Lua state. Only
+     * tracked for the {@link LuaAllocator#ARENA} allocator.
+     *
+     * @return the number of arena slabs
+     */
+    public long getArenaSlabCount() {
+        return getMemoryStats()[MEMORY_SLABS];
+    }
+
+    /**
+     * Returns the number of allocation requests of this Lua state refused
+     * because they would have exceeded the maximum memory consumption.
+     *
+     * @return the number of refused allocations
+     */
+    public long getRejectedAllocationCount() {
+        return getMemoryStats()[MEMORY_REJECTED];
+    }
+
+    /**
+     * Returns the allocator counters of this state in one native call, indexed
+     * by the MEMORY_* constants. All counters are zero for states using the
+     * {@link LuaAllocator#SYSTEM} allocator.
+     */
+    private long[] getMemoryStats() {
+        final long[] stats = new long[MEMORY_STATS];
+        if (isOpenInternal()) {
+            lua_memorystats(luaState, stats);
+        }
+        return stats;
     }
 
     // -- Registration
@@ -851,6 +976,85 @@ public class LuaState {
         lua_load(luaThread, inputStream, chunkName.startsWith("=") ? chunkName : "=" + chunkName, mode);
     }
 
+    /**
+     * Loads a Lua chunk from the remaining bytes of a buffer and pushes it on
+     * the stack as a function. The Lua chunk must be either a UTF-8 encoded
+     * source chunk or a pre-compiled binary chunk. The position of the buffer
+     * is not changed.
+     * <p/>
+     * <p>
+     * A direct buffer is parsed in place, without copying it or calling back
+     * into Java. Other buffers are read like an input stream.
+     * </p>
+     *
+     * @param chunk     the buffer containing the chunk
+     * @param chunkName the name of the chunk for use in error messages
+     * @param mode      <code>"t"</code> for source chunks, <code>"b"</code>
+     *                  for binary chunks, <code>"bt"</code> or
+     *                  <code>null</code> for both
+     */
+    public void load(ByteBuffer chunk, String chunkName, String mode) {
+        if (chunkName == null) {
+            throw new NullPointerException();
+        }
+        check();
+        chunkName = chunkName.startsWith("=") ? chunkName : "=" + chunkName;
+        if (chunk.isDirect()) {
+            lua_loadbuffer(luaThread, chunk, chunk.position(), chunk.remaining(), chunkName, mode);
+        } else {
+            final ByteBuffer bytes = chunk.duplicate();
+            try {
+                lua_load(luaThread, new InputStream() {
+                    @Override
+                    public int read() {
+                        return bytes.hasRemaining() ? bytes.get() & 0xff : -1;
+                    }
+
+                    @Override
+                    public int read(byte[] b, int off, int len) {
+                        if (!bytes.hasRemaining()) {
+                            return -1;
+                        }
+                        len = Math.min(len, bytes.remaining());
+                        bytes.get(b, off, len);
+                        return len;
+                    }
+                }, chunkName, mode);
+            } catch (IOException e) {
+                // Reading from a heap buffer does not fail
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Loads a Lua chunk from a file and pushes it on the stack as a function.
+     * The Lua chunk must be either a UTF-8 encoded source chunk or a
+     * pre-compiled binary chunk. The file is read into a direct buffer and
+     * parsed in place. It is not kept open or mapped, so it can be deleted or
+     * rewritten right away on any platform.
+     *
+     * @param file      the file
+     * @param chunkName the name of the chunk for use in error messages
+     * @param mode      <code>"t"</code> for source chunks, <code>"b"</code>
+     *                  for binary chunks, <code>"bt"</code> or
+     *                  <code>null</code> for both
+     * @throws IOException if an IO error occurs
+     */
+    public void load(Path file, String chunkName, String mode) throws IOException {
+        final ByteBuffer chunk;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("file too large: " + file);
+            }
+            chunk = ByteBuffer.allocateDirect((int) size);
+            while (chunk.hasRemaining() && channel.read(chunk) >= 0) ;
+        }
+        chunk.flip();
+        load(chunk, chunkName, mode);
+    }
+
     // -- Call
 
     /**
@@ -882,6 +1086,44 @@ public class LuaState {
         lua_dump(luaThread, outputStream);
     }
 
+    /**
+     * Dumps the function on top of the stack as a pre-compiled binary chunk
+     * into a new direct buffer. The buffer is ready to be read, e.g. by
+     * {@link #load(ByteBuffer, String, String)}.
+     *
+     * @return the buffer containing the binary chunk
+     */
+    public ByteBuffer dump() {
+        check();
+        final ByteBuffer buffer = lua_dumpbuffer(luaThread, null, 0, 0);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Dumps the function on top of the stack as a pre-compiled binary chunk
+     * into a direct buffer, starting at its position. The function is
+     * written in one pass. If the chunk does not fit into the buffer, a new
+     * direct buffer is allocated, containing the bytes of the specified
+     * buffer up to its position followed by the chunk.
+     *
+     * @param buffer the direct buffer, or <code>null</code> to allocate a
+     *               new buffer
+     * @return the buffer containing the binary chunk, with its position
+     * after the chunk
+     * @throws ReadOnlyBufferException if the buffer is read-only
+     */
+    public ByteBuffer dump(ByteBuffer buffer) {
+        check();
+        if (buffer != null) {
+            if (buffer.isReadOnly()) {
+                throw new ReadOnlyBufferException();
+            }
+            return lua_dumpbuffer(luaThread, buffer, buffer.position(), buffer.limit());
+        }
+        return lua_dumpbuffer(luaThread, null, 0, 0);
+    }
+
     /**
      * Calls a Lua function. The function to call and the specified number of
      * arguments are on the stack. After the call, the specified number of
@@ -971,6 +1213,112 @@ public class LuaState {
         else lua_pushbytearray(luaThread, b, b.length);
     }
 
+    /**
+     * Pushes an <code>int</code> array as a new table with the elements at
+     * the keys <code>1</code> to <code>n</code> on the stack.
+     * <p/>
+     * <p>
+     * The table is presized and filled natively in a single call.
+     * </p>
+     *
+     * @param array the array to push
+     */
+    public void pushArray(int[] array) {
+        pushArray(array, PUSH_ARRAY_INT);
+    }
+
+    /**
+     * Pushes a <code>long</code> array as a new table on the stack. Values
+     * beyond 2^53 lose precision as Lua numbers are doubles.
+     *
+     * @param array the array to push
+     * @see #pushArray(int[])
+     */
+    public void pushArray(long[] array) {
+        pushArray(array, PUSH_ARRAY_LONG);
+    }
+
+    /**
+     * Pushes a <code>double</code> array as a new table on the stack.
+     *
+     * @param array the array to push
+     * @see #pushArray(int[])
+     */
+    public void pushArray(double[] array) {
+        pushArray(array, PUSH_ARRAY_DOUBLE);
+    }
+
+    /**
+     * Pushes a <code>float</code> array as a new table on the stack.
+     *
+     * @param array the array to push
+     * @see #pushArray(int[])
+     */
+    public void pushArray(float[] array) {
+        pushArray(array, PUSH_ARRAY_FLOAT);
+    }
+
+    /**
+     * Pushes a <code>boolean</code> array as a new table on the stack.
+     *
+     * @param array the array to push
+     * @see #pushArray(int[])
+     */
+    public void pushArray(boolean[] array) {
+        pushArray(array, PUSH_ARRAY_BOOLEAN);
+    }
+
+    /**
+     * Pushes an array of byte arrays as a new table of strings on the stack.
+     * <code>null</code> elements are left as holes.
+     *
+     * @param array the array to push
+     * @see #pushArray(int[])
+     */
+    public void pushArray(byte[][] array) {
+        pushArray(array, PUSH_ARRAY_BYTES);
+    }
+
+    private void pushArray(Object array, int type) {
+        check();
+        if (array == null) lua_pushnil(luaThread);
+        else lua_pusharray(luaThread, array, type);
+    }
+
+    /**
+     * Pushes a view of the remaining bytes of a direct buffer as a LuaJIT FFI
+     * pointer of type <code>ctype *</code> on the stack. No data is copied;
+     * Lua reads and writes the buffer memory in place. Read-only buffers are
+     * exposed as <code>const ctype *</code>.
+     * <p/>
+     * <p>
+     * The pointer refers to the element at the buffer's position. The buffer
+     * is kept reachable until the pushed cdata is collected, so the memory
+     * stays valid for as long as Lua holds the view. Pointers derived from the
+     * view, such as <code>p + 1</code>, do not keep the buffer alive by
+     * themselves. Bounds are not checked by FFI; scripts must stay within the
+     * returned element count. The element type must have a fixed size, e.g.
+     * <code>uint8_t</code>, <code>double</code> or a declared struct.
+     * </p>
+     * <p/>
+     * <p>
+     * The FFI library must have been opened or be loadable through
+     * <code>require</code>.
+     * </p>
+     *
+     * @param buffer the direct buffer
+     * @param ctype  the C element type
+     * @return the number of complete elements in the view
+     * @throws IllegalArgumentException if the buffer is not direct
+     */
+    public int pushBufferView(ByteBuffer buffer, String ctype) {
+        check();
+        if (!buffer.isDirect()) {
+            throw new IllegalArgumentException("buffer is not direct");
+        }
+        return lua_pushbufferview(luaThread, buffer, buffer.position(), buffer.remaining(), buffer.isReadOnly(), ctype);
+    }
+
     /**
      * Pushes an integer value as a number value on the stack.
      *
@@ -1378,6 +1726,24 @@ public class LuaState {
         return lua_tobytearray(luaThread, index);
     }
 
+    /**
+     * Returns the elements <code>1</code> to <code>n</code> of the table at
+     * the specified stack index as a <code>double</code> array, where
+     * <code>n</code> is the length of the table. Elements that are not
+     * numbers are returned as <code>NaN</code>.
+     * <p/>
+     * <p>
+     * The array is filled natively in a single call.
+     * </p>
+     *
+     * @param index the stack index containing the table
+     * @return the table elements
+     */
+    public double[] toDoubleArray(int index) {
+        check();
+        return lua_todoublearray(luaThread, index);
+    }
+
     public String where(int lv) {
         byte[] bytes = lua_where(luaThread, lv);
         if (bytes == null) return "";
@@ -1735,6 +2101,39 @@ public class LuaState {
         return lua_pushmetafunction(luaThread, className, functionName, javaFunction, callOnAccess);
     }
 
+    /**
+     * Registers the accessors of all fields, methods and constructors of a
+     * class in this Lua state.
+     * <p/>
+     * <p>
+     * Members are otherwise registered lazily: the first access of each member
+     * from Lua calls into Java to resolve it. Preloading resolves all members
+     * in Java and registers them with a single native call, so subsequent
+     * accesses from Lua, on instances as well as on the class, are served
+     * without calling into Java. Members that are already registered are kept.
+     * </p>
+     *
+     * @param clazz the class
+     * @return the number of registered members
+     * @throws IllegalArgumentException if the class is an array class
+     */
+    public int preloadClass(Class<?> clazz) {
+        check();
+        if (clazz.isArray()) {
+            throw new IllegalArgumentException("cannot preload array class " + clazz.getName());
+        }
+        final List<Invoker> invokers = Invoker.getAll(clazz);
+        final int count = invokers.size();
+        final byte[][] names = new byte[count][];
+        final byte[] types = new byte[count];
+        for (int i = 0; i < count; i++) {
+            final Invoker invoker = invokers.get(i);
+            names[i] = invoker.attrBytes;
+            types[i] = invoker.preload();
+        }
+        return lua_preloadclass(luaThread, getCanonicalName(clazz), names, invokers.toArray(new JavaFunction[count]), types);
+    }
+
     /**
      * ========================================================================
      * Set Negative Cache for Non-existent Members
@@ -1975,6 +2374,33 @@ public class LuaState {
         return lua_resume(luaThread, index, argCount);
     }
 
+    /**
+     * Resumes the thread at the specified stack index like
+     * {@link #resume(int, int)}, but preempts it after the specified number of
+     * Lua VM instructions. A preempted thread yields without values and has
+     * the status {@link #YIELD}; it continues where it stopped when it is
+     * resumed without arguments.
+     * <p/>
+     * <p>
+     * The thread is only preempted where it could yield, i.e. not while a
+     * Java function or a metamethod called by it is running, and not while it
+     * runs a coroutine it has resumed itself. Compiled JIT traces do not call
+     * the count hook that preempts the thread, so the traces are flushed and
+     * the JIT compiler is turned off while the thread runs, and turned back
+     * on when it yields or returns.
+     * </p>
+     *
+     * @param index        the stack index containing the thread
+     * @param argCount     the number of arguments to pass
+     * @param instructions the number of instructions after which to preempt
+     *                     the thread
+     * @return the number of values returned by the thread
+     */
+    public int resume(int index, int argCount, int instructions) {
+        check();
+        return lua_resumeslice(luaThread, index, argCount, instructions);
+    }
+
     // -- Reference
 
     /**
@@ -2038,6 +2464,130 @@ public class LuaState {
         lua_unref(luaThread, index, reference);
     }
 
+    /**
+     * Enables or disables the identity cache for Java objects pushed onto the
+     * stack. The cache is disabled by default.
+     * <p/>
+     * <p>
+     * While enabled, pushing a Java object that is still referenced from Lua
+     * pushes the existing userdata instead of creating a new userdata and JNI
+     * global reference. Pushing the same object repeatedly therefore yields
+     * values that are raw equal in Lua. The cache holds its userdata weakly, so
+     * it does not keep objects alive. Java functions are not cached.
+     * Disabling the cache discards its entries.
+     * </p>
+     *
+     * @param enabled whether to cache pushed Java objects
+     */
+    public void setObjectCacheEnabled(boolean enabled) {
+        check();
+        lua_setobjectcache(luaState, enabled);
+    }
+
+    /**
+     * Returns whether the identity cache for pushed Java objects is enabled.
+     *
+     * @return whether pushed Java objects are cached
+     * @see #setObjectCacheEnabled(boolean)
+     */
+    public boolean isObjectCacheEnabled() {
+        check();
+        return lua_isobjectcache(luaState) != 0;
+    }
+
+    /**
+     * Enables or disables the capture of Lua stack traces for errors raised
+     * in this state. Stack traces are captured by default.
+     * <p/>
+     * <p>
+     * Captured stack frames are kept in a compact form and only turned into
+     * {@link LuaStackTraceElement} objects when the trace of a
+     * {@link LuaRuntimeException} is requested. Disabling the capture avoids
+     * walking the Lua stack at all, which helps code that uses errors for
+     * control flow; exceptions then have an empty Lua stack trace.
+     * </p>
+     *
+     * @param enabled whether to capture Lua stack traces
+     */
+    public void setStackTraceEnabled(boolean enabled) {
+        check();
+        lua_setstacktrace(luaState, enabled);
+    }
+
+    /**
+     * Returns whether Lua stack traces are captured for errors.
+     *
+     * @return whether Lua stack traces are captured
+     * @see #setStackTraceEnabled(boolean)
+     */
+    public boolean isStackTraceEnabled() {
+        check();
+        return lua_isstacktrace(luaState) != 0;
+    }
+
+    /**
+     * Sets the execution budget of this Lua state. Once Lua code has run the
+     * specified number of VM instructions, or the specified time has passed,
+     * an error is raised in the running code and a
+     * {@link LuaBudgetExceededException} is thrown to Java. The budget starts
+     * when it is set and applies to all code run in this state, including
+     * coroutines.
+     * <p/>
+     * <p>
+     * The budget is checked by a count hook every 1000 instructions, so code
+     * may overrun it slightly, and time spent in Java functions is only
+     * noticed once Lua code runs again. Compiled JIT traces do not call the
+     * hook, so setting a budget flushes them and turns the JIT compiler off
+     * until the budget is cleared; turning it back on with
+     * <code>jit.on()</code> while the budget is active defeats the budget.
+     * Once exceeded, the error is raised on every instruction, so it cannot
+     * be caught with <code>pcall</code>, and every call into this state fails
+     * until a new budget is set. Without a budget, no hook is installed and
+     * Lua code runs at full speed. The budget replaces a hook set with
+     * <code>debug.sethook</code>.
+     * </p>
+     *
+     * @param instructions the number of instructions, or <code>0</code> for
+     *                     no instruction limit
+     * @param timeout      the time, or <code>null</code> for no time limit
+     */
+    public void setExecutionBudget(long instructions, Duration timeout) {
+        check();
+        if (instructions < 0) {
+            throw new IllegalArgumentException("illegal instruction count");
+        }
+        long micros = 0;
+        if (timeout != null) {
+            if (timeout.isNegative() || timeout.isZero()) {
+                throw new IllegalArgumentException("illegal timeout");
+            }
+            micros = timeout.getSeconds() >= Integer.MAX_VALUE ? Long.MAX_VALUE / 2 : Math.max(1, timeout.getSeconds() * 1000000 + timeout.getNano() / 1000);
+        }
+        lua_setbudget(luaState, instructions, micros);
+    }
+
+    /**
+     * Removes the execution budget of this Lua state. If setting the budget
+     * has turned the JIT compiler off, it is turned back on.
+     *
+     * @see #setExecutionBudget(long, Duration)
+     */
+    public void clearExecutionBudget() {
+        check();
+        lua_setbudget(luaState, 0, 0);
+    }
+
+    /**
+     * Returns whether this Lua state has exceeded its execution budget.
+     *
+     * @return whether the execution budget is exceeded
+     * @see #setExecutionBudget(long, Duration)
+     */
+    public boolean isExecutionBudgetExceeded() {
+        check();
+        return lua_isbudgetexceeded(luaState) != 0;
+    }
+
     // -- Argument checking
 
     /**
@@ -2075,6 +2625,85 @@ public class LuaState {
         lua_tablemove(luaThread, index, from, to, count);
     }
 
+    /**
+     * Copies the entries of a table into a Java map with a single native call.
+     * <p/>
+     * <p>
+     * The table is walked natively and returned as a packed buffer, so
+     * converting a large table does not cost one JNI transition per entry as
+     * iterating a {@link com.naef.jnlua.util.AbstractTableMap} does. Nested
+     * tables are copied into nested maps up to the specified depth; a depth of
+     * <code>0</code> copies the top-level table only, and a negative depth
+     * copies all levels. Tables beyond the depth, tables that refer back to an
+     * enclosing table, functions, threads and userdata other than Java objects
+     * are returned as {@link LuaValueProxy} instances.
+     * </p>
+     * <p>
+     * The key and value classes apply to the top-level entries; numbers are
+     * returned as <code>Long</code> if integral and as <code>Double</code>
+     * otherwise unless converted.
+     * </p>
+     *
+     * @param index      the stack index containing the table
+     * @param depth      the number of nested table levels to copy
+     * @param keyClass   the class of the keys
+     * @param valueClass the class of the values
+     * @return the table entries
+     */
+    public <K, V> Map<K, V> tableSnapshot(int index, int depth, Class<K> keyClass, Class<V> valueClass) {
+        check();
+        final Object[] objects = new Object[1];
+        final ByteBuffer buffer = ByteBuffer.wrap(lua_tablesnapshot(luaThread, index, depth, objects)).order(ByteOrder.nativeOrder());
+        final Object[] javaObjects = (Object[]) objects[0];
+        buffer.get();
+        final int count = buffer.getInt();
+        final Map<K, V> map = new HashMap<>(count * 4 / 3 + 1);
+        for (int i = 0; i < count; i++) {
+            final Object key = snapshotValue(buffer, javaObjects);
+            final Object value = snapshotValue(buffer, javaObjects);
+            map.put(snapshotConvert(key, keyClass), snapshotConvert(value, valueClass));
+        }
+        return map;
+    }
+
+    private Object snapshotValue(ByteBuffer buffer, Object[] objects) {
+        switch (buffer.get()) {
+            case SNAPSHOT_BOOLEAN:
+                return buffer.get() != 0;
+            case SNAPSHOT_NUMBER:
+                return Converter.toNumber(buffer.getDouble());
+            case SNAPSHOT_STRING: {
+                final int length = buffer.getInt();
+                final String s = new String(buffer.array(), buffer.position(), length, UTF8);
+                buffer.position(buffer.position() + length);
+                return s;
+            }
+            case SNAPSHOT_TABLE: {
+                final int count = buffer.getInt();
+                final Map<Object, Object> map = new HashMap<>(count * 4 / 3 + 1);
+                for (int i = 0; i < count; i++) {
+                    final Object key = snapshotValue(buffer, objects);
+                    map.put(key, snapshotValue(buffer, objects));
+                }
+                return map;
+            }
+            case SNAPSHOT_REF:
+                return new LuaValueProxyImpl(buffer.getInt());
+            case SNAPSHOT_JAVAOBJECT:
+                return objects[buffer.getInt()];
+            default:
+                return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T snapshotConvert(Object value, Class<T> clazz) {
+        if (value == null || clazz == Object.class || clazz.isInstance(value)) {
+            return (T) value;
+        }
+        return NumberUtils.convert(value, clazz);
+    }
+
     /**
      * Checks if a condition is true for the specified function argument. If
      * not, the method throws a Lua runtime exception with the specified error
@@ -2435,6 +3064,14 @@ public class LuaState {
      * from the interfaces as keys and the Lua functions implementing the
      * interface methods as values. The returned object always implements the
      * {@link LuaValueProxy} interface in addition to the specified interfaces.
+     * <p/>
+     * <p>
+     * A single public interface is implemented by a generated class that
+     * resolves the Lua functions once when the proxy is created; see
+     * {@link LuaInterfaceProxy}. Other interfaces use
+     * <code>java.lang.reflect.Proxy</code>, which looks up the function on
+     * every call.
+     * </p>
      *
      * @param index      the stack index containing the table
      * @param interfaces the interfaces
@@ -2451,6 +3088,12 @@ public class LuaState {
         allInterfaces[allInterfaces.length - 1] = LuaValueProxy.class;
         int reference = ref(REGISTRYINDEX);
         try {
+            final LuaProxyFactory factory = interfaces.length == 1 ? LuaProxyFactory.of(interfaces[0]) : null;
+            if (factory != null) {
+                final LuaValueProxy table = new LuaValueProxyImpl(reference);
+                reference = -1;
+                return factory.newProxy(table);
+            }
             Object proxy = Proxy.newProxyInstance(classLoader, allInterfaces, new LuaInvocationHandler(reference));
             reference = -1;
             return (LuaValueProxy) proxy;
@@ -2540,14 +3183,34 @@ public class LuaState {
 
     final private native int lua_gc(long T, int what, int data);
 
+    final private native int lua_memorystats(long T, long[] stats);
+
+    final private native int lua_setmemorylimit(long T, long total);
+
+    final private native void lua_setobjectcache(long T, boolean enabled);
+
+    final private native int lua_isobjectcache(long T);
+
+    final private native void lua_setstacktrace(long T, boolean enabled);
+
+    final private native int lua_isstacktrace(long T);
+
+    final private native void lua_setbudget(long T, long instructions, long micros);
+
+    final private native int lua_isbudgetexceeded(long T);
+
     final private native void lua_openlib(long T, int lib);
 
     final private native void lua_openlibs(long L);
 
     final private native void lua_load(long T, InputStream inputStream, String chunkname, String mode) throws IOException;
 
+    final private native void lua_loadbuffer(long T, ByteBuffer buffer, int position, int length, String chunkname, String mode);
+
     final private native void lua_dump(long T, OutputStream outputStream) throws IOException;
 
+    final private native ByteBuffer lua_dumpbuffer(long T, ByteBuffer buffer, int position, int limit);
+
     final private native int lua_call(long T, int nargs, int nresults);
 
     final private native int lua_getglobal(long T, byte[] name);
@@ -2558,6 +3221,8 @@ public class LuaState {
 
     final private native void lua_pushbytearray(long T, byte[] b, int len);
 
+    final private native void lua_pusharray(long T, Object array, int type);
+
     final private native void lua_pushinteger(long T, long n);
 
     final private native void lua_pushjavafunction(long T, JavaFunction f, byte[] funcName);
@@ -2608,6 +3273,10 @@ public class LuaState {
 
     final private native byte[] lua_tobytearray(long T, int index);
 
+    final private native double[] lua_todoublearray(long T, int index);
+
+    final private native int lua_pushbufferview(long T, ByteBuffer buffer, int position, int length, boolean readOnly, String ctype);
+
     final private native long lua_tointeger(long T, int index);
 
     final private native Long lua_tointegerx(long T, int index);
@@ -2686,6 +3355,8 @@ public class LuaState {
 
     final private native int lua_resume(long T, int index, int nargs);
 
+    final private native int lua_resumeslice(long T, int index, int nargs, int count);
+
     final private native int lua_status(long T, int index);
 
     final private native int lua_yield(long T, int nresults);
@@ -2704,17 +3375,21 @@ public class LuaState {
 
     final private native int lua_tablesize(long T, int index);
 
+    final private native byte[] lua_tablesnapshot(long T, int index, int depth, Object[] objects);
+
     final private native void lua_tablemove(long T, int index, int from, int to, int count);
 
     final private native byte[] lua_where(long T, int lv);
 
     final private native int lua_pushmetafunction(final long T, final byte[] className, final byte[] functionName, final JavaFunction functionObject, final byte callOnAccess);
 
+    final private native int lua_preloadclass(final long T, final byte[] className, final byte[][] functionNames, final JavaFunction[] functionObjects, final byte[] callTypes);
+
     final private native void lua_set_negative_cache(final long T, final byte[] className, final byte[] key);
 
     final private native void lua_newstate_done(long T);
 
-    final private native void lua_table_pair_init(final long T, Object[] keyPair, byte[] types, Object[] paramArgs, byte[] paramTypes);
+    final private native void lua_table_pair_init(final long T, Object[] keyPair, byte[] types, Object[] paramArgs, byte[] paramTypes, ByteBuffer paramBuffer);
 
     final private native void lua_table_pair_push(final long T, int index, int options);
 
@@ -2750,12 +3425,93 @@ public class LuaState {
     protected final Object[] paramArgs = new Object[33];  // Function call arguments buffer (max 32 args + 1 yield flag)
     protected final byte[] paramTypes = new byte[33];     // Lua type IDs for paramArgs elements
 
+    /**
+     * Layout of {@link #paramBuffer}, must be kept in sync with the DIRECT_ARGS_* defines in jnlua.c.
+     * Arguments 0..31 of type NUMBER, BOOLEAN and (short) STRING are written by the JNI side into an
+     * 8-byte slot each instead of paramArgs; bit i of the mask tells whether argument i is in the buffer.
+     */
+    static final int PARAM_BUFFER_MASK = 264;
+    static final int PARAM_BUFFER_ENABLED = 268;
+    static final int PARAM_BUFFER_STRINGS = 272;
+    static final int PARAM_BUFFER_SIZE = 4096;
+    /**
+     * Value tags of the {@link #tableSnapshot(int, int, Class, Class)} buffer, must be kept in sync with
+     * the SNAPSHOT_* defines in jnlua.c.
+     */
+    private static final byte SNAPSHOT_BOOLEAN = 1;
+    private static final byte SNAPSHOT_NUMBER = 3;
+    private static final byte SNAPSHOT_STRING = 4;
+    private static final byte SNAPSHOT_TABLE = 5;
+    private static final byte SNAPSHOT_REF = 9;
+    private static final byte SNAPSHOT_JAVAOBJECT = 10;
+    /**
+     * Layout of the allocator counters returned by lua_memorystats, must be kept in sync with the
+     * LuaMemory struct in jnlua.c.
+     */
+    private static final int MEMORY_TOTAL = 0;
+    private static final int MEMORY_USED = 1;
+    private static final int MEMORY_PEAK = 2;
+    private static final int MEMORY_ALLOCATIONS = 3;
+    private static final int MEMORY_REJECTED = 5;
+    private static final int MEMORY_RESERVED = 6;
+    private static final int MEMORY_SLABS = 7;
+    private static final int MEMORY_STATS = 8;
+    /**
+     * Element types of {@link #pushArray(Object, int)}, must be kept in sync with the PUSHARRAY_* defines
+     * in jnlua.c.
+     */
+    private static final int PUSH_ARRAY_INT = 1;
+    private static final int PUSH_ARRAY_LONG = 2;
+    private static final int PUSH_ARRAY_DOUBLE = 3;
+    private static final int PUSH_ARRAY_FLOAT = 4;
+    private static final int PUSH_ARRAY_BOOLEAN = 5;
+    private static final int PUSH_ARRAY_BYTES = 6;
+    /**
+     * Direct buffer for passing primitive function arguments from Lua to Java without per-argument JNI
+     * calls. Registered once with the JNI side in {@link #pairInit()}.
+     */
+    protected final ByteBuffer paramBuffer = ByteBuffer.allocateDirect(PARAM_BUFFER_SIZE).order(ByteOrder.nativeOrder());
+    private final byte[] paramStringBuffer = new byte[PARAM_BUFFER_SIZE - PARAM_BUFFER_STRINGS];
+
     public final void pairInit() {
         check();
         keyPair = new Object[2];
         keyTypes = new byte[2];
+        paramBuffer.putInt(PARAM_BUFFER_ENABLED, 1);
+
+        lua_table_pair_init(luaThread, keyPair, keyTypes, paramArgs, paramTypes, paramBuffer);
+    }
 
-        lua_table_pair_init(luaThread, keyPair, keyTypes, paramArgs, paramTypes);
+    /**
+     * Sets whether numbers, booleans and short strings passed from Lua to Java functions are
+     * transferred through a shared direct buffer rather than one Java object per argument. The
+     * direct mode is enabled by default.
+     *
+     * @param enabled whether to use the direct buffer
+     */
+    public void setDirectArgs(boolean enabled) {
+        paramBuffer.putInt(PARAM_BUFFER_ENABLED, enabled ? 1 : 0);
+    }
+
+    /**
+     * Returns whether function arguments are transferred through the direct buffer.
+     *
+     * @return whether the direct mode is enabled
+     * @see #setDirectArgs(boolean)
+     */
+    public boolean isDirectArgs() {
+        return paramBuffer.getInt(PARAM_BUFFER_ENABLED) != 0;
+    }
+
+    /**
+     * Decodes the string stored in the direct argument buffer slot.
+     */
+    final String paramBufferString(long slot) {
+        final int length = (int) slot;
+        final ByteBuffer bytes = paramBuffer.duplicate();
+        bytes.position((int) (slot >>> 32));
+        bytes.get(paramStringBuffer, 0, length);
+        return new String(paramStringBuffer, 0, length, UTF8);
     }
 
     public final static int PAIR_POP = 1;
@@ -0,0 +1,54 @@
+package com.naef.jnlua;
+
+/**
+ * A Lua function implemented in Java that takes a string and returns an
+ * integer.
+ * <p/>
+ * <p>
+ * When called from Lua, the function is invoked through a dedicated JNI entry
+ * point that passes the UTF-8 bytes of the argument and returns a primitive
+ * long. No argument arrays are filled and the result is not boxed. A missing
+ * argument raises a Lua error; numbers are converted to strings.
+ * </p>
+ */
+public abstract class StringToLongJavaFunction extends JavaFunction {
+    // -- Construction
+
+    /**
+     * Creates a new instance.
+     */
+    protected StringToLongJavaFunction() {
+    }
+
+    /**
+     * Creates a new instance with the specified name.
+     *
+     * @param name the function name
+     */
+    protected StringToLongJavaFunction(String name) {
+        setName(name);
+    }
+
+    // -- Operations
+
+    /**
+     * Invokes this function.
+     *
+     * @param value the argument
+     * @return the result
+     */
+    public abstract long call(String value);
+
+    @Override
+    public void call(LuaState luaState, Object[] args) {
+        LuaState.checkArg(args.length >= 1 && args[0] != null, "string expected");
+        luaState.pushJavaFunctionResult(call(args[0].toString()));
+    }
+
+    /**
+     * JNI entry point.
+     */
+    private long JNI_call(final byte[] value) {
+        return call(new String(value, LuaState.UTF8));
+    }
+}
@@ -4,36 +4,43 @@
  */
 package com.naef.jnlua.script;
 
+import com.naef.jnlua.LuaValueProxy;
+
 import javax.script.CompiledScript;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
-import java.io.ByteArrayInputStream;
 
 /**
  * Compiled script implementation conforming to JSR 223: Scripting for the Java
  * Platform.
+ * <p/>
+ * <p>
+ * The chunk is loaded once when the script is compiled and kept in the
+ * registry of the engine's Lua state, so evaluation only pushes the function
+ * and calls it.
+ * </p>
  */
 class CompiledLuaScript extends CompiledScript {
     // -- State
     private final LuaScriptEngine engine;
-    private final byte[] script;
+    private final LuaValueProxy function;
 
     // -- Construction
 
     /**
      * Creates a new instance.
      */
-    public CompiledLuaScript(LuaScriptEngine engine, byte[] script) {
+    public CompiledLuaScript(LuaScriptEngine engine, LuaValueProxy function) {
         this.engine = engine;
-        this.script = script;
+        this.function = function;
     }
 
     // -- CompiledScript methods
     @Override
     public Object eval(ScriptContext context) throws ScriptException {
         synchronized (engine.getLuaState()) {
-            engine.loadChunk(new ByteArrayInputStream(script), context);
+            function.pushValue();
             return engine.callChunk(context);
         }
     }
@@ -6,6 +6,7 @@ package com.naef.jnlua.script;
 
 import com.naef.jnlua.LuaException;
 import com.naef.jnlua.LuaState;
+import com.naef.jnlua.LuaValueProxy;
 
 import javax.script.*;
 import java.io.*;
@@ -13,6 +14,10 @@ import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -30,6 +35,12 @@ class LuaScriptEngine extends AbstractScriptEngine implements Compilable, Invoca
     // -- State
     private final LuaScriptEngineFactory factory;
     private final LuaState luaState;
+    /**
+     * Directory of the on-disk bytecode cache for compiled scripts, or
+     * <code>null</code> if disabled. Cache files are named by a hash of the
+     * Lua version, the JNLua version and the source.
+     */
+    private final File bytecodeCache;
 
     // -- Construction
 
@@ -39,6 +50,7 @@ class LuaScriptEngine extends AbstractScriptEngine implements Compilable, Invoca
     LuaScriptEngine(LuaScriptEngineFactory factory) {
         super();
         this.factory = factory;
+        bytecodeCache = factory.getBytecodeCache();
         luaState = new LuaState();
 
         // Configuration
@@ -80,30 +92,34 @@ class LuaScriptEngine extends AbstractScriptEngine implements Compilable, Invoca
     // -- Compilable method
     @Override
     public CompiledScript compile(String script) throws ScriptException {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
         synchronized (luaState) {
-            loadChunk(script, null);
+            final File cacheFile = bytecodeCache != null ? new File(bytecodeCache, getCacheKey(script) + ".luac") : null;
+            if (cacheFile == null || !loadCachedChunk(cacheFile)) {
+                loadChunk(script, null);
+                if (cacheFile != null) {
+                    writeCachedChunk(cacheFile);
+                }
+            }
             try {
-                dumpChunk(out);
+                return new CompiledLuaScript(this, luaState.getProxy(-1));
             } finally {
                 luaState.pop(1);
             }
         }
-        return new CompiledLuaScript(this, out.toByteArray());
     }
 
     @Override
     public CompiledScript compile(Reader script) throws ScriptException {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        synchronized (luaState) {
-            loadChunk(script, null);
-            try {
-                dumpChunk(out);
-            } finally {
-                luaState.pop(1);
+        StringBuilder sb = new StringBuilder();
+        char[] buffer = new char[4096];
+        try {
+            for (int n; (n = script.read(buffer)) >= 0; ) {
+                sb.append(buffer, 0, n);
             }
+        } catch (IOException e) {
+            throw new ScriptException(e);
         }
-        return new CompiledLuaScript(this, out.toByteArray());
+        return compile(sb.toString());
     }
 
     // -- Invocable methods
@@ -214,8 +230,17 @@ class LuaScriptEngine extends AbstractScriptEngine implements Compilable, Invoca
      * Loads a chunk from an input stream.
      */
     void loadChunk(InputStream inputStream, ScriptContext scriptContext) throws ScriptException {
+        loadChunk(inputStream, scriptContext, "t");
+    }
+
+    /**
+     * Loads a chunk from an input stream with the specified mode, i.e.
+     * <code>"t"</code> for source, <code>"b"</code> for binary or
+     * <code>"bt"</code> for both.
+     */
+    void loadChunk(InputStream inputStream, ScriptContext scriptContext, String mode) throws ScriptException {
         try {
-            luaState.load(inputStream, getChunkName(scriptContext), "t");
+            luaState.load(inputStream, getChunkName(scriptContext), mode);
         } catch (LuaException e) {
             throw getScriptException(e);
         } catch (IOException e) {
@@ -295,6 +320,62 @@ class LuaScriptEngine extends AbstractScriptEngine implements Compilable, Invoca
 
     // -- Private methods
 
+    /**
+     * Loads a cached binary chunk. Returns <code>false</code> if there is no
+     * usable cache entry.
+     */
+    private boolean loadCachedChunk(File cacheFile) {
+        if (!cacheFile.isFile()) {
+            return false;
+        }
+        try (InputStream in = new BufferedInputStream(new FileInputStream(cacheFile))) {
+            loadChunk(in, null, "b");
+            return true;
+        } catch (IOException | ScriptException e) {
+            // Unreadable or stale entry, fall back to the source
+            return false;
+        }
+    }
+
+    /**
+     * Writes the chunk on top of the stack to the bytecode cache. Failures are
+     * ignored as the cache is an optimization only.
+     */
+    private void writeCachedChunk(File cacheFile) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            dumpChunk(out);
+            bytecodeCache.mkdirs();
+            File tmp = File.createTempFile(cacheFile.getName(), ".tmp", bytecodeCache);
+            try {
+                Files.write(tmp.toPath(), out.toByteArray());
+                Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                tmp.delete();
+            }
+        } catch (IOException | ScriptException e) {
+            // Ignore
+        }
+    }
+
+    /**
+     * Returns the bytecode cache key of a script.
+     */
+    private static String getCacheKey(String script) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((LuaState.LUA_VERSION + '\0' + LuaState.VERSION + '\0').getBytes(LuaState.UTF8));
+            byte[] hash = digest.digest(script.getBytes(LuaState.UTF8));
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     /**
      * Sets a single binding in a Lua state.
      */
@@ -8,6 +8,7 @@ import com.naef.jnlua.LuaState;
 
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineFactory;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -45,6 +46,9 @@ public class LuaScriptEngineFactory implements ScriptEngineFactory {
         NAMES = Collections.unmodifiableList(names);
     }
 
+    // -- State
+    private volatile File bytecodeCache = getDefaultBytecodeCache();
+
     // -- Construction
 
     /**
@@ -53,6 +57,31 @@ public class LuaScriptEngineFactory implements ScriptEngineFactory {
     public LuaScriptEngineFactory() {
     }
 
+    // -- Properties
+
+    /**
+     * Returns the directory of the on-disk bytecode cache used by the script
+     * engines of this factory for compiled scripts.
+     *
+     * @return the cache directory, or <code>null</code> if the cache is
+     * disabled
+     */
+    public File getBytecodeCache() {
+        return bytecodeCache;
+    }
+
+    /**
+     * Sets the directory of the on-disk bytecode cache used by script engines
+     * subsequently created by this factory. The default is taken from the
+     * <code>com.naef.jnlua.script.bytecodeCache</code> system property.
+     *
+     * @param bytecodeCache the cache directory, or <code>null</code> to
+     *                      disable the cache
+     */
+    public void setBytecodeCache(File bytecodeCache) {
+        this.bytecodeCache = bytecodeCache;
+    }
+
     // -- ScriptEngineFactory methods
     @Override
     public String getEngineName() {
@@ -172,6 +201,15 @@ public class LuaScriptEngineFactory implements ScriptEngineFactory {
 
     // --Private methods
 
+    /**
+     * Returns the bytecode cache directory configured by the
+     * <code>com.naef.jnlua.script.bytecodeCache</code> system property.
+     */
+    private static File getDefaultBytecodeCache() {
+        String dir = System.getProperty(LuaScriptEngineFactory.class.getPackage().getName() + ".bytecodeCache");
+        return dir != null && !dir.isEmpty() ? new File(dir) : null;
+    }
+
     /**
      * Quotes a string in double quotes.
      */
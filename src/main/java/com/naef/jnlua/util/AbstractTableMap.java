@@ -46,6 +46,27 @@ public class AbstractTableMap<K, V> extends AbstractMap<K, V> implements LuaValu
         if (luaValueProxy != this) luaValueProxy.unRef();
     }
 
+    /**
+     * Copies the table into a Java map with a single native call, see
+     * {@link LuaState#tableSnapshot(int, int, Class, Class)}. Unlike
+     * {@link #toJavaObject()}, nested tables are copied into snapshot maps,
+     * functions and other Lua values are returned as {@link LuaValueProxy}
+     * instances and integral numbers are returned as <code>Long</code>.
+     *
+     * @return the table entries
+     */
+    public Map<K, V> toSnapshot() {
+        if (luaValueProxy == this) {
+            return new HashMap<>();
+        }
+        pushValue();
+        try {
+            return luaState.tableSnapshot(-1, -1, keyClass, valueClass);
+        } finally {
+            luaState.pop(1);
+        }
+    }
+
     public AbstractMap<K, V> toJavaObject() {
         HashMap<K, V> newMap = new HashMap<>(size());
         for (Map.Entry<K, V> entry : entrySet()) {
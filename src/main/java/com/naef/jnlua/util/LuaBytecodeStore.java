@@ -0,0 +1,271 @@
+package com.naef.jnlua.util;
+
+import com.naef.jnlua.LuaState;
+import com.naef.jnlua.LuaSyntaxException;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A content-addressed store of pre-compiled Lua chunks shared by Lua states.
+ * <p/>
+ * <p>
+ * The first load of a source chunk through the store parses it and keeps the
+ * binary chunk in a direct buffer, keyed by a SHA-256 digest of the chunk
+ * name and the source. Later loads of the same chunk, by any Lua state, read
+ * the binary chunk in place instead of parsing the source again. This speeds
+ * up creating many Lua states that load the same libraries, for example in a
+ * {@link LuaStatePool} initializer.
+ * </p>
+ * <p/>
+ * <p>
+ * Binary chunks are specific to the LuaJIT build of the process and are not
+ * meant to be persisted. If a Lua state cannot load a stored binary chunk,
+ * the source is loaded instead. The store holds a bounded number of chunks,
+ * each in a direct buffer of its exact size; when it is full, the least
+ * recently used chunk is evicted and parsed again on its next load. The
+ * store is thread-safe.
+ * </p>
+ * <p/>
+ * <pre>
+ * LuaBytecodeStore.getShared().load(luaState, librarySource, "=library");
+ * luaState.call(0, 0);
+ * </pre>
+ */
+public class LuaBytecodeStore {
+    // -- Static
+    /**
+     * The default maximum number of stored binary chunks.
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+    private static final LuaBytecodeStore SHARED = new LuaBytecodeStore();
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    // -- State
+    private final int capacity;
+    private final Map<String, ByteBuffer> chunks;
+
+    // -- Metrics
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong fallbackCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong size = new AtomicLong();
+
+    // -- Construction
+
+    /**
+     * Creates a new instance holding up to {@link #DEFAULT_CAPACITY} binary
+     * chunks.
+     */
+    public LuaBytecodeStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param capacity the maximum number of stored binary chunks
+     * @throws IllegalArgumentException if the capacity is not positive
+     */
+    public LuaBytecodeStore(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("illegal capacity");
+        }
+        this.capacity = capacity;
+        chunks = new LinkedHashMap<String, ByteBuffer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ByteBuffer> eldest) {
+                if (size() <= LuaBytecodeStore.this.capacity) {
+                    return false;
+                }
+                size.addAndGet(-eldest.getValue().capacity());
+                evictionCount.incrementAndGet();
+                return true;
+            }
+        };
+    }
+
+    // -- Static methods
+
+    /**
+     * Returns the store shared by the whole process.
+     *
+     * @return the shared store
+     */
+    public static LuaBytecodeStore getShared() {
+        return SHARED;
+    }
+
+    // -- Properties
+
+    /**
+     * Returns the number of stored binary chunks.
+     *
+     * @return the number of chunks
+     */
+    public int getCount() {
+        synchronized (chunks) {
+            return chunks.size();
+        }
+    }
+
+    /**
+     * Returns the maximum number of stored binary chunks.
+     *
+     * @return the capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the total size of the stored binary chunks.
+     *
+     * @return the size in bytes
+     */
+    public long getSize() {
+        return size.get();
+    }
+
+    /**
+     * Returns the number of binary chunks evicted to stay within the
+     * capacity.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Returns the number of loads served from a stored binary chunk.
+     *
+     * @return the number of hits
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns the number of loads that have parsed the source and stored the
+     * binary chunk.
+     *
+     * @return the number of misses
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Returns the number of loads that have parsed the source because the
+     * stored binary chunk could not be loaded.
+     *
+     * @return the number of fallbacks
+     */
+    public long getFallbackCount() {
+        return fallbackCount.get();
+    }
+
+    // -- Operations
+
+    /**
+     * Loads a Lua source chunk and pushes it on the stack of a Lua state as a
+     * function, like {@link LuaState#load(String, String)}. The binary chunk
+     * is taken from the store or added to it.
+     *
+     * @param luaState  the Lua state
+     * @param chunk     the Lua source chunk
+     * @param chunkName the name of the chunk for use in error messages
+     */
+    public void load(LuaState luaState, String chunk, String chunkName) {
+        final String key = digest(chunk, chunkName);
+        final ByteBuffer bytecode = lookup(key);
+        if (bytecode != null) {
+            try {
+                luaState.load(bytecode.duplicate(), chunkName, "b");
+                hitCount.incrementAndGet();
+                return;
+            } catch (LuaSyntaxException e) {
+                fallbackCount.incrementAndGet();
+            }
+            luaState.load(chunk, chunkName);
+            return;
+        }
+        luaState.load(chunk, chunkName);
+        missCount.incrementAndGet();
+        // Copy out of the grown dump buffer, which is up to twice as large
+        final ByteBuffer dumped = luaState.dump();
+        final ByteBuffer stored = ByteBuffer.allocateDirect(dumped.remaining());
+        stored.put(dumped);
+        stored.flip();
+        synchronized (chunks) {
+            if (chunks.putIfAbsent(key, stored.asReadOnlyBuffer()) == null) {
+                size.addAndGet(stored.capacity());
+            }
+        }
+    }
+
+    /**
+     * Returns the stored binary chunk of a Lua source chunk.
+     *
+     * @param chunk     the Lua source chunk
+     * @param chunkName the name of the chunk
+     * @return a read-only buffer containing the binary chunk, or
+     * <code>null</code> if the chunk is not stored
+     */
+    public ByteBuffer get(String chunk, String chunkName) {
+        final ByteBuffer bytecode = lookup(digest(chunk, chunkName));
+        return bytecode != null ? bytecode.duplicate() : null;
+    }
+
+    /**
+     * Removes all binary chunks and resets the metrics.
+     */
+    public void clear() {
+        synchronized (chunks) {
+            chunks.clear();
+            size.set(0);
+        }
+        hitCount.set(0);
+        missCount.set(0);
+        fallbackCount.set(0);
+        evictionCount.set(0);
+    }
+
+    // -- Private methods
+
+    /**
+     * Returns the stored binary chunk of a key and marks it as recently used.
+     */
+    private ByteBuffer lookup(String key) {
+        synchronized (chunks) {
+            return chunks.get(key);
+        }
+    }
+
+    /**
+     * Returns the hex encoded SHA-256 digest of a chunk name and a chunk.
+     */
+    private static String digest(String chunk, String chunkName) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(chunkName.getBytes(LuaState.UTF8));
+        digest.update((byte) 0);
+        final byte[] hash = digest.digest(chunk.getBytes(LuaState.UTF8));
+        final char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xf];
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,672 @@
+package com.naef.jnlua.util;
+
+import com.naef.jnlua.JavaFunction;
+import com.naef.jnlua.LuaException;
+import com.naef.jnlua.LuaState;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Runs Lua coroutines as tasks on a single Lua state and suspends them while
+ * they wait for asynchronous Java calls.
+ * <p/>
+ * <p>
+ * Ready tasks are resumed round-robin. If a time slice is set, a task is
+ * preempted after running that many Lua VM instructions and queued behind the
+ * other ready tasks, so a long-running task cannot hold back the short ones.
+ * See {@link LuaState#resume(int, int, int)} for where preemption can happen.
+ * The scheduler records the run time of each task and the throughput and
+ * latency of all tasks.
+ * </p>
+ * <p/>
+ * <p>
+ * Functions registered with {@link #register(String, AsyncFunction)} return a
+ * <code>CompletionStage</code>. When such a function is called from a task
+ * and the stage has not completed yet, the coroutine yields and the scheduler
+ * resumes other tasks. When the stage completes, the coroutine is resumed
+ * with its value, or an error is raised in the coroutine if the stage
+ * completed exceptionally. Called outside of a task, the function waits for
+ * the stage.
+ * </p>
+ * <p/>
+ * <p>
+ * Blocking Java code can be moved off the Lua thread with
+ * {@link #registerBlocking(String, Executor, BlockingFunction)}. On Java 21
+ * and later, an executor creating a virtual thread per task keeps the number
+ * of OS threads low even with thousands of pending calls.
+ * </p>
+ * <p/>
+ * <p>
+ * The scheduler is confined to one thread, like its Lua state; only the
+ * completion of the stages may happen on other threads. The Lua state must
+ * have the base and coroutine libraries opened.
+ * </p>
+ * <p/>
+ * <pre>
+ * LuaScheduler scheduler = new LuaScheduler(luaState);
+ * scheduler.register("fetch", L -&gt; client.getAsync(L.checkString(1)));
+ * luaState.load("return fetch(...)", "=request");
+ * LuaScheduler.Task task = scheduler.spawn(url);
+ * scheduler.run();
+ * Object[] results = task.getResult().get();
+ * </pre>
+ */
+public class LuaScheduler {
+    // -- Static
+    /**
+     * Creates the weak set of task coroutines and returns it with a function
+     * wrapping asynchronous Java functions. The wrapper tells the Java
+     * function whether it runs in a task and raises the errors of failed
+     * calls.
+     */
+    private static final String INIT_CHUNK = "local error, running = error, coroutine.running\n"
+            + "local tasks = setmetatable({}, { __mode = 'k' })\n"
+            + "return tasks, function(f)\n"
+            + "  return function(...)\n"
+            + "    local ok, v = f(tasks[running()] == true, ...)\n"
+            + "    if ok then return v end\n"
+            + "    error(v, 2)\n"
+            + "  end\n"
+            + "end\n";
+
+    // -- State
+    private final LuaState luaState;
+    private final int tasksRef;
+    private final int wrapRef;
+    private final ArrayDeque<Task> ready = new ArrayDeque<>();
+    private final BlockingQueue<Task> completed = new LinkedBlockingQueue<>();
+    private Task current;
+    private int taskCount;
+    private int timeSlice;
+
+    // -- Metrics
+    private final AtomicLong spawnCount = new AtomicLong();
+    private final AtomicLong completeCount = new AtomicLong();
+    private final AtomicLong failCount = new AtomicLong();
+    private final AtomicLong resumeCount = new AtomicLong();
+    private final AtomicLong yieldCount = new AtomicLong();
+    private final AtomicLong suspendCount = new AtomicLong();
+    private final AtomicLong runNanos = new AtomicLong();
+    private final AtomicLong latencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    /**
+     * Finished tasks by latency, in buckets of powers of two nanoseconds.
+     */
+    private final AtomicLongArray latencyHistogram = new AtomicLongArray(64);
+
+    // -- Construction
+
+    /**
+     * Creates a new scheduler.
+     *
+     * @param luaState the Lua state to run the tasks on
+     */
+    public LuaScheduler(LuaState luaState) {
+        this.luaState = luaState;
+        luaState.load(INIT_CHUNK, "=LuaScheduler.init");
+        luaState.call(0, 2);
+        wrapRef = luaState.ref(LuaState.REGISTRYINDEX);
+        tasksRef = luaState.ref(LuaState.REGISTRYINDEX);
+    }
+
+    // -- Properties
+
+    /**
+     * Returns the Lua state of this scheduler.
+     *
+     * @return the Lua state
+     */
+    public LuaState getLuaState() {
+        return luaState;
+    }
+
+    /**
+     * Returns the number of tasks that have not finished yet.
+     *
+     * @return the number of tasks
+     */
+    public int getTaskCount() {
+        return taskCount;
+    }
+
+    /**
+     * Returns the number of tasks ready to be resumed.
+     *
+     * @return the number of ready tasks
+     */
+    public int getReadyCount() {
+        return ready.size() + completed.size();
+    }
+
+    /**
+     * Returns the number of Lua VM instructions after which a task is
+     * preempted.
+     *
+     * @return the time slice, or <code>0</code> if tasks are not preempted
+     */
+    public int getTimeSlice() {
+        return timeSlice;
+    }
+
+    /**
+     * Sets the number of Lua VM instructions after which a task is preempted.
+     * Tasks run with the JIT compiler turned off while a time slice is set,
+     * as compiled code cannot be preempted.
+     *
+     * @param timeSlice the time slice, or <code>0</code> to run each task
+     *                  until it yields or waits
+     */
+    public void setTimeSlice(int timeSlice) {
+        if (timeSlice < 0) {
+            throw new IllegalArgumentException("illegal time slice");
+        }
+        this.timeSlice = timeSlice;
+    }
+
+    /**
+     * Returns the number of spawned tasks.
+     *
+     * @return the number of tasks
+     */
+    public long getSpawnCount() {
+        return spawnCount.get();
+    }
+
+    /**
+     * Returns the number of tasks that have returned.
+     *
+     * @return the number of completed tasks
+     */
+    public long getCompleteCount() {
+        return completeCount.get();
+    }
+
+    /**
+     * Returns the number of tasks that have raised an error.
+     *
+     * @return the number of failed tasks
+     */
+    public long getFailCount() {
+        return failCount.get();
+    }
+
+    /**
+     * Returns the number of times a task has been resumed.
+     *
+     * @return the number of resumes
+     */
+    public long getResumeCount() {
+        return resumeCount.get();
+    }
+
+    /**
+     * Returns the number of times a task has been preempted or has yielded
+     * and was queued as ready again.
+     *
+     * @return the number of yields
+     */
+    public long getYieldCount() {
+        return yieldCount.get();
+    }
+
+    /**
+     * Returns the number of times a task has been suspended waiting for an
+     * asynchronous call.
+     *
+     * @return the number of suspensions
+     */
+    public long getSuspendCount() {
+        return suspendCount.get();
+    }
+
+    /**
+     * Returns the accumulated time the tasks have been running.
+     *
+     * @param unit the time unit of the result
+     * @return the run time
+     */
+    public long getRunTime(TimeUnit unit) {
+        return unit.convert(runNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the mean time from spawning a task until it has finished.
+     *
+     * @param unit the time unit of the result
+     * @return the mean latency, or <code>0</code> if no task has finished
+     */
+    public long getMeanLatency(TimeUnit unit) {
+        final long count = completeCount.get() + failCount.get();
+        return count == 0 ? 0 : unit.convert(latencyNanos.get() / count, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the longest time from spawning a task until it has finished.
+     *
+     * @param unit the time unit of the result
+     * @return the maximum latency
+     */
+    public long getMaxLatency(TimeUnit unit) {
+        return unit.convert(maxLatencyNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns an upper bound of the latency below which the specified share
+     * of the finished tasks lies. The bound is rounded up to a power of two
+     * nanoseconds.
+     *
+     * @param percentile the percentile, between <code>0</code> and
+     *                   <code>100</code>
+     * @param unit       the time unit of the result
+     * @return the latency percentile, or <code>0</code> if no task has
+     * finished
+     */
+    public long getLatencyPercentile(double percentile, TimeUnit unit) {
+        long total = 0;
+        for (int i = 0; i < latencyHistogram.length(); i++) {
+            total += latencyHistogram.get(i);
+        }
+        final long rank = (long) Math.ceil(total * percentile / 100);
+        long count = 0;
+        for (int i = 0; i < latencyHistogram.length(); i++) {
+            count += latencyHistogram.get(i);
+            if (count >= rank && count > 0) {
+                return unit.convert(Math.min(maxLatencyNanos.get(), 1L << i), TimeUnit.NANOSECONDS);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Resets the metrics.
+     */
+    public void resetStats() {
+        spawnCount.set(0);
+        completeCount.set(0);
+        failCount.set(0);
+        resumeCount.set(0);
+        yieldCount.set(0);
+        suspendCount.set(0);
+        runNanos.set(0);
+        latencyNanos.set(0);
+        maxLatencyNanos.set(0);
+        for (int i = 0; i < latencyHistogram.length(); i++) {
+            latencyHistogram.set(i, 0);
+        }
+    }
+
+    // -- Registration
+
+    /**
+     * Sets an asynchronous Java function as a global variable.
+     *
+     * @param name     the global variable name
+     * @param function the function
+     */
+    public void register(String name, AsyncFunction function) {
+        luaState.rawGet(LuaState.REGISTRYINDEX, wrapRef);
+        luaState.pushJavaFunction(new Bridge(name, function));
+        luaState.call(1, 1);
+        luaState.setGlobal(name);
+    }
+
+    /**
+     * Sets a blocking Java function as a global variable. The function is
+     * called on the specified executor with the Lua arguments converted to
+     * Java objects, while the calling task is suspended.
+     *
+     * @param name     the global variable name
+     * @param executor the executor running the function
+     * @param function the function
+     */
+    public void registerBlocking(String name, final Executor executor, final BlockingFunction function) {
+        register(name, new AsyncFunction() {
+            @Override
+            public CompletionStage<?> invoke(LuaState luaState) {
+                final Object[] args = new Object[luaState.getTop()];
+                for (int i = 0; i < args.length; i++) {
+                    args[i] = luaState.toJavaObject(i + 1, Object.class);
+                }
+                final CompletableFuture<Object> future = new CompletableFuture<>();
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            future.complete(function.call(args));
+                        } catch (Throwable e) {
+                            future.completeExceptionally(e);
+                        }
+                    }
+                });
+                return future;
+            }
+        });
+    }
+
+    // -- Tasks
+
+    /**
+     * Pops a function from the stack and schedules a task running it in a new
+     * coroutine.
+     *
+     * @param args the arguments of the function
+     * @return the task
+     */
+    public Task spawn(Object... args) {
+        luaState.newThread();
+        luaState.rawGet(LuaState.REGISTRYINDEX, tasksRef);
+        luaState.pushValue(-2);
+        luaState.pushBoolean(true);
+        luaState.rawSet(-3);
+        luaState.pop(1);
+        final Task task = new Task(luaState.ref(LuaState.REGISTRYINDEX), args);
+        taskCount++;
+        spawnCount.incrementAndGet();
+        ready.add(task);
+        return task;
+    }
+
+    /**
+     * Runs the tasks until all have finished, waiting for pending
+     * asynchronous calls as needed.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void run() throws InterruptedException {
+        while (taskCount > 0) {
+            if (runReady() == 0 && taskCount > 0) {
+                ready.add(completed.take());
+            }
+        }
+    }
+
+    /**
+     * Runs the tasks until all have finished or the timeout has elapsed.
+     *
+     * @param timeout the maximum time to run
+     * @param unit    the time unit of the timeout
+     * @return whether all tasks have finished
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public boolean run(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (taskCount > 0) {
+            if (runReady() == 0 && taskCount > 0) {
+                final Task task = completed.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (task == null) {
+                    return false;
+                }
+                ready.add(task);
+            } else if (System.nanoTime() - deadline >= 0) {
+                return taskCount == 0;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Resumes each task that is ready once, without waiting.
+     *
+     * @return the number of resumed tasks
+     */
+    public int runReady() {
+        completed.drainTo(ready);
+        int count = ready.size();
+        for (int i = 0; i < count; i++) {
+            resume(ready.poll());
+        }
+        return count;
+    }
+
+    // -- Private methods
+
+    /**
+     * Resumes a task until it yields or finishes.
+     */
+    private void resume(Task task) {
+        final int top = luaState.getTop();
+        current = task;
+        final long start = System.nanoTime();
+        boolean accounted = false;
+        try {
+            luaState.rawGet(LuaState.REGISTRYINDEX, task.reference);
+            final int argCount = pushResumeValues(task);
+            final int count = timeSlice > 0 ? luaState.resume(top + 1, argCount, timeSlice) : luaState.resume(top + 1, argCount);
+            account(task, start);
+            accounted = true;
+            if (luaState.status(top + 1) == LuaState.YIELD) {
+                if (task.pending != null) {
+                    suspendCount.incrementAndGet();
+                    await(task);
+                } else {
+                    yieldCount.incrementAndGet();
+                    ready.add(task);
+                }
+            } else {
+                final Object[] results = new Object[count];
+                for (int i = 0; i < count; i++) {
+                    results[i] = luaState.toJavaObject(top + 2 + i, Object.class);
+                }
+                finish(task, completeCount);
+                task.result.complete(results);
+            }
+        } catch (RuntimeException e) {
+            // Lua errors, and conversion errors of the arguments or results
+            if (!accounted) {
+                account(task, start);
+            }
+            finish(task, failCount);
+            task.result.completeExceptionally(e);
+        } finally {
+            current = null;
+            luaState.setTop(top);
+        }
+    }
+
+    /**
+     * Records a time slice of a task.
+     */
+    private void account(Task task, long start) {
+        final long nanos = System.nanoTime() - start;
+        task.runNanos += nanos;
+        task.resumeCount++;
+        runNanos.addAndGet(nanos);
+        resumeCount.incrementAndGet();
+    }
+
+    /**
+     * Pushes the arguments of the first resume, or the outcome of the call the
+     * task has been waiting for.
+     */
+    private int pushResumeValues(Task task) {
+        final CompletableFuture<?> future = task.pending;
+        if (future == null) {
+            final Object[] args = task.args;
+            task.args = null;
+            if (args == null) {
+                return 0;
+            }
+            for (Object arg : args) {
+                luaState.pushJavaObject(arg);
+            }
+            return args.length;
+        }
+        task.pending = null;
+        return pushOutcome(luaState, future);
+    }
+
+    /**
+     * Queues a suspended task for resumption once its call has completed.
+     */
+    private void await(final Task task) {
+        task.pending.whenComplete((value, error) -> completed.add(task));
+    }
+
+    private void finish(Task task, AtomicLong counter) {
+        taskCount--;
+        luaState.unref(LuaState.REGISTRYINDEX, task.reference);
+        counter.incrementAndGet();
+        final long latency = System.nanoTime() - task.spawnTime;
+        latencyNanos.addAndGet(latency);
+        long max;
+        while (latency > (max = maxLatencyNanos.get()) && !maxLatencyNanos.compareAndSet(max, latency)) ;
+        latencyHistogram.incrementAndGet(latency <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(latency - 1));
+    }
+
+    /**
+     * Pushes <code>true</code> and the value of a completed future, or
+     * <code>false</code> and an error message.
+     */
+    private static int pushOutcome(LuaState luaState, CompletableFuture<?> future) {
+        Object value;
+        try {
+            value = future.join();
+        } catch (CompletionException e) {
+            final Throwable cause = e.getCause() != null ? e.getCause() : e;
+            luaState.pushBoolean(false);
+            luaState.pushString(cause.getMessage() != null ? cause.getMessage() : cause.toString());
+            return 2;
+        } catch (RuntimeException e) {
+            luaState.pushBoolean(false);
+            luaState.pushString(e.toString());
+            return 2;
+        }
+        luaState.pushBoolean(true);
+        luaState.pushJavaObject(value);
+        return 2;
+    }
+
+    // -- Member types
+
+    /**
+     * A Java function completing asynchronously.
+     */
+    public interface AsyncFunction {
+        /**
+         * Invokes this function. The function arguments are on the stack.
+         *
+         * @param luaState the Lua state this function has been invoked on
+         * @return the stage completing with the return value
+         */
+        CompletionStage<?> invoke(LuaState luaState);
+    }
+
+    /**
+     * A blocking Java function.
+     */
+    public interface BlockingFunction {
+        /**
+         * Invokes this function.
+         *
+         * @param args the arguments
+         * @return the return value
+         * @throws Exception if the call fails
+         */
+        Object call(Object[] args) throws Exception;
+    }
+
+    /**
+     * A coroutine run by the scheduler.
+     */
+    public static final class Task {
+        // -- State
+        private final int reference;
+        private final CompletableFuture<Object[]> result = new CompletableFuture<>();
+        private final long spawnTime = System.nanoTime();
+        private Object[] args;
+        private CompletableFuture<?> pending;
+        private volatile long runNanos;
+        private volatile int resumeCount;
+
+        // -- Construction
+        private Task(int reference, Object[] args) {
+            this.reference = reference;
+            this.args = args;
+        }
+
+        // -- Properties
+
+        /**
+         * Returns the future completing with the return values of the task.
+         * It completes exceptionally with a {@link LuaException} if the task
+         * raised an error, or with the runtime exception thrown when its
+         * arguments or return values could not be converted.
+         *
+         * @return the result
+         */
+        public CompletableFuture<Object[]> getResult() {
+            return result;
+        }
+
+        /**
+         * Returns whether the task waits for an asynchronous call.
+         *
+         * @return whether the task is suspended
+         */
+        public boolean isSuspended() {
+            return pending != null;
+        }
+
+        /**
+         * Returns the accumulated time this task has been running.
+         *
+         * @param unit the time unit of the result
+         * @return the run time
+         */
+        public long getRunTime(TimeUnit unit) {
+            return unit.convert(runNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Returns the number of times this task has been resumed.
+         *
+         * @return the number of resumes
+         */
+        public int getResumeCount() {
+            return resumeCount;
+        }
+    }
+
+    /**
+     * Java side of a registered asynchronous function. The first argument,
+     * added by the Lua wrapper, tells whether the function runs in a task.
+     */
+    private class Bridge extends JavaFunction {
+        // -- State
+        private final String name;
+        private final AsyncFunction function;
+
+        // -- Construction
+        private Bridge(String name, AsyncFunction function) {
+            this.name = name;
+            this.function = function;
+        }
+
+        // -- JavaFunction methods
+        @Override
+        public int invoke(LuaState luaState) {
+            final boolean isTask = luaState.toBoolean(1) && current != null;
+            luaState.remove(1);
+            final CompletableFuture<?> future = function.invoke(luaState).toCompletableFuture();
+            if (!isTask || future.isDone()) {
+                return pushOutcome(luaState, future);
+            }
+            current.pending = future;
+            return luaState.yield(0);
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+    }
+}
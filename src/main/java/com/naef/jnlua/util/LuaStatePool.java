@@ -0,0 +1,475 @@
+package com.naef.jnlua.util;
+
+import com.naef.jnlua.LuaState;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed-size pool of pre-initialized Lua states.
+ * <p/>
+ * <p>
+ * A single Lua state must not be used by several threads at the same time.
+ * The pool creates a number of warmed states up front (standard libraries and
+ * the Java module opened, plus whatever the {@link Initializer} loads) and
+ * leases them to callers. Leased states are returned with
+ * {@link #release(LuaState)}, which restores the globals and the
+ * <code>package.loaded</code> table to their state at the end of the
+ * initialization. The restore is shallow: tables that existed after the
+ * initialization are kept, but not their content.
+ * </p>
+ * <p/>
+ * <p>
+ * If thread affinity is enabled, a thread borrowing a state preferably
+ * receives the state it returned last, which keeps the JIT traces and CPU
+ * caches of that state warm for the thread.
+ * </p>
+ * <p/>
+ * <pre>
+ * LuaStatePool pool = new LuaStatePool(Runtime.getRuntime().availableProcessors(), initializer);
+ * LuaState luaState = pool.borrow();
+ * try {
+ *     ...
+ * } finally {
+ *     pool.release(luaState);
+ * }
+ * </pre>
+ */
+public class LuaStatePool {
+    // -- Static
+    /**
+     * Snapshots <code>_G</code> and <code>package.loaded</code> and returns a
+     * function restoring both tables from the snapshots.
+     */
+    private static final String RESET_CHUNK = "local next, rawget, rawset = next, rawget, rawset\n"
+            + "local targets, snapshots = { _G }, {}\n"
+            + "if type(package) == 'table' and type(package.loaded) == 'table' then targets[2] = package.loaded end\n"
+            + "for i = 1, #targets do\n"
+            + "  local s = {}\n"
+            + "  for k, v in next, targets[i] do s[k] = v end\n"
+            + "  snapshots[i] = s\n"
+            + "end\n"
+            + "return function()\n"
+            + "  for i = 1, #targets do\n"
+            + "    local t, s = targets[i], snapshots[i]\n"
+            + "    for k in next, t do if rawget(s, k) == nil then rawset(t, k, nil) end end\n"
+            + "    for k, v in next, s do if rawget(t, k) ~= v then rawset(t, k, v) end end\n"
+            + "  end\n"
+            + "end\n";
+
+    // -- State
+    private final int size;
+    private final Initializer initializer;
+    private final boolean affinity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final ArrayDeque<Entry> idle;
+    private final Map<LuaState, Entry> entries = new IdentityHashMap<>();
+    private final ThreadLocal<Entry> lastEntry = new ThreadLocal<>();
+    private boolean closed;
+
+    // -- Metrics
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong affinityHitCount = new AtomicLong();
+    private final AtomicLong reuseCount = new AtomicLong();
+    private final AtomicLong createCount = new AtomicLong();
+    private final AtomicLong discardCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    // -- Construction
+
+    /**
+     * Creates a new pool with thread affinity enabled.
+     *
+     * @param size        the number of Lua states in the pool
+     * @param initializer the initializer run once for each new Lua state, or
+     *                    <code>null</code>
+     */
+    public LuaStatePool(int size, Initializer initializer) {
+        this(size, initializer, true);
+    }
+
+    /**
+     * Creates a new pool. All Lua states are created and initialized by the
+     * constructor.
+     *
+     * @param size        the number of Lua states in the pool
+     * @param initializer the initializer run once for each new Lua state, or
+     *                    <code>null</code>
+     * @param affinity    whether a thread preferably receives the Lua state it
+     *                    returned last
+     */
+    public LuaStatePool(int size, Initializer initializer, boolean affinity) {
+        if (size < 1) {
+            throw new IllegalArgumentException("pool size must be larger than zero");
+        }
+        this.size = size;
+        this.initializer = initializer;
+        this.affinity = affinity;
+        idle = new ArrayDeque<>(size);
+        for (int i = 0; i < size; i++) {
+            Entry entry = newEntry();
+            entries.put(entry.luaState, entry);
+            idle.push(entry);
+        }
+    }
+
+    // -- Properties
+
+    /**
+     * Returns the number of Lua states managed by this pool.
+     *
+     * @return the pool size
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the number of Lua states currently available for lease.
+     *
+     * @return the number of idle Lua states
+     */
+    public int getIdleCount() {
+        lock.lock();
+        try {
+            return idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of Lua states currently leased.
+     *
+     * @return the number of leased Lua states
+     */
+    public int getLeasedCount() {
+        lock.lock();
+        try {
+            return entries.size() - idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the total number of successful leases.
+     *
+     * @return the number of leases
+     */
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    /**
+     * Returns the number of leases that handed a thread the Lua state it had
+     * returned last.
+     *
+     * @return the number of affinity hits
+     */
+    public long getAffinityHitCount() {
+        return affinityHitCount.get();
+    }
+
+    /**
+     * Returns the number of Lua states created by this pool, including
+     * replacements for discarded states.
+     *
+     * @return the number of created Lua states
+     */
+    public long getCreateCount() {
+        return createCount.get();
+    }
+
+    /**
+     * Returns the number of Lua states discarded because they were closed or
+     * could not be reset.
+     *
+     * @return the number of discarded Lua states
+     */
+    public long getDiscardCount() {
+        return discardCount.get();
+    }
+
+    /**
+     * Returns the number of lease attempts that timed out.
+     *
+     * @return the number of timeouts
+     */
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    /**
+     * Returns the accumulated time callers have waited for a Lua state.
+     *
+     * @param unit the time unit of the result
+     * @return the accumulated wait time
+     */
+    public long getWaitTime(TimeUnit unit) {
+        return unit.convert(waitNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the longest time a caller has waited for a Lua state.
+     *
+     * @param unit the time unit of the result
+     * @return the maximum wait time
+     */
+    public long getMaxWaitTime(TimeUnit unit) {
+        return unit.convert(maxWaitNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the number of leases that were served by a Lua state which had
+     * been leased before.
+     *
+     * @return the number of reuses
+     */
+    public long getReuseCount() {
+        return reuseCount.get();
+    }
+
+    // -- Lease
+
+    /**
+     * Leases a Lua state, waiting until one becomes available.
+     *
+     * @return the leased Lua state
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     */
+    public LuaState borrow() throws InterruptedException {
+        return borrow(-1, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Leases a Lua state, waiting at most the specified time for one to become
+     * available.
+     *
+     * @param timeout the maximum time to wait, or a negative value to wait
+     *                without limit
+     * @param unit    the time unit of the timeout
+     * @return the leased Lua state, or <code>null</code> if the timeout elapsed
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     */
+    public LuaState borrow(long timeout, TimeUnit unit) throws InterruptedException {
+        final long start = System.nanoTime();
+        long remaining = timeout < 0 ? Long.MAX_VALUE : unit.toNanos(timeout);
+        Entry entry;
+        boolean hit = false;
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                if (closed) {
+                    throw new IllegalStateException("pool is closed");
+                }
+                if (!idle.isEmpty()) {
+                    entry = affinity ? lastEntry.get() : null;
+                    // A released entry is only idle once it has been reset
+                    if (entry != null && !entry.leased && entries.get(entry.luaState) == entry && idle.remove(entry)) {
+                        hit = true;
+                    } else {
+                        entry = idle.pop();
+                    }
+                    entry.leased = true;
+                    if (entry.leaseCount++ > 0) {
+                        reuseCount.incrementAndGet();
+                    }
+                    break;
+                }
+                if (remaining <= 0) {
+                    timeoutCount.incrementAndGet();
+                    return null;
+                }
+                if (timeout < 0) {
+                    available.await();
+                } else {
+                    remaining = available.awaitNanos(remaining);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        final long waited = System.nanoTime() - start;
+        waitNanos.addAndGet(waited);
+        long max;
+        while (waited > (max = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(max, waited)) ;
+        borrowCount.incrementAndGet();
+        if (hit) {
+            affinityHitCount.incrementAndGet();
+        }
+        if (affinity) {
+            lastEntry.set(entry);
+        }
+        return entry.luaState;
+    }
+
+    /**
+     * Returns a leased Lua state to the pool. The stack is cleared, the
+     * execution budget is removed and the globals are restored. If the state
+     * has been closed or cannot be reset, it is discarded and replaced with a
+     * new one.
+     *
+     * @param luaState the Lua state to return
+     */
+    public void release(LuaState luaState) {
+        Entry entry;
+        lock.lock();
+        try {
+            entry = entries.get(luaState);
+            if (entry == null || !entry.leased) {
+                throw new IllegalArgumentException("Lua state is not leased from this pool");
+            }
+            // Cleared here so that a concurrent release of the same state fails
+            entry.leased = false;
+        } finally {
+            lock.unlock();
+        }
+        if (!reset(entry)) {
+            discardCount.incrementAndGet();
+            if (luaState.isOpen()) {
+                luaState.close();
+            }
+            Entry replacement = null;
+            try {
+                replacement = newEntry();
+            } finally {
+                lock.lock();
+                try {
+                    entries.remove(luaState);
+                    if (replacement != null) {
+                        entries.put(replacement.luaState, replacement);
+                    }
+                    entry = replacement;
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+        lock.lock();
+        try {
+            if (closed) {
+                entries.remove(entry.luaState);
+                entry.luaState.close();
+                return;
+            }
+            idle.push(entry);
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes all idle Lua states. Leased Lua states are closed when they are
+     * returned.
+     */
+    public void close() {
+        List<Entry> toClose;
+        lock.lock();
+        try {
+            closed = true;
+            toClose = new ArrayList<>(idle);
+            idle.clear();
+            for (Entry entry : toClose) {
+                entries.remove(entry.luaState);
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (Entry entry : toClose) {
+            entry.luaState.close();
+        }
+    }
+
+    // -- Private methods
+
+    /**
+     * Creates and initializes a new pooled Lua state.
+     */
+    private Entry newEntry() {
+        final LuaState luaState = new LuaState();
+        try {
+            if (initializer != null) {
+                initializer.initialize(luaState);
+            }
+            luaState.setTop(0);
+            luaState.load(RESET_CHUNK, "=LuaStatePool.reset");
+            luaState.call(0, 1);
+            final int resetRef = luaState.ref(LuaState.REGISTRYINDEX);
+            createCount.incrementAndGet();
+            return new Entry(luaState, resetRef);
+        } catch (RuntimeException e) {
+            luaState.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Restores a Lua state to its initial state.
+     */
+    private boolean reset(Entry entry) {
+        final LuaState luaState = entry.luaState;
+        if (!luaState.isOpen()) {
+            return false;
+        }
+        try {
+            luaState.clearExecutionBudget();
+            luaState.setTop(0);
+            luaState.rawGet(LuaState.REGISTRYINDEX, entry.resetRef);
+            luaState.call(0, 0);
+            luaState.cleanup();
+            return true;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    // -- Nested types
+
+    /**
+     * Initializes new Lua states of a pool, for example by registering Java
+     * functions and running library chunks. Everything visible in the globals
+     * after initialization is retained across leases.
+     */
+    public interface Initializer {
+        /**
+         * Initializes a Lua state.
+         *
+         * @param luaState the new Lua state
+         */
+        void initialize(LuaState luaState);
+    }
+
+    /**
+     * A pooled Lua state.
+     */
+    private static class Entry {
+        // -- State
+        private final LuaState luaState;
+        private final int resetRef;
+        private boolean leased;
+        private long leaseCount;
+
+        // -- Construction
+
+        /**
+         * Creates a new instance.
+         */
+        private Entry(LuaState luaState, int resetRef) {
+            this.luaState = luaState;
+            this.resetRef = resetRef;
+        }
+    }
+}
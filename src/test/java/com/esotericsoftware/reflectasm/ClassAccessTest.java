@@ -1,16 +1,25 @@
 package com.esotericsoftware.reflectasm;
 
 
+import com.esotericsoftware.reflectasm.util.BoundedCache;
 import org.junit.Test;
 import test.Many;
 import test.TestObject;
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
 
 /**
  * Created by Will on 2017/2/6.
@@ -129,26 +138,26 @@ public class ClassAccessTest {
 
         latch.await();
         assertEquals(1, ClassAccess.activeAccessClassLoaders());
-        System.out.println(ClassAccess.totalAccesses + " invokes from ClassAccess.access() and " + ClassAccess.cacheHits + " hits from cache");
+        System.out.println("ClassAccess.access() cache: " + ClassAccess.ACCESS_CACHE);
         System.out.println("Creating " + (count * rounds) + " same proxies with parallel 100 takes " + String.format("%.3f", (System.nanoTime() - s) / 1e6) + " ms.");
 
-        ClassAccess.totalAccesses = 0;
-        ClassAccess.cacheHits = 0;
+        ClassAccess.ACCESS_CACHE.resetStats();
+        ClassAccess.LOADER_HITS.reset();
         s = System.nanoTime();
         for (int i = 0; i < rounds * count; i++) ClassAccess.access(Many.class).newInstance();
-        System.out.println(ClassAccess.totalAccesses + " invokes from ClassAccess.access() and " + ClassAccess.cacheHits + " hits from cache");
+        System.out.println("ClassAccess.access() cache: " + ClassAccess.ACCESS_CACHE);
         System.out.println("Creating " + (count * rounds) + " same proxies#1 in serial mode takes " + String.format("%.3f", (System.nanoTime() - s) / 1e6) + " ms.");
 
-        ClassAccess.totalAccesses = 0;
-        ClassAccess.cacheHits = 0;
+        ClassAccess.ACCESS_CACHE.resetStats();
+        ClassAccess.LOADER_HITS.reset();
         ClassAccess.IS_CACHED = false;
         s = System.nanoTime();
         for (int i = 0; i < rounds * count; i++) ClassAccess.access(Many.class).newInstance();
-        System.out.println(ClassAccess.totalAccesses + " invokes from ClassAccess.access() and " + ClassAccess.loaderHits + " hits from loader");
+        System.out.println(ClassAccess.LOADER_HITS.sum() + " hits from loader");
         System.out.println("Creating " + (count * rounds) + " same proxies#2 in serial mode takes " + String.format("%.3f", (System.nanoTime() - s) / 1e6) + " ms.");
 
-        ClassAccess.totalAccesses = 0;
-        ClassAccess.cacheHits = 0;
+        ClassAccess.ACCESS_CACHE.resetStats();
+        ClassAccess.LOADER_HITS.reset();
         ClassAccess.IS_CACHED = true;
         s = System.nanoTime();
         for (int i = 0; i < rounds * count; i++) {
@@ -156,10 +165,65 @@ public class ClassAccessTest {
             Many many = access.newInstance();
             access.set(many, "x1", i);
         }
-        System.out.println(ClassAccess.totalAccesses + " invokes from ClassAccess.access() and " + ClassAccess.cacheHits + " hits from cache");
+        System.out.println("ClassAccess.access() cache: " + ClassAccess.ACCESS_CACHE);
         System.out.println("Creating " + (count * rounds) + " same proxies#3 in serial mode takes " + String.format("%.3f", (System.nanoTime() - s) / 1e6) + " ms.");
     }
 
+    @Test
+    public void testBoundedCache() {
+        BoundedCache<Integer, String> cache = new BoundedCache<>(4);
+        for (int i = 0; i < 10; i++) cache.put(i, String.valueOf(i));
+        assertEquals(4, cache.size());
+        assertEquals(6, cache.getEvictionCount());
+        assertEquals("9", cache.get(9));
+        cache.get(-1);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+    }
+
+    @Test
+    public void testClassUnloading() throws Exception {
+        ClassAccess<Many> access = ClassAccess.access(Many.class);
+        ClassAccess.IS_CACHED = false;
+        try {
+            ClassAccess<Many> reloaded = ClassAccess.access(Many.class);
+            assertEquals(access.accessor.getClass(), reloaded.accessor.getClass());
+        } finally {
+            ClassAccess.IS_CACHED = true;
+        }
+
+        final int live = ClassAccess.ACCESS_CACHE.size();
+        URL[] urls = {Many.class.getProtectionDomain().getCodeSource().getLocation()};
+        URLClassLoader loader = new URLClassLoader(urls, null);
+        Class<?> type = loader.loadClass(Many.class.getName());
+        ClassAccess other = ClassAccess.access(type);
+        assertNotNull(other.newInstance());
+        assertEquals(live + 1, ClassAccess.ACCESS_CACHE.size());
+        assertEquals(0, Handles.pendingCount());
+
+        // Whether and when the class is unloaded is up to the garbage collector
+        final ReferenceQueue<Class<?>> queue = new ReferenceQueue<>();
+        final WeakReference<Class<?>> ref = new WeakReference<>(type, queue);
+        type = null;
+        other = null;
+        loader.close();
+        loader = null;
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (queue.poll() == null) {
+            assumeTrue("class was not unloaded", System.nanoTime() < deadline);
+            System.gc();
+            queue.remove(50);
+        }
+        assertNull(ref.get());
+
+        // The cache sees the same cleared reference once it is enqueued
+        for (int i = 0; i < 100 && ClassAccess.ACCESS_CACHE.size() > live; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(live, ClassAccess.ACCESS_CACHE.size());
+    }
+
     @Test
     public void testCase3() throws Exception {
         {
@@ -5,8 +5,11 @@
 
 package com.naef.jnlua.test;
 
+import com.naef.jnlua.DoubleBinaryJavaFunction;
 import com.naef.jnlua.JavaFunction;
+import com.naef.jnlua.LongUnaryJavaFunction;
 import com.naef.jnlua.LuaState;
+import com.naef.jnlua.StringToLongJavaFunction;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
@@ -39,8 +42,105 @@ public class JavaFunctionTest extends AbstractLuaTest {
         assertEquals(0, luaState.getTop());
     }
 
+    /**
+     * Tests the primitive-specialized Java functions.
+     */
+    @Test
+    public void testPrimitiveFunctions() throws Exception {
+        luaState.register(new DoubleBinaryJavaFunction("hypot") {
+            @Override
+            public double call(double a, double b) {
+                return Math.hypot(a, b);
+            }
+        });
+        luaState.register(new LongUnaryJavaFunction("square") {
+            @Override
+            public long call(long value) {
+                return value * value;
+            }
+        });
+        luaState.register(new StringToLongJavaFunction("strlen") {
+            @Override
+            public long call(String value) {
+                return value.length();
+            }
+        });
+        luaState.load("return hypot(3, 4), square(12), strlen('h\u00e9llo')", "primitive");
+        luaState.call(0, 3);
+        assertEquals(5.0, luaState.toNumber(1), 0.0);
+        assertEquals(144, luaState.toInteger(2));
+        assertEquals(5, luaState.toInteger(3));
+        luaState.pop(3);
+
+        // Argument errors are raised as Lua errors
+        luaState.load("return pcall(hypot, 1)", "primitive");
+        luaState.call(0, 1);
+        assertEquals(false, luaState.toBoolean(1));
+        luaState.pop(1);
+
+        // Finish
+        assertEquals(0, luaState.getTop());
+    }
+
+    /**
+     * Tests passing arguments with the direct argument buffer on, off and
+     * toggled between calls.
+     */
+    @Test
+    public void testDirectArgs() throws Exception {
+        Echo echo = new Echo();
+        luaState.pushJavaObject(echo);
+        luaState.setGlobal("echo");
+        luaState.load("long = string.rep('a', 5000) mid = string.rep('b', 3000) tail = string.rep('c', 1000)", "=testDirectArgs");
+        luaState.call(0, 0);
+
+        // Strings beyond the buffer capacity and beyond the space left by earlier strings are passed as
+        // objects. The first call fills the buffer, the next ones must not decode its stale slots.
+        String chunk = "return echo(1.5, true, 'short', long, 2, false, mid, tail, 'x', 10, 11, 12, 13, 14, 15, 16, "
+                + "17, 18, 19, 20, 21, 22, 23, 24, 25, 26, 27, 28, 29, 30, 31, 'last')";
+        for (boolean enabled : new boolean[]{true, false, true, false}) {
+            luaState.setDirectArgs(enabled);
+            assertEquals(enabled, luaState.isDirectArgs());
+            luaState.load(chunk, "=testDirectArgs");
+            luaState.call(0, 0);
+            assertEquals(32, echo.values.length);
+            assertEquals(1.5, ((Number) echo.values[0]).doubleValue(), 0.0);
+            assertEquals(Boolean.TRUE, echo.values[1]);
+            assertEquals("short", echo.values[2]);
+            assertEquals(5000, ((String) echo.values[3]).length());
+            assertEquals(Boolean.FALSE, echo.values[5]);
+            assertEquals(3000, ((String) echo.values[6]).length());
+            assertEquals('c', ((String) echo.values[7]).charAt(999));
+            assertEquals("x", echo.values[8]);
+            assertEquals(31, ((Number) echo.values[30]).intValue());
+            assertEquals("last", echo.values[31]);
+
+            luaState.load("return echo('other', 0)", "=testDirectArgs");
+            luaState.call(0, 0);
+            assertEquals(2, echo.values.length);
+            assertEquals("other", echo.values[0]);
+            assertEquals(0, ((Number) echo.values[1]).intValue());
+        }
+
+        // Finish
+        luaState.setDirectArgs(true);
+        assertEquals(0, luaState.getTop());
+    }
+
     // -- Private classes
 
+    /**
+     * Records the decoded arguments.
+     */
+    private static class Echo extends JavaFunction {
+        private Object[] values;
+
+        public int invoke(LuaState luaState) {
+            values = params.clone();
+            return 0;
+        }
+    }
+
     /**
      * A simple Lua function.
      */
@@ -0,0 +1,149 @@
+package com.naef.jnlua.test;
+
+import com.naef.jnlua.LuaState;
+import com.naef.jnlua.util.LuaBytecodeStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Contains unit tests for the bytecode store and the buffer dump.
+ */
+public class LuaBytecodeStoreTest {
+    // ---- State
+    private LuaBytecodeStore store;
+    private LuaState first;
+    private LuaState second;
+
+    // ---- Setup
+
+    /**
+     * Performs setup.
+     */
+    @Before
+    public void setup() {
+        store = new LuaBytecodeStore();
+        first = new LuaState();
+        second = new LuaState();
+    }
+
+    /**
+     * Performs teardown.
+     */
+    @After
+    public void teardown() {
+        first.close();
+        second.close();
+    }
+
+    // ---- Test cases
+
+    /**
+     * Tests dumping into buffers.
+     */
+    @Test
+    public void testDumpBuffer() throws Exception {
+        first.load("return 42", "=testDumpBuffer");
+
+        // dump()
+        ByteBuffer chunk = first.dump();
+        assertTrue(chunk.isDirect());
+        assertEquals(0, chunk.position());
+        assertEquals(27, chunk.get(0));
+
+        // dump(ByteBuffer) into a buffer that is large enough
+        ByteBuffer large = ByteBuffer.allocateDirect(4096);
+        large.put((byte) 1);
+        assertSame(large, first.dump(large));
+        assertEquals(1 + chunk.remaining(), large.position());
+
+        // dump(ByteBuffer) into a buffer that is too small
+        ByteBuffer small = ByteBuffer.allocateDirect(4);
+        small.put((byte) 1);
+        ByteBuffer grown = first.dump(small);
+        assertNotSame(small, grown);
+        assertEquals(1 + chunk.remaining(), grown.position());
+        assertEquals(1, grown.get(0));
+
+        // dump(ByteBuffer) into a read-only buffer
+        try {
+            first.dump(ByteBuffer.allocateDirect(4096).asReadOnlyBuffer());
+            fail();
+        } catch (ReadOnlyBufferException e) {
+        }
+        first.pop(1);
+
+        // Load the dump
+        grown.flip().position(1);
+        second.load(grown, "=testDumpBuffer", "b");
+        second.call(0, 1);
+        assertEquals(42, second.toInteger(-1));
+        second.pop(1);
+    }
+
+    /**
+     * Tests sharing binary chunks between Lua states.
+     */
+    @Test
+    public void testStore() throws Exception {
+        String chunk = "local n = ... return n * 2";
+        store.load(first, chunk, "=testStore");
+        assertEquals(1, store.getMissCount());
+        assertEquals(1, store.getCount());
+        ByteBuffer stored = store.get(chunk, "=testStore");
+        assertNotNull(stored);
+        assertTrue(stored.isDirect());
+        assertTrue(stored.isReadOnly());
+        assertEquals(stored.capacity(), stored.remaining());
+        assertEquals(stored.capacity(), store.getSize());
+        assertNull(store.get(chunk, "=other"));
+
+        store.load(second, chunk, "=testStore");
+        assertEquals(1, store.getHitCount());
+        for (LuaState luaState : new LuaState[]{first, second}) {
+            luaState.pushInteger(21);
+            luaState.call(1, 1);
+            assertEquals(42, luaState.toInteger(-1));
+            luaState.pop(1);
+            assertEquals(0, luaState.getTop());
+        }
+
+        store.clear();
+        assertEquals(0, store.getCount());
+        assertEquals(0, store.getSize());
+        assertEquals(0, store.getHitCount());
+    }
+
+    /**
+     * Tests the capacity of the store.
+     */
+    @Test
+    public void testCapacity() throws Exception {
+        store = new LuaBytecodeStore(2);
+        assertEquals(2, store.getCapacity());
+        for (int i = 0; i < 3; i++) {
+            store.load(first, "return " + i, "=testCapacity");
+            first.pop(1);
+        }
+        assertEquals(2, store.getCount());
+        assertEquals(1, store.getEvictionCount());
+        assertEquals(3, store.getMissCount());
+        assertNull(store.get("return 0", "=testCapacity"));
+        assertEquals(store.get("return 1", "=testCapacity").capacity() + store.get("return 2", "=testCapacity").capacity(), store.getSize());
+
+        // Evicted chunks are parsed again
+        for (int i = 0; i < 3; i++) {
+            store.load(second, "return " + i, "=testCapacity");
+            second.call(0, 1);
+            assertEquals(i, second.toInteger(-1));
+            second.pop(1);
+        }
+        assertEquals(2, store.getCount());
+        assertTrue(store.getMissCount() > 3);
+    }
+}
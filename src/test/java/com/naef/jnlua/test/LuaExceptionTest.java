@@ -8,6 +8,8 @@ package com.naef.jnlua.test;
 import com.naef.jnlua.*;
 import org.junit.Test;
 
+import java.time.Duration;
+
 import static org.junit.Assert.*;
 
 /**
@@ -56,6 +58,112 @@ public class LuaExceptionTest extends AbstractLuaTest {
         assertEquals(new LuaStackTraceElement(null, "test", 13), luaStackTrace[4]);
     }
 
+    /**
+     * Tests disabling the capture of Lua stack traces.
+     */
+    @Test
+    public void testStackTraceDisabled() throws Exception {
+        assertTrue(luaState.isStackTraceEnabled());
+        luaState.setStackTraceEnabled(false);
+        assertFalse(luaState.isStackTraceEnabled());
+        luaState.load("function A () error(\"msg\") end A()", "test");
+        LuaRuntimeException luaRuntimeException = null;
+        try {
+            luaState.call(0, 0);
+        } catch (LuaRuntimeException e) {
+            luaRuntimeException = e;
+        }
+        assertTrue(luaRuntimeException.getMessage().endsWith("msg"));
+        assertEquals(0, luaRuntimeException.getLuaStackTrace().length);
+
+        // Enable again
+        luaState.setStackTraceEnabled(true);
+        luaState.load("error(\"msg\")", "test");
+        try {
+            luaState.call(0, 0);
+            fail();
+        } catch (LuaRuntimeException e) {
+            assertEquals(new LuaStackTraceElement(null, "test", 1), e.getLuaStackTrace()[1]);
+        }
+    }
+
+    /**
+     * Tests the execution budget.
+     */
+    @Test
+    public void testExecutionBudget() throws Exception {
+        luaState.openLibs();
+        assertTrue(isJitOn());
+
+        // Instruction limit, not caught by pcall
+        luaState.setExecutionBudget(100000, null);
+        assertFalse(isJitOn());
+        luaState.load("while true do pcall(function () while true do end end) end", "test");
+        try {
+            luaState.call(0, 0);
+            fail();
+        } catch (LuaBudgetExceededException e) {
+            assertTrue(luaState.isExecutionBudgetExceeded());
+        }
+        luaState.load("return 1", "test");
+        try {
+            luaState.call(0, 1);
+            fail();
+        } catch (LuaBudgetExceededException e) {
+        }
+        luaState.setTop(0);
+
+        // Instruction limits that are not a multiple of the check interval
+        long[] iterations = new long[2];
+        for (int i = 0; i < 2; i++) {
+            luaState.setExecutionBudget(i == 0 ? 1000 : 1500, null);
+            luaState.load("n = 0 while true do n = n + 1 end", "test");
+            try {
+                luaState.call(0, 0);
+                fail();
+            } catch (LuaBudgetExceededException e) {
+            }
+            luaState.clearExecutionBudget();
+            luaState.getGlobal("n");
+            iterations[i] = luaState.toInteger(-1);
+            luaState.pop(1);
+        }
+        assertTrue(iterations[1] * 10 > iterations[0] * 13);
+        assertTrue(iterations[1] * 10 < iterations[0] * 17);
+
+        // Time limit
+        luaState.setExecutionBudget(0, Duration.ofMillis(50));
+        assertFalse(luaState.isExecutionBudgetExceeded());
+        long start = System.nanoTime();
+        luaState.load("while true do end", "test");
+        try {
+            luaState.call(0, 0);
+            fail();
+        } catch (LuaBudgetExceededException e) {
+            assertTrue(System.nanoTime() - start >= 50000000L);
+        }
+
+        // No limit
+        luaState.clearExecutionBudget();
+        assertFalse(luaState.isExecutionBudgetExceeded());
+        assertTrue(isJitOn());
+        luaState.load("local n = 0 for i = 1, 1000000 do n = n + i end return n", "test");
+        luaState.call(0, 1);
+        assertEquals(500000500000L, luaState.toInteger(-1));
+        luaState.pop(1);
+    }
+
+    /**
+     * Returns whether the JIT compiler is on.
+     */
+    private boolean isJitOn() {
+        luaState.load("return (jit.status())", "test");
+        luaState.call(0, 1);
+        final boolean on = luaState.toBoolean(-1);
+        luaState.pop(1);
+        return on;
+    }
+
     /**
      * Tests the call of a Java function which throws a Lua runtime exception.
      */
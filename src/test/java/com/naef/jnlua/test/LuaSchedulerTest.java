@@ -0,0 +1,197 @@
+package com.naef.jnlua.test;
+
+import com.naef.jnlua.LuaException;
+import com.naef.jnlua.LuaState;
+import com.naef.jnlua.util.LuaScheduler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Contains unit tests for the Lua scheduler.
+ */
+public class LuaSchedulerTest {
+    // ---- State
+    private LuaState luaState;
+    private LuaScheduler scheduler;
+    private ExecutorService executor;
+    private List<CompletableFuture<Object>> pending;
+
+    // ---- Setup
+
+    /**
+     * Performs setup.
+     */
+    @Before
+    public void setup() {
+        luaState = new LuaState();
+        luaState.openLibs();
+        scheduler = new LuaScheduler(luaState);
+        executor = Executors.newFixedThreadPool(4);
+        pending = new ArrayList<>();
+        scheduler.register("await", L -> {
+            CompletableFuture<Object> future = new CompletableFuture<>();
+            pending.add(future);
+            return future;
+        });
+        scheduler.registerBlocking("square", executor, args -> {
+            Thread.sleep(5);
+            long n = ((Number) args[0]).longValue();
+            return n * n;
+        });
+    }
+
+    /**
+     * Performs teardown.
+     */
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+        luaState.close();
+    }
+
+    // ---- Test cases
+
+    /**
+     * Tests that suspended tasks let the other tasks run.
+     */
+    @Test
+    public void testSuspend() throws Exception {
+        luaState.load("local n = ... return await() + n", "=testSuspend");
+        LuaScheduler.Task first = scheduler.spawn(1);
+        luaState.load("local n = ... return await() + n", "=testSuspend");
+        LuaScheduler.Task second = scheduler.spawn(2);
+        assertEquals(2, scheduler.runReady());
+        assertTrue(first.isSuspended());
+        assertTrue(second.isSuspended());
+        assertEquals(2, pending.size());
+
+        pending.get(1).complete(20);
+        assertEquals(1, scheduler.runReady());
+        assertEquals(22, ((Number) second.getResult().get()[0]).intValue());
+        assertFalse(first.getResult().isDone());
+
+        pending.get(0).complete(10);
+        scheduler.run();
+        assertEquals(11, ((Number) first.getResult().get()[0]).intValue());
+        assertEquals(0, scheduler.getTaskCount());
+        assertEquals(0, luaState.getTop());
+    }
+
+    /**
+     * Tests many blocking calls in flight on one Lua state.
+     */
+    @Test
+    public void testBlocking() throws Exception {
+        List<LuaScheduler.Task> tasks = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            luaState.load("local n = ... return square(n) + square(n)", "=testBlocking");
+            tasks.add(scheduler.spawn(i));
+        }
+        assertTrue(scheduler.run(10, TimeUnit.SECONDS));
+        for (int i = 0; i < tasks.size(); i++) {
+            assertEquals(2L * i * i, ((Number) tasks.get(i).getResult().get()[0]).longValue());
+        }
+    }
+
+    /**
+     * Tests errors of asynchronous calls.
+     */
+    @Test
+    public void testError() throws Exception {
+        luaState.load("local ok, err = pcall(await) assert(not ok) return await()", "=testError");
+        LuaScheduler.Task task = scheduler.spawn();
+        scheduler.runReady();
+        pending.get(0).completeExceptionally(new IllegalStateException("first"));
+        scheduler.runReady();
+        pending.get(1).completeExceptionally(new IllegalStateException("second"));
+        scheduler.run();
+        try {
+            task.getResult().get();
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof LuaException);
+            assertTrue(e.getCause().getMessage().contains("second"));
+        }
+    }
+
+    /**
+     * Tests that a time slice interleaves busy tasks.
+     */
+    @Test
+    public void testTimeSlice() throws Exception {
+        luaState.load("trace = {}", "=testTimeSlice");
+        luaState.call(0, 0);
+        scheduler.setTimeSlice(1000);
+        String chunk = "local name = ... for i = 1, 100000 do if i % 1000 == 0 then trace[#trace + 1] = name end end";
+        luaState.load(chunk, "=testTimeSlice");
+        LuaScheduler.Task first = scheduler.spawn("a");
+        luaState.load(chunk, "=testTimeSlice");
+        LuaScheduler.Task second = scheduler.spawn("b");
+        scheduler.run();
+        assertTrue(first.getResult().isDone());
+        assertTrue(second.getResult().isDone());
+        assertTrue(first.getResumeCount() > 1);
+        assertTrue(second.getResumeCount() > 1);
+        luaState.load("local firstB, lastA for i, v in ipairs(trace) do if v == 'b' then firstB = firstB or i else lastA = i end end return firstB < lastA", "=testTimeSlice");
+        luaState.call(0, 1);
+        assertTrue(luaState.toBoolean(-1));
+        luaState.pop(1);
+        assertEquals(scheduler.getResumeCount() - 2, scheduler.getYieldCount());
+
+        // The JIT compiler is back on after the time slices
+        luaState.load("return (jit.status())", "=testTimeSlice");
+        luaState.call(0, 1);
+        assertTrue(luaState.toBoolean(-1));
+        luaState.pop(1);
+        assertEquals(0, luaState.getTop());
+    }
+
+    /**
+     * Tests the metrics.
+     */
+    @Test
+    public void testMetrics() throws Exception {
+        luaState.load("return await()", "=testMetrics");
+        LuaScheduler.Task task = scheduler.spawn();
+        luaState.load("error('fail')", "=testMetrics");
+        scheduler.spawn();
+        scheduler.runReady();
+        pending.get(0).complete(1);
+        scheduler.run();
+        assertTrue(task.getResult().isDone());
+        assertEquals(2, task.getResumeCount());
+        assertEquals(2, scheduler.getSpawnCount());
+        assertEquals(1, scheduler.getCompleteCount());
+        assertEquals(1, scheduler.getFailCount());
+        assertEquals(3, scheduler.getResumeCount());
+        assertEquals(1, scheduler.getSuspendCount());
+        assertTrue(scheduler.getMaxLatency(TimeUnit.NANOSECONDS) >= scheduler.getMeanLatency(TimeUnit.NANOSECONDS));
+        assertTrue(scheduler.getLatencyPercentile(50, TimeUnit.NANOSECONDS) > 0);
+        assertTrue(scheduler.getLatencyPercentile(100, TimeUnit.NANOSECONDS) <= scheduler.getMaxLatency(TimeUnit.NANOSECONDS));
+        scheduler.resetStats();
+        assertEquals(0, scheduler.getSpawnCount());
+        assertEquals(0, scheduler.getLatencyPercentile(99, TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * Tests calls outside of a task.
+     */
+    @Test
+    public void testOutsideTask() throws Exception {
+        luaState.load("return square(3)", "=testOutsideTask");
+        luaState.call(0, 1);
+        assertEquals(9, luaState.toInteger(-1));
+        luaState.pop(1);
+    }
+}
@@ -5,11 +5,17 @@
 
 package com.naef.jnlua.test;
 
+import com.naef.jnlua.LuaState;
+import com.naef.jnlua.script.LuaScriptEngineFactory;
 import org.junit.Before;
 import org.junit.Test;
 
 import javax.script.*;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 
 import static org.junit.Assert.*;
@@ -230,6 +236,62 @@ public class LuaScriptEngineTest {
         assertEquals(3.0, ((Number) compiledScript.eval(scriptContext)).doubleValue(), 0.001);
     }
 
+    /**
+     * Tests the on-disk bytecode cache of compiled scripts.
+     */
+    @Test
+    public void testBytecodeCache() throws Exception {
+        Path dir = Files.createTempDirectory("testBytecodeCache");
+        try {
+            LuaScriptEngineFactory factory = new LuaScriptEngineFactory();
+            factory.setBytecodeCache(dir.toFile());
+            assertEquals(dir.toFile(), factory.getBytecodeCache());
+
+            // Write
+            String script = "return 1";
+            Compilable compilable = (Compilable) factory.getScriptEngine();
+            assertEquals(1, ((Number) compilable.compile(script).eval()).intValue());
+            File[] files = dir.toFile().listFiles();
+            assertEquals(1, files.length);
+            File cacheFile = files[0];
+            assertTrue(cacheFile.getName().endsWith(".luac"));
+            assertEquals(27, Files.readAllBytes(cacheFile.toPath())[0]);
+
+            // Reload: the cached chunk is used instead of the source
+            LuaState luaState = new LuaState();
+            try {
+                luaState.load("return 2", "=testBytecodeCache");
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                luaState.dump(out);
+                Files.write(cacheFile.toPath(), out.toByteArray());
+            } finally {
+                luaState.close();
+            }
+            compilable = (Compilable) factory.getScriptEngine();
+            assertEquals(2, ((Number) compilable.compile(script).eval()).intValue());
+
+            // Corrupt: the source is compiled and the entry is rewritten
+            Files.write(cacheFile.toPath(), "corrupt".getBytes(LuaState.UTF8));
+            compilable = (Compilable) factory.getScriptEngine();
+            assertEquals(1, ((Number) compilable.compile(script).eval()).intValue());
+            assertEquals(27, Files.readAllBytes(cacheFile.toPath())[0]);
+            assertEquals(1, dir.toFile().listFiles().length);
+
+            // Disabled
+            factory.setBytecodeCache(null);
+            assertNull(factory.getBytecodeCache());
+            Files.delete(cacheFile.toPath());
+            compilable = (Compilable) factory.getScriptEngine();
+            assertEquals(1, ((Number) compilable.compile(script).eval()).intValue());
+            assertEquals(0, dir.toFile().listFiles().length);
+        } finally {
+            for (File file : dir.toFile().listFiles()) {
+                file.delete();
+            }
+            Files.delete(dir);
+        }
+    }
+
     /**
      * Tests the invocable interface.
      */
@@ -162,7 +162,7 @@ public class LuaStateErrorTest extends AbstractLuaTest {
      */
     //@Test(expected = NullPointerException.class)
     public void testNullStreamLoad() throws Exception {
-        luaState.load(null, "=testNullStreamLoad", "bt");
+        luaState.load((InputStream) null, "=testNullStreamLoad", "bt");
     }
 
     /**
@@ -211,7 +211,7 @@ public class LuaStateErrorTest extends AbstractLuaTest {
     @Test(expected = NullPointerException.class)
     public void testNullDump() throws Exception {
         luaState.load("return 0", "nullDump");
-        luaState.dump(null);
+        luaState.dump((OutputStream) null);
     }
 
     /**
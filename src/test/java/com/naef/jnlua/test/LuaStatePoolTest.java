@@ -0,0 +1,135 @@
+package com.naef.jnlua.test;
+
+import com.naef.jnlua.LuaState;
+import com.naef.jnlua.LuaType;
+import com.naef.jnlua.util.LuaStatePool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Contains unit tests for the Lua state pool.
+ */
+public class LuaStatePoolTest {
+    // ---- State
+    private LuaStatePool pool;
+
+    // ---- Setup
+
+    /**
+     * Performs setup.
+     */
+    @Before
+    public void setup() {
+        pool = new LuaStatePool(2, new LuaStatePool.Initializer() {
+            @Override
+            public void initialize(LuaState luaState) {
+                luaState.load("greeting = 'hello'", "init");
+                luaState.call(0, 0);
+            }
+        });
+    }
+
+    /**
+     * Performs teardown.
+     */
+    @After
+    public void teardown() {
+        pool.close();
+    }
+
+    // ---- Test cases
+
+    /**
+     * Tests that globals are restored between leases.
+     */
+    @Test
+    public void testReset() throws Exception {
+        LuaState luaState = pool.borrow();
+        luaState.load("greeting = 'changed'; leaked = 1", "run");
+        luaState.call(0, 0);
+        pool.release(luaState);
+
+        luaState = pool.borrow();
+        luaState.getGlobal("greeting");
+        assertEquals("hello", luaState.toString(-1));
+        assertEquals(LuaType.NIL, luaState.getGlobal("leaked"));
+        luaState.pop(2);
+        pool.release(luaState);
+    }
+
+    /**
+     * Tests thread affinity and the pool metrics.
+     */
+    @Test
+    public void testAffinity() throws Exception {
+        LuaState first = pool.borrow();
+        pool.release(first);
+        LuaState second = pool.borrow();
+        assertSame(first, second);
+        assertEquals(1, pool.getLeasedCount());
+        pool.release(second);
+        assertEquals(2, pool.getBorrowCount());
+        assertEquals(1, pool.getReuseCount());
+        assertEquals(2, pool.getIdleCount());
+    }
+
+    /**
+     * Tests lease timeouts on an exhausted pool.
+     */
+    @Test
+    public void testTimeout() throws Exception {
+        LuaState a = pool.borrow();
+        LuaState b = pool.borrow();
+        assertNull(pool.borrow(10, TimeUnit.MILLISECONDS));
+        assertEquals(1, pool.getTimeoutCount());
+        pool.release(a);
+        pool.release(b);
+    }
+
+    /**
+     * Tests that closed states are replaced.
+     */
+    @Test
+    public void testDiscard() throws Exception {
+        LuaState luaState = pool.borrow();
+        luaState.close();
+        pool.release(luaState);
+        assertEquals(1, pool.getDiscardCount());
+        assertEquals(3, pool.getCreateCount());
+        assertEquals(2, pool.getIdleCount());
+    }
+
+    /**
+     * Tests that concurrent releases of a state are rejected.
+     */
+    @Test
+    public void testDoubleRelease() throws Exception {
+        final LuaState luaState = pool.borrow();
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        final AtomicInteger failures = new AtomicInteger();
+        Runnable release = () -> {
+            try {
+                barrier.await();
+                pool.release(luaState);
+            } catch (IllegalArgumentException e) {
+                failures.incrementAndGet();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        };
+        Thread thread = new Thread(release);
+        thread.start();
+        release.run();
+        thread.join();
+        assertEquals(1, failures.get());
+        assertEquals(2, pool.getIdleCount());
+        assertEquals(0, pool.getLeasedCount());
+    }
+}
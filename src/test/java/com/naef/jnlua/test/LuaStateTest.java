@@ -6,14 +6,22 @@
 package com.naef.jnlua.test;
 
 import com.naef.jnlua.*;
+import com.naef.jnlua.util.AbstractTableMap;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Predicate;
 
 import static org.junit.Assert.*;
 
@@ -113,6 +121,66 @@ public class LuaStateTest extends AbstractLuaTest {
     }
 
 
+    /**
+     * Tests the memory accounting of a limited state.
+     */
+    @Test
+    public void testMemoryLimit() throws Exception {
+        assertEquals(0L, luaState.getMemoryLimit());
+        LuaState limited = new LuaState(4 << 20);
+        try {
+            assertTrue(limited.getMemoryUsed() > 0);
+            assertTrue(limited.getAllocationCount() > 0);
+            limited.load("local t = {} for i = 1, 1e4 do t[i] = tostring(i) end", "alloc");
+            limited.call(0, 0);
+            assertTrue(limited.getMemoryPeak() >= limited.getMemoryUsed());
+
+            // 64-bit limits
+            limited.setMemoryLimit(8L << 30);
+            assertEquals(8L << 30, limited.getMemoryLimit());
+            assertEquals(Integer.MAX_VALUE, limited.getTotalMemory());
+
+            // Refused allocations
+            limited.setMemoryLimit(limited.getMemoryUsed() + 1024);
+            limited.load("local t = {} for i = 1, 1e5 do t[i] = tostring(i) end", "alloc");
+            try {
+                limited.call(0, 0);
+                fail();
+            } catch (LuaMemoryAllocationException e) {
+                assertTrue(limited.getRejectedAllocationCount() > 0);
+            }
+        } finally {
+            limited.close();
+        }
+    }
+
+    /**
+     * Tests the arena allocator.
+     */
+    @Test
+    public void testArenaAllocator() throws Exception {
+        assertEquals(LuaAllocator.SYSTEM, luaState.getAllocator());
+        LuaState arena = new LuaState(LuaAllocator.ARENA);
+        try {
+            assertEquals(LuaAllocator.ARENA, arena.getAllocator());
+            assertEquals(0L, arena.getMemoryLimit());
+            arena.load("local t = {} for i = 1, 1e4 do t[i] = {i} end t = nil collectgarbage()", "alloc");
+            arena.call(0, 0);
+            assertTrue(arena.getArenaSlabCount() > 0);
+            assertTrue(arena.getArenaReservedMemory() >= arena.getArenaSlabCount() * 1024);
+            assertTrue(arena.getMemoryPeak() > arena.getMemoryUsed());
+            arena.setMemoryLimit(64L << 20);
+            assertEquals(64L << 20, arena.getMemoryLimit());
+        } finally {
+            arena.close();
+        }
+        try {
+            new LuaState(LuaAllocator.LIMITED);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
     /**
      * Tests the registration methods.
      */
@@ -213,6 +281,58 @@ public class LuaStateTest extends AbstractLuaTest {
         assertEquals(0, luaState.getTop());
     }
 
+    /**
+     * Tests loading from buffers and files.
+     */
+    @Test
+    public void testLoadBuffer() throws Exception {
+        byte[] source = "d = (d or 0) + 1".getBytes(LuaState.UTF8);
+
+        // load(ByteBuffer) with a direct buffer
+        ByteBuffer direct = ByteBuffer.allocateDirect(source.length + 2);
+        direct.put((byte) 0).put(source).flip().position(1);
+        luaState.load(direct, "=testLoadBuffer", "t");
+        assertEquals(1, direct.position());
+        luaState.call(0, 0);
+
+        // load(ByteBuffer) with a heap buffer
+        luaState.load(ByteBuffer.wrap(source), "=testLoadBuffer", "t");
+        luaState.call(0, 0);
+
+        // load(Path)
+        Path file = Files.createTempFile("testLoadBuffer", ".lua");
+        try {
+            Files.write(file, source);
+            luaState.load(file, "=testLoadBuffer", null);
+            luaState.call(0, 0);
+        } finally {
+            Files.delete(file);
+        }
+        luaState.getGlobal("d");
+        assertEquals(3, luaState.toInteger(-1));
+        luaState.pop(1);
+
+        // Mode
+        luaState.load("return 1", "=testLoadBuffer");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        luaState.dump(out);
+        luaState.pop(1);
+        ByteBuffer binary = ByteBuffer.allocateDirect(out.size());
+        binary.put(out.toByteArray()).flip();
+        try {
+            luaState.load(binary, "=testLoadBuffer", "t");
+            fail("LuaSyntaxException expected");
+        } catch (LuaSyntaxException e) {
+        }
+        luaState.load(binary, "=testLoadBuffer", "b");
+        luaState.call(0, 1);
+        assertEquals(1, luaState.toInteger(-1));
+        luaState.pop(1);
+
+        // Finish
+        assertEquals(0, luaState.getTop());
+    }
+
     /**
      * Tests the dump method.
      */
@@ -1352,6 +1472,147 @@ public class LuaStateTest extends AbstractLuaTest {
         assertEquals(0, luaState.getTop());
     }
 
+    /**
+     * Tests the primitive array methods.
+     */
+    @Test
+    public void testPrimitiveArray() throws Exception {
+        // pushArray()
+        luaState.pushArray(new int[]{1, 2, 3});
+        assertEquals(3, luaState.length(1));
+        luaState.rawGet(1, 3);
+        assertEquals(3, luaState.toInteger(-1));
+        luaState.pop(2);
+        luaState.pushArray(new boolean[]{true, false});
+        luaState.rawGet(1, 2);
+        assertFalse(luaState.toBoolean(-1));
+        luaState.pop(2);
+        luaState.pushArray(new byte[][]{"a".getBytes(), null, "c".getBytes()});
+        luaState.rawGet(1, 3);
+        assertEquals("c", luaState.toString(-1));
+        luaState.pop(2);
+
+        // toDoubleArray()
+        double[] values = {0.5, -1.0, 1e300};
+        luaState.pushArray(values);
+        assertArrayEquals(values, luaState.toDoubleArray(1), 0.0);
+        luaState.pushString("x");
+        luaState.rawSet(1, 2);
+        assertTrue(Double.isNaN(luaState.toDoubleArray(1)[1]));
+
+        // Finish
+        luaState.pop(1);
+        assertEquals(0, luaState.getTop());
+    }
+
+    /**
+     * Tests element access on Java primitive arrays from Lua.
+     */
+    @Test
+    public void testJavaArrayAccess() throws Exception {
+        int[] ints = {1, 2, 3};
+        double[] doubles = {0.5, 1.5};
+        byte[] bytes = {-1, 0};
+        luaState.pushJavaObject(ints);
+        luaState.setGlobal("ints");
+        luaState.pushJavaObject(doubles);
+        luaState.setGlobal("doubles");
+        luaState.pushJavaObject(bytes);
+        luaState.setGlobal("bytes");
+        luaState.load("local s = 0 for i = 1, #ints do s = s + ints[i]; ints[i] = i * 10 end "
+                + "doubles[2] = doubles[1] + doubles[2]; bytes[2] = bytes[1] "
+                + "return s, #doubles", "array");
+        luaState.call(0, 2);
+        assertEquals(6, luaState.toInteger(1));
+        assertEquals(2, luaState.toInteger(2));
+        luaState.pop(2);
+        assertArrayEquals(new int[]{10, 20, 30}, ints);
+        assertArrayEquals(new double[]{0.5, 2.0}, doubles, 0.0);
+        assertArrayEquals(new byte[]{-1, -1}, bytes);
+
+        // Invalid access falls back to Java
+        luaState.load("return ints[4]", "array");
+        try {
+            luaState.call(0, 1);
+            fail();
+        } catch (LuaRuntimeException e) {
+            assertTrue(e.getMessage().contains("length 3"));
+        }
+    }
+
+    /**
+     * Tests FFI views over direct buffers.
+     */
+    @Test
+    public void testBufferView() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(16).order(ByteOrder.nativeOrder());
+        buffer.putInt(0, 7);
+        assertEquals(4, luaState.pushBufferView(buffer, "int32_t"));
+        luaState.setGlobal("view");
+        luaState.load("view[1] = view[0] * 2 return view[1]", "view");
+        luaState.call(0, 1);
+        assertEquals(14, luaState.toInteger(1));
+        assertEquals(14, buffer.getInt(4));
+        luaState.pop(1);
+
+        // Position and element size
+        buffer.position(8);
+        assertEquals(1, luaState.pushBufferView(buffer, "double"));
+        luaState.pop(1);
+
+        // Heap buffers
+        try {
+            luaState.pushBufferView(ByteBuffer.allocate(16), "uint8_t");
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+
+        // Finish
+        assertEquals(0, luaState.getTop());
+    }
+
+    /**
+     * Tests the table snapshot.
+     */
+    @Test
+    public void testTableSnapshot() throws Exception {
+        luaState.load("t = {1, 2.5, 'x', flag = true, inner = {a = {b = 1}}, f = print}; t.self = t; return t", "snapshot");
+        luaState.call(0, 1);
+
+        // Top level only
+        Map<Object, Object> map = luaState.tableSnapshot(1, 0, Object.class, Object.class);
+        assertEquals(7, map.size());
+        assertEquals(1L, map.get(1L));
+        assertEquals(2.5, map.get(2L));
+        assertEquals("x", map.get(3L));
+        assertEquals(Boolean.TRUE, map.get("flag"));
+        assertTrue(map.get("inner") instanceof LuaValueProxy);
+        assertTrue(map.get("f") instanceof LuaValueProxy);
+
+        // All levels, cycles are returned as proxies
+        map = luaState.tableSnapshot(1, -1, Object.class, Object.class);
+        Map<?, ?> inner = (Map<?, ?>) ((Map<?, ?>) map.get("inner")).get("a");
+        assertEquals(1L, inner.get("b"));
+        assertTrue(map.get("self") instanceof LuaValueProxy);
+
+        // Table map snapshot
+        AbstractTableMap<Object, Object> tableMap = new AbstractTableMap<>(luaState, 1, Object.class, Object.class);
+        map = tableMap.toSnapshot();
+        assertEquals(1L, map.get(1L));
+        assertTrue(map.get("f") instanceof LuaValueProxy);
+        tableMap.unRef();
+
+        // Key and value conversion
+        luaState.load("return {10, 20, 30}", "snapshot");
+        luaState.call(0, 1);
+        Map<Integer, String> list = luaState.tableSnapshot(2, 0, Integer.class, String.class);
+        assertEquals("20", list.get(2));
+
+        // Finish
+        luaState.pop(2);
+        assertEquals(0, luaState.getTop());
+    }
+
     // -- Metatable tests
 
     /**
@@ -1481,6 +1742,64 @@ public class LuaStateTest extends AbstractLuaTest {
         assertEquals(0, luaState.getTop());
     }
 
+    /**
+     * Tests the identity cache for pushed Java objects.
+     */
+    @Test
+    public void testObjectCache() {
+        Object object = new Object();
+
+        // Disabled
+        assertFalse(luaState.isObjectCacheEnabled());
+        luaState.pushJavaObject(object);
+        luaState.pushJavaObject(object);
+        assertFalse(luaState.rawEqual(1, 2));
+        luaState.pop(2);
+
+        // Enabled
+        luaState.setObjectCacheEnabled(true);
+        assertTrue(luaState.isObjectCacheEnabled());
+        luaState.pushJavaObject(object);
+        luaState.pushJavaObject(object);
+        luaState.pushJavaObject(new Object());
+        assertTrue(luaState.rawEqual(1, 2));
+        assertFalse(luaState.rawEqual(1, 3));
+        assertSame(object, luaState.toJavaObject(2, Object.class));
+        luaState.pop(3);
+
+        // Disabled again
+        luaState.setObjectCacheEnabled(false);
+        assertFalse(luaState.isObjectCacheEnabled());
+
+        // Finish
+        assertEquals(0, luaState.getTop());
+    }
+
+    /**
+     * Tests preloading the members of a class.
+     */
+    @Test
+    public void testPreloadClass() {
+        PreloadTarget target = new PreloadTarget();
+        target.value = 21;
+        assertTrue(luaState.preloadClass(PreloadTarget.class) >= 2);
+        assertEquals(0, luaState.preloadClass(PreloadTarget.class));
+
+        // Members are registered before their first access
+        luaState.pushJavaObject(target);
+        luaState.setGlobal("target");
+        luaState.load("local env = debug.getfenv(target)\n"
+                + "return rawget(env, 'value') ~= nil and rawget(env, 'twice') ~= nil, target.value, target:twice()", "testPreloadClass");
+        luaState.call(0, 3);
+        assertTrue(luaState.toBoolean(1));
+        assertEquals(21, luaState.toInteger(2));
+        assertEquals(42, luaState.toInteger(3));
+        luaState.pop(3);
+
+        // Finish
+        assertEquals(0, luaState.getTop());
+    }
+
     /**
      * Tests the argument check methods.
      */
@@ -1748,6 +2067,52 @@ public class LuaStateTest extends AbstractLuaTest {
         assertEquals(0, luaState.getTop());
     }
 
+    /**
+     * Tests the generated interface proxies.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testGetProxyGenerated() throws Exception {
+        // Primitive arguments and results
+        luaState.load("return { compare = function (self, a, b) return a - b end }",
+                "=testGetProxyGenerated");
+        luaState.call(0, 1);
+        Comparator<Integer> comparator = luaState.getProxy(-1, Comparator.class);
+        luaState.pop(1);
+        assertFalse(java.lang.reflect.Proxy.isProxyClass(comparator.getClass()));
+        assertTrue(comparator instanceof LuaValueProxy);
+        List<Integer> list = new ArrayList<>(Arrays.asList(3, 1, 2));
+        list.sort(comparator);
+        assertEquals(Arrays.asList(1, 2, 3), list);
+
+        // Default methods without a Lua function
+        list.sort(comparator.reversed());
+        assertEquals(Arrays.asList(3, 2, 1), list);
+
+        // Boolean results
+        luaState.load("return { test = function (self, s) return #s > 2 end }",
+                "=testGetProxyGenerated");
+        luaState.call(0, 1);
+        Predicate<String> predicate = luaState.getProxy(-1, Predicate.class);
+        luaState.pop(1);
+        assertTrue(predicate.test("abc"));
+        assertFalse(predicate.test("ab"));
+        assertFalse(predicate.negate().test("abc"));
+
+        // Missing functions
+        luaState.newTable();
+        Runnable runnable = luaState.getProxy(-1, Runnable.class);
+        luaState.pop(1);
+        try {
+            runnable.run();
+            fail("UnsupportedOperationException expected");
+        } catch (UnsupportedOperationException e) {
+            assertEquals("run", e.getMessage());
+        }
+        ((LuaValueProxy) runnable).unRef();
+        assertEquals(0, luaState.getTop());
+    }
+
     // -- Private methods
 
     /**
@@ -1830,4 +2195,15 @@ public class LuaStateTest extends AbstractLuaTest {
             return "test";
         }
     }
+
+    /**
+     * A class whose members are preloaded.
+     */
+    public static class PreloadTarget {
+        public int value;
+
+        public int twice() {
+            return value * 2;
+        }
+    }
 }
@@ -292,4 +292,44 @@ public class PerformanceTest extends AbstractLuaTest {
         rate = (System.nanoTime() - start);
         System.out.println(String.format("Lua(Native): %.3f ms (%.2f x) ", rate / 1e6, rate * 1.0 / base));
     }
+
+    /**
+     * Times the stack primitives that use the fast JNI entry path.
+     */
+    @Test
+    public void testStackPrimitives() {
+        System.out.println("\nTesting stack primitives\n=====================");
+        LuaState lua = new LuaState();
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) lua.getTop();
+        System.out.println(String.format("getTop: %.1f ns/op", (System.nanoTime() - start) * 1.0 / rounds));
+
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            lua.pushNil();
+            lua.pop(1);
+        }
+        System.out.println(String.format("pushNil+pop: %.1f ns/op", (System.nanoTime() - start) * 1.0 / rounds));
+
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            lua.pushNumber(i);
+            lua.setTop(0);
+        }
+        System.out.println(String.format("pushNumber+setTop: %.1f ns/op", (System.nanoTime() - start) * 1.0 / rounds));
+
+        lua.pushNumber(1.5);
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) lua.isNumber(-1);
+        System.out.println(String.format("isNumber: %.1f ns/op", (System.nanoTime() - start) * 1.0 / rounds));
+
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) lua.toNumber(-1);
+        System.out.println(String.format("toNumber: %.1f ns/op", (System.nanoTime() - start) * 1.0 / rounds));
+
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) lua.toBoolean(-1);
+        System.out.println(String.format("toBoolean: %.1f ns/op", (System.nanoTime() - start) * 1.0 / rounds));
+        lua.close();
+    }
 }
@@ -30,6 +30,16 @@ function testRequire()
     assert(imported)
 end
 
+-- java.preload
+function testPreload()
+    local StringBuilder = java.require("java.lang.StringBuilder")
+    assert(java.preload("java.lang.StringBuilder") >= 0)
+    assert(java.preload(StringBuilder) == 0)
+    local builder = java.new(StringBuilder)
+    builder:append("preload")
+    assert(builder:toString() == "preload")
+end
+
 -- java.new
 function testNew()
     local byte = java.require("byte")
@@ -105,6 +105,12 @@ function testMethodDispatch()
     assert(testObject:overloadedSub(testObject) == "super")
     assert(testObject:overloadedSub(sub) == "sub")
 
+    -- Repeated dispatch through the overload inline cache
+    for i = 1, 10 do
+        assert(testObject:overloadedSub(sub) == "sub")
+        assert(testObject:overloadedSub(testObject) == "super")
+    end
+
     -- Subinterface test
     local AB = java.require("com.naef.jnlua.test.fixture.TestObject$AB")
     local ab = AB:new()